@@ -32,7 +32,7 @@ import java.util.concurrent.Executors;
 public class SearchServer extends AbstractServer<ServerConfiguration> {
 
 	private SearchServer() {
-		super(Executors.newSingleThreadExecutor(), new ServerConfiguration());
+		super(Executors.newCachedThreadPool(), new ServerConfiguration());
 	}
 
 	@Override
@@ -34,6 +34,33 @@ public abstract class ValueConverter<T, V> {
 
 	public abstract V convert(int docId);
 
+	/**
+	 * Decode a raw numeric doc value as a double
+	 *
+	 * @param value the value returned by the numeric doc values
+	 * @return the decoded value
+	 */
+	public double toDouble(long value) {
+		return value;
+	}
+
+	/**
+	 * Decode a raw numeric doc value using the numeric type of the field
+	 *
+	 * @param value the value returned by the numeric doc values
+	 * @return the decoded value
+	 */
+	public Number toNumber(long value) {
+		return value;
+	}
+
+	/**
+	 * @return true if the numeric doc values are float or double values encoded as sortable integers
+	 */
+	public boolean isFloatingPoint() {
+		return false;
+	}
+
 	static class BinaryDVConverter extends ValueConverter<BinaryDocValues, String> {
 
 		BinaryDVConverter(BinaryDocValues source) {
@@ -75,6 +102,21 @@ public abstract class ValueConverter<T, V> {
 		final public Double convert(int docId) {
 			return NumericUtils.sortableLongToDouble(source.get(docId));
 		}
+
+		@Override
+		final public double toDouble(long value) {
+			return NumericUtils.sortableLongToDouble(value);
+		}
+
+		@Override
+		final public Double toNumber(long value) {
+			return NumericUtils.sortableLongToDouble(value);
+		}
+
+		@Override
+		final public boolean isFloatingPoint() {
+			return true;
+		}
 	}
 
 	static class FloatDVConverter extends ValueConverter<NumericDocValues, Float> {
@@ -87,6 +129,21 @@ public abstract class ValueConverter<T, V> {
 		final public Float convert(int docId) {
 			return NumericUtils.sortableIntToFloat((int) source.get(docId));
 		}
+
+		@Override
+		final public double toDouble(long value) {
+			return NumericUtils.sortableIntToFloat((int) value);
+		}
+
+		@Override
+		final public Float toNumber(long value) {
+			return NumericUtils.sortableIntToFloat((int) value);
+		}
+
+		@Override
+		final public boolean isFloatingPoint() {
+			return true;
+		}
 	}
 
 	static class LongDVConverter extends ValueConverter<NumericDocValues, Long> {
@@ -111,6 +168,11 @@ public abstract class ValueConverter<T, V> {
 		final public Integer convert(int docId) {
 			return (int) source.get(docId);
 		}
+
+		@Override
+		final public Integer toNumber(long value) {
+			return (int) value;
+		}
 	}
 
 	static class DoubleSetDVConverter extends ValueConverter<SortedNumericDocValues, double[]> {
@@ -127,6 +189,21 @@ public abstract class ValueConverter<T, V> {
 				set[i] = NumericUtils.sortableLongToDouble(source.valueAt(i));
 			return set;
 		}
+
+		@Override
+		final public double toDouble(long value) {
+			return NumericUtils.sortableLongToDouble(value);
+		}
+
+		@Override
+		final public Double toNumber(long value) {
+			return NumericUtils.sortableLongToDouble(value);
+		}
+
+		@Override
+		final public boolean isFloatingPoint() {
+			return true;
+		}
 	}
 
 	static class FloatSetDVConverter extends ValueConverter<SortedNumericDocValues, float[]> {
@@ -143,6 +220,21 @@ public abstract class ValueConverter<T, V> {
 				set[i] = NumericUtils.sortableIntToFloat((int) source.valueAt(i));
 			return set;
 		}
+
+		@Override
+		final public double toDouble(long value) {
+			return NumericUtils.sortableIntToFloat((int) value);
+		}
+
+		@Override
+		final public Float toNumber(long value) {
+			return NumericUtils.sortableIntToFloat((int) value);
+		}
+
+		@Override
+		final public boolean isFloatingPoint() {
+			return true;
+		}
 	}
 
 	static class LongSetDVConverter extends ValueConverter<SortedNumericDocValues, long[]> {
@@ -175,6 +267,11 @@ public abstract class ValueConverter<T, V> {
 				set[i] = (int) source.valueAt(i);
 			return set;
 		}
+
+		@Override
+		final public Integer toNumber(long value) {
+			return (int) value;
+		}
 	}
 
 	private final static ValueConverter newNumericConverter(FieldDefinition fieldDef, NumericDocValues numericDocValues)
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * A bucket aggregation over the numeric doc values of a field.
+ * <ul>
+ * <li>histogram: buckets of a fixed width (interval), the key of a bucket is its lower bound</li>
+ * <li>date_histogram: buckets of a calendar unit (date_interval) over a timestamp in milliseconds, the key of a
+ * bucket is its starting date (UTC)</li>
+ * <li>range: one bucket per range, the lower bound (from) is included, the upper bound (to) is excluded</li>
+ * </ul>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AggregationDefinition {
+
+	public enum TypeEnum {
+		histogram, date_histogram, range
+	}
+
+	public enum DateIntervalEnum {
+		second, minute, hour, day, week, month, quarter, year
+	}
+
+	final public TypeEnum type;
+	final public String field;
+	final public Double interval;
+	final public DateIntervalEnum date_interval;
+	final public List<Range> ranges;
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class Range {
+
+		final public String key;
+		final public Double from;
+		final public Double to;
+
+		public Range() {
+			key = null;
+			from = null;
+			to = null;
+		}
+
+		public Range(String key, Double from, Double to) {
+			this.key = key;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	public AggregationDefinition() {
+		type = null;
+		field = null;
+		interval = null;
+		date_interval = null;
+		ranges = null;
+	}
+
+	public AggregationDefinition(TypeEnum type, String field, Double interval, DateIntervalEnum date_interval,
+			List<Range> ranges) {
+		this.type = type;
+		this.field = field;
+		this.interval = interval;
+		this.date_interval = date_interval;
+		this.ranges = ranges;
+	}
+
+	public static AggregationDefinition histogram(String field, double interval) {
+		return new AggregationDefinition(TypeEnum.histogram, field, interval, null, null);
+	}
+
+	public static AggregationDefinition dateHistogram(String field, DateIntervalEnum dateInterval) {
+		return new AggregationDefinition(TypeEnum.date_histogram, field, null, dateInterval, null);
+	}
+
+	public static AggregationDefinition range(String field, List<Range> ranges) {
+		return new AggregationDefinition(TypeEnum.range, field, null, null, ranges);
+	}
+}
@@ -0,0 +1,442 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.search.field.FieldTypeInterface;
+import com.qwazr.search.field.ValueConverter;
+import com.qwazr.utils.server.ServerException;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.Bits;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compute the bucket aggregations during the main search.
+ * The numeric doc values of each collected document are read once per aggregation and counted in primitive arrays.
+ * The bucket keys are built only when the result is returned.
+ */
+class AggregationsCollector extends SimpleCollector {
+
+	private final static int MAX_BUCKETS = 65536;
+
+	private final String[] names;
+	private final Aggregation[] aggregations;
+
+	AggregationsCollector(final Map<String, FieldTypeInterface> fields,
+			final LinkedHashMap<String, AggregationDefinition> aggregationDefs) {
+		names = new String[aggregationDefs.size()];
+		aggregations = new Aggregation[aggregationDefs.size()];
+		int i = 0;
+		for (Map.Entry<String, AggregationDefinition> entry : aggregationDefs.entrySet()) {
+			names[i] = entry.getKey();
+			aggregations[i++] = newAggregation(fields, entry.getKey(), entry.getValue());
+		}
+	}
+
+	private static Aggregation newAggregation(final Map<String, FieldTypeInterface> fields, final String name,
+			final AggregationDefinition aggregationDef) {
+		final FieldTypeInterface fieldType = fields.get(aggregationDef.field);
+		if (fieldType == null)
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+					"Cannot compute the aggregation " + name + " because the field is unknown: "
+							+ aggregationDef.field);
+		if (aggregationDef.type == null)
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE, "The aggregation " + name + " has no type");
+		switch (aggregationDef.type) {
+		case histogram:
+			if (aggregationDef.interval == null || !(aggregationDef.interval > 0))
+				throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+						"The histogram " + name + " requires a positive interval");
+			return new HistogramAggregation(fieldType, aggregationDef.field, aggregationDef.interval);
+		case date_histogram:
+			if (aggregationDef.date_interval == null)
+				throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+						"The date histogram " + name + " requires a date_interval");
+			return new DateHistogramAggregation(fieldType, aggregationDef.field, aggregationDef.date_interval);
+		case range:
+			if (aggregationDef.ranges == null || aggregationDef.ranges.isEmpty())
+				throw new ServerException(Response.Status.NOT_ACCEPTABLE, "The range " + name + " has no range");
+			return new RangeAggregation(fieldType, aggregationDef);
+		default:
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+					"Unsupported aggregation type: " + aggregationDef.type);
+		}
+	}
+
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+
+	@Override
+	protected void doSetNextReader(final LeafReaderContext context) throws IOException {
+		final LeafReader leafReader = context.reader();
+		for (Aggregation aggregation : aggregations)
+			aggregation.setLeaf(leafReader);
+	}
+
+	@Override
+	public void collect(final int doc) throws IOException {
+		for (Aggregation aggregation : aggregations)
+			aggregation.collect(doc);
+	}
+
+	/**
+	 * Add the counts of the collector of another slice (parallel search)
+	 */
+	final void reduce(final AggregationsCollector other) {
+		for (int i = 0; i < aggregations.length; i++)
+			aggregations[i].reduce(other.aggregations[i]);
+	}
+
+	final LinkedHashMap<String, Map<String, Number>> getResults() {
+		final LinkedHashMap<String, Map<String, Number>> results = new LinkedHashMap<>();
+		for (int i = 0; i < aggregations.length; i++)
+			results.put(names[i], aggregations[i].getCounts());
+		return results;
+	}
+
+	private static abstract class Aggregation {
+
+		private final FieldTypeInterface fieldType;
+		private final String fieldName;
+
+		protected ValueConverter converter;
+		private NumericDocValues numericDocValues;
+		private Bits docsWithField;
+		private SortedNumericDocValues sortedNumericDocValues;
+
+		protected Aggregation(final FieldTypeInterface fieldType, final String fieldName) {
+			this.fieldType = fieldType;
+			this.fieldName = fieldName;
+		}
+
+		final void setLeaf(final LeafReader leafReader) throws IOException {
+			numericDocValues = null;
+			docsWithField = null;
+			sortedNumericDocValues = null;
+			final ValueConverter leafConverter = fieldType.getConverter(leafReader);
+			if (leafConverter == null || !leafConverter.isNumeric)
+				return;
+			converter = leafConverter;
+			if (leafConverter.source instanceof NumericDocValues) {
+				numericDocValues = (NumericDocValues) leafConverter.source;
+				docsWithField = leafReader.getDocsWithField(fieldName);
+			} else
+				sortedNumericDocValues = (SortedNumericDocValues) leafConverter.source;
+		}
+
+		final void collect(final int doc) {
+			if (numericDocValues != null) {
+				if (docsWithField != null && !docsWithField.get(doc))
+					return;
+				add(numericDocValues.get(doc));
+			} else if (sortedNumericDocValues != null) {
+				sortedNumericDocValues.setDocument(doc);
+				final int count = sortedNumericDocValues.count();
+				for (int i = 0; i < count; i++)
+					add(sortedNumericDocValues.valueAt(i));
+			}
+		}
+
+		/**
+		 * @param value the raw numeric doc value
+		 */
+		protected abstract void add(long value);
+
+		protected abstract void reduce(Aggregation other);
+
+		protected abstract Map<String, Number> getCounts();
+	}
+
+	/**
+	 * The counts of a contiguous set of buckets, the array grows when a value falls outside of it
+	 */
+	private static class BucketCounts {
+
+		private long first;
+		private int[] counts;
+
+		private BucketCounts() {
+			first = 0;
+			counts = null;
+		}
+
+		final void increment(final long bucket) {
+			final long pos = bucket - first;
+			if (counts != null && pos >= 0 && pos < counts.length)
+				counts[(int) pos]++;
+			else
+				add(bucket, 1);
+		}
+
+		final void add(final long bucket, final int count) {
+			if (counts == null) {
+				first = bucket;
+				counts = new int[16];
+			} else if (bucket < first || bucket >= first + counts.length)
+				grow(bucket);
+			counts[(int) (bucket - first)] += count;
+		}
+
+		private void grow(final long bucket) {
+			final long last = first + counts.length - 1;
+			final long newFirst = Math.min(first, bucket);
+			final long newLast = Math.max(last, bucket);
+			if (newLast - newFirst >= MAX_BUCKETS)
+				throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+						"Too many buckets, the limit is " + MAX_BUCKETS + ": increase the interval");
+			final int newLength = (int) Math.min(MAX_BUCKETS, Math.max(newLast - newFirst + 1, counts.length * 2L));
+			// The free space is kept on the side of the growth
+			final long allocatedFirst = bucket < first ? newLast - newLength + 1 : newFirst;
+			final int[] newCounts = new int[newLength];
+			System.arraycopy(counts, 0, newCounts, (int) (first - allocatedFirst), counts.length);
+			first = allocatedFirst;
+			counts = newCounts;
+		}
+
+		final void reduce(final BucketCounts other) {
+			if (other.counts == null)
+				return;
+			for (int i = 0; i < other.counts.length; i++)
+				if (other.counts[i] != 0)
+					add(other.first + i, other.counts[i]);
+		}
+
+		interface KeyBuilder {
+
+			String getKey(long bucket);
+		}
+
+		final Map<String, Number> getCounts(final KeyBuilder keyBuilder) {
+			final LinkedHashMap<String, Number> results = new LinkedHashMap<>();
+			if (counts == null)
+				return results;
+			for (int i = 0; i < counts.length; i++)
+				if (counts[i] != 0)
+					results.put(keyBuilder.getKey(first + i), counts[i]);
+			return results;
+		}
+	}
+
+	private static class HistogramAggregation extends Aggregation {
+
+		private final double interval;
+		private final BucketCounts buckets;
+
+		private HistogramAggregation(final FieldTypeInterface fieldType, final String fieldName,
+				final double interval) {
+			super(fieldType, fieldName);
+			this.interval = interval;
+			this.buckets = new BucketCounts();
+		}
+
+		@Override
+		final protected void add(final long value) {
+			final double doubleValue = converter.isFloatingPoint() ? converter.toDouble(value) : value;
+			buckets.increment((long) Math.floor(doubleValue / interval));
+		}
+
+		@Override
+		final protected void reduce(final Aggregation other) {
+			buckets.reduce(((HistogramAggregation) other).buckets);
+		}
+
+		@Override
+		final protected Map<String, Number> getCounts() {
+			return buckets.getCounts(bucket -> toKey(bucket * interval));
+		}
+	}
+
+	private static class DateHistogramAggregation extends Aggregation {
+
+		private final static long SECOND = 1000L;
+		private final static long MINUTE = SECOND * 60;
+		private final static long HOUR = MINUTE * 60;
+		private final static long DAY = HOUR * 24;
+		private final static long WEEK = DAY * 7;
+
+		// The 1st January 1970 is a Thursday, the weeks start on Monday
+		private final static long WEEK_OFFSET = DAY * 3;
+
+		private final AggregationDefinition.DateIntervalEnum dateInterval;
+		private final BucketCounts buckets;
+
+		private DateHistogramAggregation(final FieldTypeInterface fieldType, final String fieldName,
+				final AggregationDefinition.DateIntervalEnum dateInterval) {
+			super(fieldType, fieldName);
+			this.dateInterval = dateInterval;
+			this.buckets = new BucketCounts();
+		}
+
+		@Override
+		final protected void add(final long value) {
+			final long time = converter.isFloatingPoint() ? (long) converter.toDouble(value) : value;
+			switch (dateInterval) {
+			case second:
+				buckets.increment(Math.floorDiv(time, SECOND));
+				break;
+			case minute:
+				buckets.increment(Math.floorDiv(time, MINUTE));
+				break;
+			case hour:
+				buckets.increment(Math.floorDiv(time, HOUR));
+				break;
+			case day:
+				buckets.increment(Math.floorDiv(time, DAY));
+				break;
+			case week:
+				buckets.increment(Math.floorDiv(time + WEEK_OFFSET, WEEK));
+				break;
+			case month:
+				buckets.increment(getMonth(time));
+				break;
+			case quarter:
+				buckets.increment(Math.floorDiv(getMonth(time), 3));
+				break;
+			case year:
+				buckets.increment(Math.floorDiv(getMonth(time), 12));
+				break;
+			}
+		}
+
+		/**
+		 * Compute the number of months since year 0 (UTC) without any allocation
+		 *
+		 * @param time the number of milliseconds since the epoch
+		 * @return the month index (year * 12 + month - 1)
+		 */
+		private static long getMonth(final long time) {
+			final long z = Math.floorDiv(time, DAY) + 719468;
+			final long era = Math.floorDiv(z, 146097);
+			final long doe = z - era * 146097;
+			final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+			final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+			final long mp = (5 * doy + 2) / 153;
+			final long month = mp < 10 ? mp + 3 : mp - 9;
+			final long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+			return year * 12 + month - 1;
+		}
+
+		private static String getMonthKey(final long month) {
+			return LocalDate.of((int) Math.floorDiv(month, 12), (int) Math.floorMod(month, 12) + 1, 1)
+					.atStartOfDay(ZoneOffset.UTC).toInstant().toString();
+		}
+
+		private String getKey(final long bucket) {
+			switch (dateInterval) {
+			case second:
+				return Instant.ofEpochMilli(bucket * SECOND).toString();
+			case minute:
+				return Instant.ofEpochMilli(bucket * MINUTE).toString();
+			case hour:
+				return Instant.ofEpochMilli(bucket * HOUR).toString();
+			case day:
+				return Instant.ofEpochMilli(bucket * DAY).toString();
+			case week:
+				return Instant.ofEpochMilli(bucket * WEEK - WEEK_OFFSET).toString();
+			case month:
+				return getMonthKey(bucket);
+			case quarter:
+				return getMonthKey(bucket * 3);
+			case year:
+				return getMonthKey(bucket * 12);
+			default:
+				return null;
+			}
+		}
+
+		@Override
+		final protected void reduce(final Aggregation other) {
+			buckets.reduce(((DateHistogramAggregation) other).buckets);
+		}
+
+		@Override
+		final protected Map<String, Number> getCounts() {
+			return buckets.getCounts(this::getKey);
+		}
+	}
+
+	private static class RangeAggregation extends Aggregation {
+
+		private final String[] keys;
+		private final double[] froms;
+		private final double[] tos;
+		private final int[] counts;
+
+		private RangeAggregation(final FieldTypeInterface fieldType, final AggregationDefinition aggregationDef) {
+			super(fieldType, aggregationDef.field);
+			final int size = aggregationDef.ranges.size();
+			keys = new String[size];
+			froms = new double[size];
+			tos = new double[size];
+			counts = new int[size];
+			int i = 0;
+			for (AggregationDefinition.Range range : aggregationDef.ranges) {
+				froms[i] = range.from == null ? Double.NEGATIVE_INFINITY : range.from;
+				tos[i] = range.to == null ? Double.POSITIVE_INFINITY : range.to;
+				keys[i] = range.key != null ?
+						range.key :
+						(range.from == null ? "*" : toKey(range.from)) + '-' + (range.to == null ?
+								"*" :
+								toKey(range.to));
+				i++;
+			}
+		}
+
+		@Override
+		final protected void add(final long value) {
+			final double doubleValue = converter.isFloatingPoint() ? converter.toDouble(value) : value;
+			for (int i = 0; i < counts.length; i++)
+				if (doubleValue >= froms[i] && doubleValue < tos[i])
+					counts[i]++;
+		}
+
+		@Override
+		final protected void reduce(final Aggregation other) {
+			final int[] otherCounts = ((RangeAggregation) other).counts;
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += otherCounts[i];
+		}
+
+		@Override
+		final protected Map<String, Number> getCounts() {
+			final LinkedHashMap<String, Number> results = new LinkedHashMap<>();
+			for (int i = 0; i < counts.length; i++)
+				results.put(keys[i], counts[i]);
+			return results;
+		}
+	}
+
+	/**
+	 * The integral bounds are written without decimal part
+	 */
+	private static String toKey(final double value) {
+		if (value == Math.rint(value) && Math.abs(value) < (1L << 53))
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import org.apache.lucene.store.RateLimiter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fill a backup directory with the files of a commit point. Lucene files are never modified once written, so a
+ * file is hard-linked from the data directory, or from the previous backup, whenever the file system allows it.
+ * The remaining files are copied by several threads, with an optional throughput limit.
+ */
+class BackupCopier {
+
+	private final static int DEFAULT_THREADS = 2;
+	private final static int BUFFER_SIZE = 65536;
+
+	private final ExecutorService executorService;
+	private final int threads;
+	private final Double maxMbPerSec;
+
+	BackupCopier(final ExecutorService executorService, final Integer threads, final Double maxMbPerSec) {
+		this.executorService = executorService;
+		this.threads = threads == null || threads <= 0 ? DEFAULT_THREADS : threads;
+		this.maxMbPerSec = maxMbPerSec == null || maxMbPerSec <= 0 ? null : maxMbPerSec;
+	}
+
+	/**
+	 * @param fileNames         the files of the commit point
+	 * @param dataDirectory     the directory of the index
+	 * @param previousBackupDir the last backup, or null
+	 * @param backupDir         the directory of the new backup
+	 * @throws IOException          if any I/O error occurs
+	 * @throws InterruptedException if the copy is interrupted
+	 */
+	final void backup(final Collection<String> fileNames, final File dataDirectory, final File previousBackupDir,
+			final File backupDir) throws IOException, InterruptedException {
+		final Queue<String> filesToCopy = new ConcurrentLinkedQueue<>();
+		for (String fileName : fileNames) {
+			final File sourceFile = new File(dataDirectory, fileName);
+			final File targetFile = new File(backupDir, fileName);
+			if (isSameFile(sourceFile, targetFile))
+				continue;
+			if (link(sourceFile, targetFile))
+				continue;
+			if (previousBackupDir != null) {
+				final File previousFile = new File(previousBackupDir, fileName);
+				if (isSameFile(sourceFile, previousFile) && link(previousFile, targetFile))
+					continue;
+			}
+			filesToCopy.add(fileName);
+		}
+		if (filesToCopy.isEmpty())
+			return;
+		final int count = Math.min(threads, filesToCopy.size());
+		final List<Future<?>> futures = new ArrayList<>(count);
+		// One limiter shared by the threads (SimpleRateLimiter is thread-safe): the limit is the total throughput
+		final RateLimiter rateLimiter = maxMbPerSec == null ? null : new RateLimiter.SimpleRateLimiter(maxMbPerSec);
+		for (int i = 0; i < count; i++) {
+			futures.add(executorService.submit(() -> {
+				String fileName;
+				while ((fileName = filesToCopy.poll()) != null)
+					copy(new File(dataDirectory, fileName), new File(backupDir, fileName), rateLimiter);
+				return null;
+			}));
+		}
+		// On failure, the other threads stop after their current file
+		IOException error = null;
+		try {
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					filesToCopy.clear();
+					if (error == null)
+						error = e.getCause() instanceof IOException ?
+								(IOException) e.getCause() :
+								new IOException(e.getCause());
+				}
+			}
+		} finally {
+			for (Future<?> future : futures)
+				future.cancel(true);
+		}
+		if (error != null)
+			throw error;
+	}
+
+	private static boolean isSameFile(final File sourceFile, final File targetFile) {
+		return targetFile.exists() && targetFile.length() == sourceFile.length() &&
+				targetFile.lastModified() == sourceFile.lastModified();
+	}
+
+	private static boolean link(final File existingFile, final File linkFile) {
+		try {
+			Files.deleteIfExists(linkFile.toPath());
+			Files.createLink(linkFile.toPath(), existingFile.toPath());
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			// Not supported by the file system, or on another file system
+			return false;
+		}
+	}
+
+	private static void copy(final File sourceFile, final File targetFile, final RateLimiter rateLimiter)
+			throws IOException {
+		final Path source = sourceFile.toPath();
+		final Path target = targetFile.toPath();
+		Files.deleteIfExists(target);
+		try (final InputStream input = Files.newInputStream(source);
+				final OutputStream output = Files.newOutputStream(target)) {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			long pendingBytes = 0;
+			int length;
+			while ((length = input.read(buffer)) != -1) {
+				output.write(buffer, 0, length);
+				if (rateLimiter == null)
+					continue;
+				pendingBytes += length;
+				if (pendingBytes < rateLimiter.getMinPauseCheckBytes())
+					continue;
+				rateLimiter.pause(pendingBytes);
+				pendingBytes = 0;
+			}
+		}
+		Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.utils.json.JsonMapper;
+import com.qwazr.utils.server.ServerException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Index a stream of newline delimited JSON documents.
+ * The documents are parsed one by one by the calling thread, and indexed concurrently by a set of workers running on
+ * the executor. The queue between the parser and the workers is bounded, the parser waits when the workers are late.
+ * The workers stop when the parser has ended and the queue is empty. They are never interrupted, as an interruption
+ * during an I/O operation would close the files of the index writer.
+ */
+class BulkPoster {
+
+	private final static int QUEUE_SIZE_PER_THREAD = 64;
+	private final static int CHECK_SIZE_PERIOD = 1000;
+	private final static int MAX_ERRORS = 1000;
+	private final static int MAX_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+	private final static long POLL_TIMEOUT_MS = 100;
+
+	private final static ObjectReader READER = JsonMapper.MAPPER.readerFor(Map.class);
+
+	private final ExecutorService executorService;
+	private final int threads;
+	private final Supplier<? extends Consumer<Map<String, Object>>> posterSupplier;
+	private final SizeChecker sizeChecker;
+	private final BlockingQueue<Item> queue;
+	private final AtomicLong indexed;
+	private final AtomicLong failed;
+	private final AtomicInteger workingThreads;
+	private final List<BulkStatus.Error> errors;
+
+	// No more document will be queued
+	private volatile boolean parsed;
+	// The queued documents are dropped
+	private volatile boolean aborted;
+
+	interface SizeChecker {
+
+		void checkSize(int addSize) throws IOException, ServerException;
+	}
+
+	private static class Item {
+
+		private final long position;
+		private final Map<String, Object> document;
+
+		private Item(final long position, final Map<String, Object> document) {
+			this.position = position;
+			this.document = document;
+		}
+	}
+
+	BulkPoster(final ExecutorService executorService, final Integer threads,
+			final Supplier<? extends Consumer<Map<String, Object>>> posterSupplier, final SizeChecker sizeChecker) {
+		this.executorService = executorService;
+		this.threads = threads == null || threads <= 0 ?
+				Runtime.getRuntime().availableProcessors() :
+				Math.min(threads, MAX_THREADS);
+		this.posterSupplier = posterSupplier;
+		this.sizeChecker = sizeChecker;
+		this.queue = new ArrayBlockingQueue<>(this.threads * QUEUE_SIZE_PER_THREAD);
+		this.indexed = new AtomicLong();
+		this.failed = new AtomicLong();
+		this.workingThreads = new AtomicInteger();
+		this.errors = new ArrayList<>();
+		this.parsed = false;
+		this.aborted = false;
+	}
+
+	final BulkStatus post(final InputStream input) throws InterruptedException {
+		final List<Future<?>> workers = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++)
+			workers.add(executorService.submit(this::work));
+		long position = 0;
+		ExecutionException failure = null;
+		try (final MappingIterator<Map<String, Object>> iterator = READER.readValues(input)) {
+			while (iterator.hasNext()) {
+				if (position % CHECK_SIZE_PERIOD == 0)
+					sizeChecker.checkSize(CHECK_SIZE_PERIOD);
+				enqueue(new Item(position, iterator.next()), workers);
+				position++;
+			}
+		} catch (IOException | RuntimeJsonMappingException | ServerException e) {
+			// The stream can't be read further
+			failed.incrementAndGet();
+			addError(position, null, e);
+		} finally {
+			parsed = true;
+			failure = awaitWorkers(workers);
+		}
+		if (failure != null)
+			throw new ServerException(failure);
+		if (Thread.interrupted())
+			throw new InterruptedException("The bulk indexing has been interrupted");
+		synchronized (errors) {
+			return new BulkStatus(indexed.get(), failed.get(), workingThreads.get(), new ArrayList<>(errors));
+		}
+	}
+
+	/**
+	 * Queue the document, unless all the workers have stopped
+	 */
+	private void enqueue(final Item item, final List<Future<?>> workers) throws InterruptedException {
+		while (!queue.offer(item, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+			if (workers.stream().allMatch(Future::isDone))
+				throw new ServerException("The indexing workers have stopped");
+	}
+
+	/**
+	 * Wait for the end of the workers. If the current thread is interrupted, the queued documents are dropped, and
+	 * the interruption is reported once the workers are done.
+	 *
+	 * @return the first unexpected failure of a worker, or null
+	 */
+	private ExecutionException awaitWorkers(final List<Future<?>> workers) {
+		ExecutionException failure = null;
+		boolean interrupted = false;
+		for (Future<?> worker : workers) {
+			for (; ; ) {
+				try {
+					worker.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					aborted = true;
+				} catch (ExecutionException e) {
+					aborted = true;
+					if (failure == null)
+						failure = e;
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return failure;
+	}
+
+	private void work() {
+		final Consumer<Map<String, Object>> poster = posterSupplier.get();
+		boolean working = false;
+		while (!aborted) {
+			// Read before the poll: an empty queue after the end of the parsing means the work is done
+			final boolean last = parsed;
+			final Item item;
+			try {
+				item = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (item == null) {
+				if (last)
+					return;
+				continue;
+			}
+			if (!working) {
+				working = true;
+				workingThreads.incrementAndGet();
+			}
+			try {
+				poster.accept(item.document);
+				indexed.incrementAndGet();
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				final Object id = item.document.get(FieldDefinition.ID_FIELD);
+				addError(item.position, id == null ? null : id.toString(), e);
+			}
+		}
+	}
+
+	private void addError(final long position, final String id, final Exception e) {
+		synchronized (errors) {
+			if (errors.size() < MAX_ERRORS)
+				errors.add(new BulkStatus.Error(position, id, e.getMessage()));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class BulkStatus {
+
+	final public Long indexed;
+	final public Long failed;
+
+	/**
+	 * The number of threads which have processed documents
+	 */
+	final public Integer threads;
+	final public List<Error> errors;
+
+	public BulkStatus() {
+		indexed = null;
+		failed = null;
+		threads = null;
+		errors = null;
+	}
+
+	BulkStatus(long indexed, long failed, int threads, List<Error> errors) {
+		this.indexed = indexed;
+		this.failed = failed;
+		this.threads = threads;
+		this.errors = errors;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class Error {
+
+		/**
+		 * The position of the document in the stream, starting from 0
+		 */
+		final public Long position;
+		final public String id;
+		final public String message;
+
+		public Error() {
+			position = null;
+			id = null;
+			message = null;
+		}
+
+		Error(long position, String id, String message) {
+			this.position = position;
+			this.id = id;
+			this.message = message;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.utils.server.ServerException;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * A cursor is an opaque token which carries the last document (ScoreDoc or FieldDoc) of a page of result.
+ * It is used to collect the next page using search after.
+ */
+class CursorUtils {
+
+	private final static byte TYPE_NULL = 0;
+	private final static byte TYPE_INT = 1;
+	private final static byte TYPE_LONG = 2;
+	private final static byte TYPE_FLOAT = 3;
+	private final static byte TYPE_DOUBLE = 4;
+	private final static byte TYPE_BYTES = 5;
+
+	final static String toCursor(final ScoreDoc scoreDoc) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final DataOutputStream output = new DataOutputStream(bytes)) {
+			output.writeInt(scoreDoc.doc);
+			output.writeFloat(scoreDoc.score);
+			final Object[] fields = scoreDoc instanceof FieldDoc ? ((FieldDoc) scoreDoc).fields : null;
+			if (fields == null) {
+				output.writeInt(-1);
+			} else {
+				output.writeInt(fields.length);
+				for (Object field : fields)
+					writeValue(output, field);
+			}
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+	}
+
+	private static void writeValue(final DataOutputStream output, final Object value) throws IOException {
+		if (value == null) {
+			output.writeByte(TYPE_NULL);
+		} else if (value instanceof Integer) {
+			output.writeByte(TYPE_INT);
+			output.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			output.writeByte(TYPE_LONG);
+			output.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			output.writeByte(TYPE_FLOAT);
+			output.writeFloat((Float) value);
+		} else if (value instanceof Double) {
+			output.writeByte(TYPE_DOUBLE);
+			output.writeDouble((Double) value);
+		} else if (value instanceof BytesRef) {
+			final BytesRef bytesRef = (BytesRef) value;
+			output.writeByte(TYPE_BYTES);
+			output.writeInt(bytesRef.length);
+			output.write(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+		} else
+			throw new IOException("Unsupported sort value: " + value.getClass());
+	}
+
+	/**
+	 * Read the cursor and check that it matches the sort of the query
+	 *
+	 * @param cursor the token returned with the previous page
+	 * @param sort   the sort of the query, or null if the results are sorted by relevance
+	 * @return the last document of the previous page
+	 */
+	final static ScoreDoc fromCursor(final String cursor, final Sort sort) {
+		try {
+			final byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+			try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+				final int doc = input.readInt();
+				final float score = input.readFloat();
+				final int length = input.readInt();
+				if (sort == null) {
+					if (length != -1)
+						throw new IllegalArgumentException("The cursor belongs to a sorted query");
+					return new ScoreDoc(doc, score);
+				}
+				if (length != sort.getSort().length)
+					throw new IllegalArgumentException("The cursor does not match the sort of the query");
+				final SortField[] sortFields = sort.getSort();
+				final Object[] fields = new Object[length];
+				for (int i = 0; i < length; i++) {
+					fields[i] = readValue(input);
+					checkValue(fields[i], sortFields[i]);
+				}
+				return new FieldDoc(doc, score, fields);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE, "Invalid cursor: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * The value is given to the comparator of the sort field, which casts it to its own type
+	 */
+	private static void checkValue(final Object value, final SortField sortField) throws IOException {
+		final Class<?> valueClass;
+		switch (sortField.getType()) {
+		case SCORE:
+		case FLOAT:
+			valueClass = Float.class;
+			break;
+		case DOC:
+		case INT:
+			valueClass = Integer.class;
+			break;
+		case LONG:
+			valueClass = Long.class;
+			break;
+		case DOUBLE:
+			valueClass = Double.class;
+			break;
+		case STRING:
+		case STRING_VAL:
+			// A missing string value is null
+			if (value == null)
+				return;
+			valueClass = BytesRef.class;
+			break;
+		default:
+			// The numeric type of a SortedNumericSortField is only known by its comparator
+			final FieldComparator<?> comparator = sortField.getComparator(1, 0);
+			final Object emptyValue = comparator.value(0);
+			if (emptyValue == null)
+				throw new IllegalArgumentException("The sort field does not support cursors: " + sortField.getField());
+			valueClass = emptyValue.getClass();
+			break;
+		}
+		if (value == null || value.getClass() != valueClass)
+			throw new IllegalArgumentException(
+					"The cursor does not match the type of the sort field: " + sortField.getField());
+	}
+
+	private static Object readValue(final DataInputStream input) throws IOException {
+		final byte type = input.readByte();
+		switch (type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_INT:
+			return input.readInt();
+		case TYPE_LONG:
+			return input.readLong();
+		case TYPE_FLOAT:
+			return input.readFloat();
+		case TYPE_DOUBLE:
+			return input.readDouble();
+		case TYPE_BYTES:
+			final int length = input.readInt();
+			if (length < 0 || length > input.available())
+				throw new IOException("Wrong sort value length: " + length);
+			final byte[] bytes = new byte[length];
+			input.readFully(bytes);
+			return new BytesRef(bytes);
+		default:
+			throw new IOException("Unknown sort value type: " + type);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.qwazr.search.field.FieldTypeInterface;
+import com.qwazr.search.field.ValueConverter;
+import com.qwazr.utils.json.JsonMapper;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Write every matching document as one JSON line as soon as it is collected.
+ * The documents are visited segment by segment in the order of the doc ids, the heap usage does not depend on the
+ * number of matching documents.
+ */
+class ExportCollector extends SimpleCollector {
+
+	/**
+	 * The generator is flushed once per segment, not after each document. The lines are separated by the collector,
+	 * not by the default root value separator (a space).
+	 */
+	private final static ObjectWriter WRITER = JsonMapper.MAPPER.writer()
+			.without(SerializationFeature.INDENT_OUTPUT)
+			.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+			.withRootValueSeparator("");
+
+	private final JsonGenerator generator;
+	private final Set<String> returnedFields;
+	private final Map<String, FieldTypeInterface> fieldTypes;
+	private final LinkedHashMap<String, Object> document;
+	private final Map<String, ValueConverter> converters;
+
+	private LeafReader leafReader;
+	private long count;
+
+	ExportCollector(final OutputStream output, final Set<String> returnedFields,
+			final Map<String, FieldTypeInterface> fieldTypes) throws IOException {
+		this.generator = JsonMapper.MAPPER.getFactory().createGenerator(output);
+		this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		this.returnedFields = returnedFields;
+		this.fieldTypes = fieldTypes;
+		this.document = new LinkedHashMap<>();
+		this.converters = new LinkedHashMap<>();
+		this.count = 0;
+	}
+
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+
+	@Override
+	protected void doSetNextReader(final LeafReaderContext context) throws IOException {
+		leafReader = context.reader();
+		converters.clear();
+		for (String fieldName : returnedFields) {
+			final FieldTypeInterface fieldType = fieldTypes.get(fieldName);
+			if (fieldType == null)
+				continue;
+			final ValueConverter converter = fieldType.getConverter(leafReader);
+			if (converter != null)
+				converters.put(fieldName, converter);
+		}
+		generator.flush();
+	}
+
+	@Override
+	public void collect(final int doc) throws IOException {
+		document.clear();
+		final DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(returnedFields);
+		leafReader.document(doc, visitor);
+		for (IndexableField field : visitor.getDocument())
+			addValue(field.name(), getValue(field));
+		converters.forEach((fieldName, converter) -> addValue(fieldName, converter.convert(doc)));
+		WRITER.writeValue(generator, document);
+		generator.writeRaw('\n');
+		count++;
+	}
+
+	private void addValue(final String fieldName, final Object value) {
+		if (value == null)
+			return;
+		final Object oldValue = document.get(fieldName);
+		if (oldValue == null) {
+			document.put(fieldName, value);
+			return;
+		}
+		if (oldValue instanceof List<?>) {
+			((List<Object>) oldValue).add(value);
+			return;
+		}
+		final List<Object> list = new ArrayList<>(2);
+		list.add(oldValue);
+		list.add(value);
+		document.put(fieldName, list);
+	}
+
+	private static Object getValue(final IndexableField field) {
+		final Number n = field.numericValue();
+		if (n != null)
+			return n;
+		return field.stringValue();
+	}
+
+	/**
+	 * Flush the pending JSON lines
+	 *
+	 * @return the number of exported documents
+	 * @throws IOException if any I/O error occurs
+	 */
+	final long finish() throws IOException {
+		generator.flush();
+		return count;
+	}
+}
@@ -15,17 +15,11 @@
  **/
 package com.qwazr.search.index;
 
-import com.qwazr.search.query.AbstractQuery;
 import com.qwazr.utils.TimeTracker;
 import org.apache.lucene.facet.FacetResult;
 import org.apache.lucene.facet.FacetsCollector;
 import org.apache.lucene.facet.LabelAndValue;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
-import org.apache.lucene.search.BooleanClause;
-import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.Query;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -35,21 +29,21 @@ import java.util.Map;
 class FacetsBuilder {
 
 	private final QueryContext queryContext;
-	private final Query searchQuery;
 	private final SortedSetDocValuesFacetCounts counts;
+	private final QueryFacetsCollector queryFacetsCollector;
 	private final LinkedHashMap<String, FacetDefinition> facetsDef;
 
 	final LinkedHashMap<String, Map<String, Number>> results;
 
-	FacetsBuilder(QueryContext queryContext, LinkedHashMap<String, FacetDefinition> facetsDef, Query searchQuery,
-			FacetsCollector facetsCollector, TimeTracker timeTracker)
-			throws IOException, ParseException, ReflectiveOperationException, QueryNodeException {
+	FacetsBuilder(QueryContext queryContext, LinkedHashMap<String, FacetDefinition> facetsDef,
+			FacetsCollector facetsCollector, QueryFacetsCollector queryFacetsCollector, TimeTracker timeTracker)
+			throws IOException {
 
 		this.queryContext = queryContext;
-		this.searchQuery = searchQuery;
+		this.queryFacetsCollector = queryFacetsCollector;
 		this.facetsDef = facetsDef;
 		this.results = new LinkedHashMap();
-		this.counts = queryContext.state == null ?
+		this.counts = queryContext.state == null || facetsCollector == null ?
 				null :
 				new SortedSetDocValuesFacetCounts(queryContext.state, facetsCollector);
 
@@ -60,7 +54,7 @@ class FacetsBuilder {
 			if (facet.queries == null || facet.queries.isEmpty())
 				result = buildFacetState(dim, facet);
 			else
-				result = buildFacetQueries(facet);
+				result = queryFacetsCollector.getCounts(dim);
 			if (result != null)
 				results.put(dim, result);
 		}
@@ -69,7 +63,7 @@ class FacetsBuilder {
 	}
 
 	private Map<String, Number> buildFacetState(String dim, FacetDefinition facet) throws IOException {
-		if (queryContext.state == null || queryContext.state.getOrdRange(dim) == null)
+		if (counts == null || queryContext.state.getOrdRange(dim) == null)
 			return Collections.emptyMap();
 		int top = facet.top == null ? 10 : facet.top;
 		final LinkedHashMap<String, Number> facetMap = new LinkedHashMap<>();
@@ -80,16 +74,4 @@ class FacetsBuilder {
 			facetMap.put(lv.label, lv.value);
 		return facetMap;
 	}
-
-	private Map<String, Number> buildFacetQueries(FacetDefinition facet)
-			throws IOException, ParseException, ReflectiveOperationException, QueryNodeException {
-		final LinkedHashMap<String, Number> facetMap = new LinkedHashMap<String, Number>();
-		for (Map.Entry<String, AbstractQuery> entry : facet.queries.entrySet()) {
-			BooleanQuery.Builder builder = new BooleanQuery.Builder();
-			builder.add(searchQuery, BooleanClause.Occur.FILTER);
-			builder.add(entry.getValue().getQuery(queryContext), BooleanClause.Occur.FILTER);
-			facetMap.put(entry.getKey(), queryContext.indexSearcher.count(builder.build()));
-		}
-		return facetMap;
-	}
 }
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.utils.server.ServerException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Reads and writes a field of an annotated object through generated accessors instead of reflection.
+ * The accessors are built once per field (and the constructor once per class), then shared by the posting and the
+ * reading of the typed documents. The fields which cannot be reached by a generated class (non public, or final for
+ * the setter) are accessed through method handles.
+ */
+final class FieldAccessor {
+
+	private final static MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private final static MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private final static MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+	private final static MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+	// The accessors are bound to the declaring class, they can be collected with it
+	private final static ClassValue<Map<Field, FieldAccessor>> ACCESSORS =
+			new ClassValue<Map<Field, FieldAccessor>>() {
+				@Override
+				protected Map<Field, FieldAccessor> computeValue(final Class<?> declaringClass) {
+					return new ConcurrentHashMap<>();
+				}
+			};
+
+	private final static ClassValue<MethodHandle> CONSTRUCTORS = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(final Class<?> objectClass) {
+			try {
+				final Constructor<?> constructor = objectClass.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				return LOOKUP.unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE);
+			} catch (ReflectiveOperationException e) {
+				throw new ServerException(e);
+			}
+		}
+	};
+
+	final Class<?> type;
+	private final Function<Object, Object> getter;
+	private final BiConsumer<Object, Object> setter;
+
+	private FieldAccessor(final Field field) {
+		this.type = field.getType();
+		final Function<Object, Object> generatedGetter = FieldAccessorWriter.getter(field);
+		final BiConsumer<Object, Object> generatedSetter = FieldAccessorWriter.setter(field);
+		this.getter = generatedGetter != null ? generatedGetter : handleGetter(field);
+		this.setter = generatedSetter != null ? generatedSetter : handleSetter(field);
+	}
+
+	private static Function<Object, Object> handleGetter(final Field field) {
+		final MethodHandle getter;
+		try {
+			field.setAccessible(true);
+			getter = LOOKUP.unreflectGetter(field).asType(GETTER_TYPE);
+		} catch (IllegalAccessException e) {
+			throw new ServerException(e);
+		}
+		return record -> {
+			try {
+				return (Object) getter.invokeExact(record);
+			} catch (Throwable t) {
+				throw propagate(t);
+			}
+		};
+	}
+
+	private static BiConsumer<Object, Object> handleSetter(final Field field) {
+		final MethodHandle setter;
+		try {
+			field.setAccessible(true);
+			setter = LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+		} catch (IllegalAccessException e) {
+			throw new ServerException(e);
+		}
+		return (record, value) -> {
+			try {
+				setter.invokeExact(record, value);
+			} catch (Throwable t) {
+				throw propagate(t);
+			}
+		};
+	}
+
+	final Object get(final Object record) {
+		return getter.apply(record);
+	}
+
+	final void set(final Object record, final Object value) {
+		setter.accept(record, value);
+	}
+
+	private static RuntimeException propagate(final Throwable t) {
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new ServerException((Exception) t);
+	}
+
+	/**
+	 * @param fields the annotated fields, by index field name
+	 * @return the accessors, by index field name, or null if the fields are null
+	 */
+	static Map<String, FieldAccessor> of(final Map<String, Field> fields) {
+		if (fields == null)
+			return null;
+		final Map<String, FieldAccessor> accessors = new LinkedHashMap<>();
+		fields.forEach((name, field) -> accessors.put(name, of(field)));
+		return accessors;
+	}
+
+	/**
+	 * @param field an annotated field
+	 * @return the shared accessor of the field
+	 */
+	static FieldAccessor of(final Field field) {
+		return ACCESSORS.get(field.getDeclaringClass()).computeIfAbsent(field, FieldAccessor::new);
+	}
+
+	/**
+	 * Create a new instance using the constructor without parameters
+	 *
+	 * @param objectClass the class of the object
+	 * @param <T>         the type of the object
+	 * @return a new instance
+	 */
+	static <T> T newInstance(final Class<T> objectClass) {
+		try {
+			return objectClass.cast((Object) CONSTRUCTORS.get(objectClass).invokeExact());
+		} catch (Throwable t) {
+			throw propagate(t);
+		}
+	}
+}
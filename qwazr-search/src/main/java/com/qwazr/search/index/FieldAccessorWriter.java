@@ -0,0 +1,297 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Generates the bytecode of a getter (a {@link Function}) and of a setter (a {@link BiConsumer}) reading or writing a
+ * field with a plain getfield or putfield instruction. The JIT compiles them like a hand-written accessor, which is not
+ * the case of a method handle held by an instance field.
+ * Only the public fields of public classes can be generated, the setter also requires a non-final field.
+ */
+final class FieldAccessorWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(FieldAccessorWriter.class);
+
+	private final static String PACKAGE = FieldAccessorWriter.class.getPackage().getName().replace('.', '/');
+
+	private final static AtomicInteger CLASS_COUNT = new AtomicInteger();
+
+	// The generated classes are defined by a child of the class loader of the record class
+	private final static ClassValue<Loader> LOADERS = new ClassValue<Loader>() {
+		@Override
+		protected Loader computeValue(final Class<?> declaringClass) {
+			return new Loader(declaringClass.getClassLoader());
+		}
+	};
+
+	private final static byte[] OBJECT_INIT =
+			{ 0x2a /* aload_0 */, (byte) 0xb7, 0, 0 /* invokespecial */, (byte) 0xb1 /* return */ };
+
+	/**
+	 * @param field the field to read
+	 * @return a generated getter, or null if the field cannot be read by a generated class
+	 */
+	static Function<Object, Object> getter(final Field field) {
+		if (!isAccessible(field))
+			return null;
+		final FieldAccessorWriter writer = new FieldAccessorWriter("Getter", "java/util/function/Function");
+		final Class<?> type = field.getType();
+		final ByteArrayOutputStream code = new ByteArrayOutputStream();
+		code.write(0x2b); // aload_1
+		writer.writeIndex(code, 0xc0, writer.classInfo(internalName(field.getDeclaringClass()))); // checkcast
+		writer.writeIndex(code, 0xb4, writer.fieldRef(field)); // getfield
+		if (type.isPrimitive()) {
+			final String wrapper = wrapperName(type);
+			writer.writeIndex(code, 0xb8, // invokestatic
+					writer.methodRef(wrapper, "valueOf", '(' + descriptor(type) + ")L" + wrapper + ';'));
+		}
+		code.write(0xb0); // areturn
+		return writer.newInstance(field, "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", code.toByteArray(), 2);
+	}
+
+	/**
+	 * @param field the field to write
+	 * @return a generated setter, or null if the field cannot be written by a generated class
+	 */
+	static BiConsumer<Object, Object> setter(final Field field) {
+		if (!isAccessible(field) || Modifier.isFinal(field.getModifiers()))
+			return null;
+		final FieldAccessorWriter writer = new FieldAccessorWriter("Setter", "java/util/function/BiConsumer");
+		final Class<?> type = field.getType();
+		final ByteArrayOutputStream code = new ByteArrayOutputStream();
+		code.write(0x2b); // aload_1
+		writer.writeIndex(code, 0xc0, writer.classInfo(internalName(field.getDeclaringClass()))); // checkcast
+		code.write(0x2c); // aload_2
+		if (type.isPrimitive()) {
+			final String wrapper = wrapperName(type);
+			writer.writeIndex(code, 0xc0, writer.classInfo(wrapper)); // checkcast
+			writer.writeIndex(code, 0xb6, // invokevirtual
+					writer.methodRef(wrapper, type.getName() + "Value", "()" + descriptor(type)));
+		} else
+			writer.writeIndex(code, 0xc0, writer.classInfo(internalName(type))); // checkcast
+		writer.writeIndex(code, 0xb5, writer.fieldRef(field)); // putfield
+		code.write(0xb1); // return
+		return writer.newInstance(field, "accept", "(Ljava/lang/Object;Ljava/lang/Object;)V", code.toByteArray(),
+				3);
+	}
+
+	private static boolean isAccessible(final Field field) {
+		final int modifiers = field.getModifiers();
+		if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers))
+			return false;
+		Class<?> clazz = field.getDeclaringClass();
+		if (clazz.getClassLoader() == null)
+			return false;
+		while (clazz != null) {
+			if (!Modifier.isPublic(clazz.getModifiers()))
+				return false;
+			clazz = clazz.getEnclosingClass();
+		}
+		return true;
+	}
+
+	private final String className;
+	private final String interfaceName;
+	private final List<Object[]> constants = new ArrayList<>();
+	private final Map<String, Integer> constantIndexes = new HashMap<>();
+
+	private FieldAccessorWriter(final String kind, final String interfaceName) {
+		this.className = PACKAGE + "/FieldAccessor$" + kind + CLASS_COUNT.incrementAndGet();
+		this.interfaceName = interfaceName;
+	}
+
+	private <T> T newInstance(final Field field, final String methodName, final String methodDescriptor,
+			final byte[] code, final int maxLocals) {
+		try {
+			final byte[] bytes = toByteArray(methodName, methodDescriptor, code, maxLocals);
+			final Class<?> generatedClass =
+					LOADERS.get(field.getDeclaringClass()).define(className.replace('/', '.'), bytes);
+			return (T) generatedClass.newInstance();
+		} catch (IOException | ReflectiveOperationException | LinkageError e) {
+			logger.warn("Cannot generate the accessor of " + field + ": " + e.getMessage(), e);
+			return null; // The method handles are used instead
+		}
+	}
+
+	private byte[] toByteArray(final String methodName, final String methodDescriptor, final byte[] code,
+			final int maxLocals) throws IOException {
+		final int thisClass = classInfo(className);
+		final int superClass = classInfo("java/lang/Object");
+		final int interfaceClass = classInfo(interfaceName);
+		final int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+		final int initName = utf8("<init>");
+		final int initDescriptor = utf8("()V");
+		final int name = utf8(methodName);
+		final int descriptor = utf8(methodDescriptor);
+		final int codeName = utf8("Code");
+
+		final byte[] initCode = OBJECT_INIT.clone();
+		initCode[2] = (byte) (objectInit >> 8);
+		initCode[3] = (byte) objectInit;
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(0xCAFEBABE);
+		output.writeShort(0); // minor version
+		output.writeShort(52); // Java 8, no branch so no stack map frame
+		output.writeShort(constants.size() + 1);
+		for (Object[] constant : constants) {
+			output.writeByte((Integer) constant[0]);
+			for (int i = 1; i < constant.length; i++) {
+				if (constant[i] instanceof String)
+					output.writeUTF((String) constant[i]);
+				else
+					output.writeShort((Integer) constant[i]);
+			}
+		}
+		output.writeShort(Modifier.PUBLIC | Modifier.FINAL | 0x0020 /* ACC_SUPER */);
+		output.writeShort(thisClass);
+		output.writeShort(superClass);
+		output.writeShort(1);
+		output.writeShort(interfaceClass);
+		output.writeShort(0); // fields
+		output.writeShort(2); // methods
+		writeMethod(output, initName, initDescriptor, codeName, initCode, 1, 1);
+		writeMethod(output, name, descriptor, codeName, code, 3, maxLocals);
+		output.writeShort(0); // attributes
+		output.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeMethod(final DataOutputStream output, final int name, final int descriptor,
+			final int codeName, final byte[] code, final int maxStack, final int maxLocals) throws IOException {
+		output.writeShort(Modifier.PUBLIC);
+		output.writeShort(name);
+		output.writeShort(descriptor);
+		output.writeShort(1);
+		output.writeShort(codeName);
+		output.writeInt(12 + code.length);
+		output.writeShort(maxStack);
+		output.writeShort(maxLocals);
+		output.writeInt(code.length);
+		output.write(code);
+		output.writeShort(0); // exception table
+		output.writeShort(0); // attributes
+	}
+
+	private void writeIndex(final ByteArrayOutputStream code, final int opcode, final int index) {
+		code.write(opcode);
+		code.write(index >> 8);
+		code.write(index);
+	}
+
+	private int constant(final String key, final Object... constant) {
+		return constantIndexes.computeIfAbsent(key, k -> {
+			constants.add(constant);
+			return constants.size();
+		});
+	}
+
+	private int utf8(final String value) {
+		return constant("U" + value, 1, value);
+	}
+
+	private int classInfo(final String internalName) {
+		return constant("C" + internalName, 7, utf8(internalName));
+	}
+
+	private int nameAndType(final String name, final String descriptor) {
+		return constant("N" + name + ' ' + descriptor, 12, utf8(name), utf8(descriptor));
+	}
+
+	private int fieldRef(final Field field) {
+		final String owner = internalName(field.getDeclaringClass());
+		final String descriptor = descriptor(field.getType());
+		return constant("F" + owner + ' ' + field.getName() + ' ' + descriptor, 9, classInfo(owner),
+				nameAndType(field.getName(), descriptor));
+	}
+
+	private int methodRef(final String owner, final String name, final String descriptor) {
+		return constant("M" + owner + ' ' + name + ' ' + descriptor, 10, classInfo(owner),
+				nameAndType(name, descriptor));
+	}
+
+	private static String internalName(final Class<?> clazz) {
+		return clazz.getName().replace('.', '/');
+	}
+
+	private static String descriptor(final Class<?> type) {
+		if (type == boolean.class)
+			return "Z";
+		if (type == byte.class)
+			return "B";
+		if (type == char.class)
+			return "C";
+		if (type == short.class)
+			return "S";
+		if (type == int.class)
+			return "I";
+		if (type == long.class)
+			return "J";
+		if (type == float.class)
+			return "F";
+		if (type == double.class)
+			return "D";
+		if (type.isArray())
+			return internalName(type);
+		return 'L' + internalName(type) + ';';
+	}
+
+	private static String wrapperName(final Class<?> type) {
+		if (type == boolean.class)
+			return "java/lang/Boolean";
+		if (type == byte.class)
+			return "java/lang/Byte";
+		if (type == char.class)
+			return "java/lang/Character";
+		if (type == short.class)
+			return "java/lang/Short";
+		if (type == int.class)
+			return "java/lang/Integer";
+		if (type == long.class)
+			return "java/lang/Long";
+		if (type == float.class)
+			return "java/lang/Float";
+		return "java/lang/Double";
+	}
+
+	private final static class Loader extends ClassLoader {
+
+		private Loader(final ClassLoader parent) {
+			super(parent);
+		}
+
+		private synchronized Class<?> define(final String name, final byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
@@ -21,24 +21,51 @@ import org.apache.lucene.index.*;
 import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.LeafCollector;
 import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 
+/**
+ * Compute a function over the doc values of the matching documents.
+ * The numeric values are accumulated in primitive fields and decoded only when the final value is built. The
+ * collectors of the slices of a parallel search are merged using {@link #reduce(FunctionCollector)}.
+ */
 public class FunctionCollector implements Collector {
 
 	private final FieldTypeInterface fieldType;
 
 	final QueryDefinition.Function function;
 
-	protected Object runningValue;
-	protected Object finalValue;
+	// The converter of the last visited segment, used to decode the numeric values
+	private ValueConverter numericConverter;
+
+	// Numeric min and max are the raw (sortable) doc values
+	private long count;
+	private long valueCount;
+	private long min;
+	private long max;
+	private long longSum;
+	private double doubleSum;
+	private double sumOfSquares;
+
+	private BytesRef binaryMin;
+	private BytesRef binaryMax;
 
 	FunctionCollector(QueryDefinition.Function function, FieldTypeInterface fieldType) {
 		this.function = function;
 		this.fieldType = fieldType;
-		this.finalValue = null;
-		this.runningValue = null;
+		this.numericConverter = null;
+		this.count = 0;
+		this.valueCount = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = Long.MIN_VALUE;
+		this.longSum = 0;
+		this.doubleSum = 0;
+		this.sumOfSquares = 0;
+		this.binaryMin = null;
+		this.binaryMax = null;
 	}
 
 	@Override
@@ -47,144 +74,260 @@ public class FunctionCollector implements Collector {
 	}
 
 	public Object getValue() {
-		return finalValue;
+		switch (function.function) {
+		case count:
+			return count;
+		case value_count:
+			return valueCount;
+		case min:
+			if (binaryMin != null)
+				return binaryMin.utf8ToString();
+			return valueCount == 0 ? null : numericConverter.toNumber(min);
+		case max:
+			if (binaryMax != null)
+				return binaryMax.utf8ToString();
+			return valueCount == 0 ? null : numericConverter.toNumber(max);
+		case sum:
+			return valueCount == 0 ? null : getSum();
+		case avg:
+			return valueCount == 0 ? null : getSum().doubleValue() / valueCount;
+		case stats:
+			final LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+			stats.put("count", valueCount);
+			if (valueCount > 0) {
+				stats.put("min", numericConverter.toNumber(min));
+				stats.put("max", numericConverter.toNumber(max));
+				final Number sum = getSum();
+				stats.put("sum", sum);
+				stats.put("avg", sum.doubleValue() / valueCount);
+				stats.put("sum_of_squares", sumOfSquares);
+			}
+			return stats;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Not a ternary: the numeric promotion would turn the long sum into a double
+	 */
+	private Number getSum() {
+		if (numericConverter.isFloatingPoint())
+			return doubleSum;
+		return longSum;
+	}
+
+	/**
+	 * Merge the value computed by the collector of another slice (parallel search)
+	 */
+	final void reduce(final FunctionCollector other) {
+		count += other.count;
+		if (other.numericConverter != null) {
+			numericConverter = other.numericConverter;
+			if (other.valueCount > 0) {
+				min = Math.min(min, other.min);
+				max = Math.max(max, other.max);
+			}
+		}
+		valueCount += other.valueCount;
+		longSum += other.longSum;
+		doubleSum += other.doubleSum;
+		sumOfSquares += other.sumOfSquares;
+		if (other.binaryMin != null && (binaryMin == null || other.binaryMin.compareTo(binaryMin) < 0))
+			binaryMin = other.binaryMin;
+		if (other.binaryMax != null && (binaryMax == null || other.binaryMax.compareTo(binaryMax) > 0))
+			binaryMax = other.binaryMax;
 	}
 
 	@Override
 	public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
 		final LeafReader leafReader = context.reader();
-		FieldInfo fieldInfo = leafReader.getFieldInfos().fieldInfo(function.field);
-		ValueConverter converter = fieldType.getConverter(leafReader);
+		final ValueConverter converter = fieldType.getConverter(leafReader);
 		if (converter == null)
-			return DoNothingCollector.INSTANCE;
+			return function.function == QueryDefinition.Function.FunctionEnum.count ?
+					new CountFunctionCollector() :
+					DoNothingCollector.INSTANCE;
+		if (converter.isNumeric) {
+			numericConverter = converter;
+			if (converter.source instanceof NumericDocValues) {
+				final Bits docsWithField = leafReader.getDocsWithField(function.field);
+				return converter.isFloatingPoint() ?
+						new DoubleFunctionCollector((NumericDocValues) converter.source, docsWithField, converter) :
+						new LongFunctionCollector((NumericDocValues) converter.source, docsWithField);
+			}
+			return converter.isFloatingPoint() ?
+					new DoubleSetFunctionCollector((SortedNumericDocValues) converter.source, converter) :
+					new LongSetFunctionCollector((SortedNumericDocValues) converter.source);
+		}
 		switch (function.function) {
 		case max:
-			if (converter.isNumeric)
-				return new MaxNumericFunctionCollector(converter);
-			else
-				return new MaxBinaryFunctionCollector(converter);
+			return new MaxBinaryFunctionCollector(converter);
 		case min:
-			if (converter.isNumeric)
-				return new MinNumericFunctionCollector(converter);
-			else
-				return new MinBinaryFunctionCollector(converter);
+			return new MinBinaryFunctionCollector(converter);
+		case count:
+			return new CountFunctionCollector();
 		default:
-			throw new IOException("Unknown function for field " + function.field);
+			throw new IOException(
+					"The function " + function.function + " requires a numeric field: " + function.field);
 		}
 	}
 
 	static abstract class LeafFunctionCollector implements LeafCollector {
 
-		protected final ValueConverter converter;
-
-		protected LeafFunctionCollector(ValueConverter converter) throws IOException {
-			this.converter = converter;
-		}
-
 		@Override
 		final public void setScorer(Scorer scorer) throws IOException {
 		}
 
 	}
 
-	private static abstract class LeafNumericFunctionCollector extends LeafFunctionCollector {
+	private class LongFunctionCollector extends LeafFunctionCollector {
+
+		private final NumericDocValues docValues;
+		private final Bits docsWithField;
 
-		protected final NumericDocValues docValues;
+		private LongFunctionCollector(final NumericDocValues docValues, final Bits docsWithField) {
+			this.docValues = docValues;
+			this.docsWithField = docsWithField;
+		}
 
-		protected LeafNumericFunctionCollector(ValueConverter converter) throws IOException {
-			super(converter);
-			docValues = (NumericDocValues) converter.source;
+		@Override
+		final public void collect(int doc) throws IOException {
+			count++;
+			if (docsWithField != null && !docsWithField.get(doc))
+				return;
+			final long value = docValues.get(doc);
+			valueCount++;
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+			longSum += value;
+			sumOfSquares += (double) value * value;
 		}
 	}
 
-	private static abstract class LeafBinaryFunctionCollector extends LeafFunctionCollector {
+	private class DoubleFunctionCollector extends LeafFunctionCollector {
 
-		protected final BinaryDocValues docValues;
+		private final NumericDocValues docValues;
+		private final Bits docsWithField;
+		private final ValueConverter converter;
 
-		protected LeafBinaryFunctionCollector(ValueConverter converter) throws IOException {
-			super(converter);
-			docValues = (BinaryDocValues) converter.source;
+		private DoubleFunctionCollector(final NumericDocValues docValues, final Bits docsWithField,
+				final ValueConverter converter) {
+			this.docValues = docValues;
+			this.docsWithField = docsWithField;
+			this.converter = converter;
+		}
+
+		@Override
+		final public void collect(int doc) throws IOException {
+			count++;
+			if (docsWithField != null && !docsWithField.get(doc))
+				return;
+			final long value = docValues.get(doc);
+			valueCount++;
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+			final double doubleValue = converter.toDouble(value);
+			doubleSum += doubleValue;
+			sumOfSquares += doubleValue * doubleValue;
 		}
 	}
 
-	private class MaxNumericFunctionCollector extends LeafNumericFunctionCollector {
+	private class LongSetFunctionCollector extends LeafFunctionCollector {
 
-		private Long max;
+		private final SortedNumericDocValues docValues;
 
-		private MaxNumericFunctionCollector(ValueConverter converter) throws IOException {
-			super(converter);
-			this.max = (Long) runningValue;
+		private LongSetFunctionCollector(final SortedNumericDocValues docValues) {
+			this.docValues = docValues;
 		}
 
 		@Override
 		final public void collect(int doc) throws IOException {
-			long value = docValues.get(doc);
-			if (max == null || value > max) {
-				max = value;
-				runningValue = value;
-				finalValue = converter.convert(doc);
+			count++;
+			docValues.setDocument(doc);
+			final int valuesCount = docValues.count();
+			for (int i = 0; i < valuesCount; i++) {
+				final long value = docValues.valueAt(i);
+				if (value < min)
+					min = value;
+				if (value > max)
+					max = value;
+				longSum += value;
+				sumOfSquares += (double) value * value;
 			}
+			valueCount += valuesCount;
 		}
 	}
 
-	private class MinNumericFunctionCollector extends LeafNumericFunctionCollector {
+	private class DoubleSetFunctionCollector extends LeafFunctionCollector {
 
-		private Long min;
+		private final SortedNumericDocValues docValues;
+		private final ValueConverter converter;
 
-		private MinNumericFunctionCollector(ValueConverter converter) throws IOException {
-			super(converter);
-			min = (Long) runningValue;
+		private DoubleSetFunctionCollector(final SortedNumericDocValues docValues, final ValueConverter converter) {
+			this.docValues = docValues;
+			this.converter = converter;
 		}
 
 		@Override
 		final public void collect(int doc) throws IOException {
-			long value = docValues.get(doc);
-			if (min == null || value < min) {
-				min = value;
-				runningValue = value;
-				finalValue = converter.convert(doc);
+			count++;
+			docValues.setDocument(doc);
+			final int valuesCount = docValues.count();
+			for (int i = 0; i < valuesCount; i++) {
+				final long value = docValues.valueAt(i);
+				if (value < min)
+					min = value;
+				if (value > max)
+					max = value;
+				final double doubleValue = converter.toDouble(value);
+				doubleSum += doubleValue;
+				sumOfSquares += doubleValue * doubleValue;
 			}
+			valueCount += valuesCount;
 		}
 	}
 
-	private class MaxBinaryFunctionCollector extends LeafBinaryFunctionCollector {
+	private class CountFunctionCollector extends LeafFunctionCollector {
 
-		private BytesRef max;
+		@Override
+		final public void collect(int doc) throws IOException {
+			count++;
+		}
+	}
+
+	private class MaxBinaryFunctionCollector extends LeafFunctionCollector {
+
+		private final BinaryDocValues docValues;
 
 		private MaxBinaryFunctionCollector(ValueConverter converter) throws IOException {
-			super(converter);
-			max = (BytesRef) runningValue;
+			docValues = (BinaryDocValues) converter.source;
 		}
 
 		@Override
 		final public void collect(int doc) throws IOException {
 			BytesRef value = docValues.get(doc);
-			if (max == null || value.compareTo(max) > 0) {
-				max = value;
-				runningValue = value;
-				finalValue = converter.convert(doc);
-			}
+			if (binaryMax == null || value.compareTo(binaryMax) > 0)
+				binaryMax = BytesRef.deepCopyOf(value);
 		}
 	}
 
-	private class MinBinaryFunctionCollector extends LeafBinaryFunctionCollector {
+	private class MinBinaryFunctionCollector extends LeafFunctionCollector {
 
-		private BytesRef min;
+		private final BinaryDocValues docValues;
 
 		private MinBinaryFunctionCollector(ValueConverter converter) throws IOException {
-			super(converter);
-			min = (BytesRef) runningValue;
+			docValues = (BinaryDocValues) converter.source;
 		}
 
 		@Override
 		final public void collect(int doc) throws IOException {
 			BytesRef value = docValues.get(doc);
-			if (min == null || value.compareTo(min) < 0) {
-				min = value;
-				runningValue = value;
-				finalValue = converter.convert(doc);
-
-			}
+			if (binaryMin == null || value.compareTo(binaryMin) < 0)
+				binaryMin = BytesRef.deepCopyOf(value);
 		}
 	}
 
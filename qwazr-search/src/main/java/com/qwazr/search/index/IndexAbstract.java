@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.search.analysis.AnalyzerDefinition;
+import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.utils.server.ServerException;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The operations shared by a single index (IndexInstance) and a sharded index (ShardedIndex): the fields and the
+ * analyzers, the writes of the documents, the searches, the backups and the metrics.
+ */
+abstract class IndexAbstract implements Closeable {
+
+	abstract IndexStatus getStatus() throws IOException, InterruptedException;
+
+	abstract LinkedHashMap<String, FieldDefinition> getFields();
+
+	abstract void setFields(LinkedHashMap<String, FieldDefinition> fields) throws IOException, InterruptedException;
+
+	abstract void setField(String fieldName, FieldDefinition field) throws IOException, InterruptedException;
+
+	abstract void deleteField(String fieldName) throws IOException, InterruptedException;
+
+	abstract LinkedHashMap<String, AnalyzerDefinition> getAnalyzers();
+
+	abstract void setAnalyzers(LinkedHashMap<String, AnalyzerDefinition> analyzers)
+			throws IOException, InterruptedException;
+
+	abstract void setAnalyzer(String analyzerName, AnalyzerDefinition analyzer)
+			throws IOException, InterruptedException;
+
+	abstract void deleteAnalyzer(String analyzerName) throws IOException, InterruptedException;
+
+	abstract List<TermDefinition> testAnalyzer(String analyzerName, String text)
+			throws ServerException, InterruptedException, ReflectiveOperationException, IOException;
+
+	abstract Analyzer getIndexAnalyzer(String field) throws ServerException, IOException;
+
+	abstract Analyzer getQueryAnalyzer(String field) throws ServerException, IOException;
+
+	abstract Object postMappedDocument(Map<String, Object> document) throws IOException, InterruptedException;
+
+	abstract Collection<Object> postMappedDocuments(Collection<Map<String, Object>> documents)
+			throws IOException, InterruptedException;
+
+	abstract BulkStatus postMappedDocuments(InputStream input, Integer threads)
+			throws IOException, InterruptedException;
+
+	abstract <T> Object postDocument(Map<String, Field> fields, T document) throws IOException, InterruptedException;
+
+	abstract <T> Collection<Object> postDocuments(Map<String, Field> fields, Collection<T> documents)
+			throws IOException, InterruptedException;
+
+	abstract void updateMappedDocValues(Map<String, Object> document) throws IOException, InterruptedException;
+
+	abstract void updateMappedDocsValues(Collection<Map<String, Object>> documents)
+			throws IOException, InterruptedException;
+
+	abstract <T> void updateDocValues(Map<String, Field> fields, T document) throws IOException, InterruptedException;
+
+	abstract <T> void updateDocsValues(Map<String, Field> fields, Collection<T> documents)
+			throws IOException, InterruptedException;
+
+	abstract void deleteAll() throws IOException, InterruptedException;
+
+	abstract ResultDefinition.WithMap deleteByQuery(QueryDefinition queryDefinition)
+			throws IOException, InterruptedException, QueryNodeException, ParseException, ReflectiveOperationException;
+
+	abstract MultiGetResult multiGet(MultiGetDefinition multiGetDefinition) throws IOException, InterruptedException;
+
+	abstract ResultDefinition search(QueryDefinition queryDefinition,
+			ResultDocumentBuilder.BuilderFactory<?> documentBuilderFactory)
+			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException;
+
+	abstract long export(QueryDefinition queryDefinition, OutputStream output)
+			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException;
+
+	abstract BackupStatus backup(Integer keepLastCount) throws IOException, InterruptedException;
+
+	abstract String getMetrics() throws IOException;
+}
@@ -15,11 +15,14 @@
  */
 package com.qwazr.search.index;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.qwazr.cluster.manager.ClusterManager;
 import com.qwazr.search.analysis.AnalyzerContext;
 import com.qwazr.search.analysis.AnalyzerDefinition;
 import com.qwazr.search.analysis.CustomAnalyzer;
 import com.qwazr.search.analysis.UpdatableAnalyzer;
 import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.search.field.SortUtils;
 import com.qwazr.utils.IOUtils;
 import com.qwazr.utils.StringUtils;
 import com.qwazr.utils.json.JsonMapper;
@@ -34,23 +37,34 @@ import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.Response;
-import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
-final public class IndexInstance implements Closeable {
+final public class IndexInstance extends IndexAbstract {
 
 	private static final Logger logger = LoggerFactory.getLogger(IndexInstance.class);
 
@@ -59,14 +73,15 @@ final public class IndexInstance implements Closeable {
 	private final static String FIELDS_FILE = "fields.json";
 	private final static String ANALYZERS_FILE = "analyzers.json";
 	private final static String SETTINGS_FILE = "settings.json";
+	private final static String REPLICA_ID_FILE = "replica_id";
 
 	private final FileSet fileSet;
 
 	private final SchemaInstance schema;
 	private final Directory dataDirectory;
-	private final LiveIndexWriterConfig indexWriterConfig;
 	private final SnapshotDeletionPolicy snapshotDeletionPolicy;
 	private final IndexWriter indexWriter;
+	private final Similarity similarity;
 	private final SearcherManager searcherManager;
 	private final IndexSettingsDefinition settings;
 
@@ -76,24 +91,109 @@ final public class IndexInstance implements Closeable {
 	private volatile LinkedHashMap<String, AnalyzerDefinition> analyzerMap;
 
 	private volatile Pair<IndexReader, SortedSetDocValuesReaderState> facetsReaderStateCache;
+	// The state of the previous reader, still used by the queries while the new searcher is warmed
+	private volatile Pair<IndexReader, SortedSetDocValuesReaderState> previousFacetsReaderStateCache;
+	private final Object facetsStateLock;
+
+	private final AtomicInteger uncommittedDocs;
+	private final Object commitLock;
+	private final ScheduledFuture<?> commitFuture;
+	private final ScheduledFuture<?> refreshFuture;
+
+	private final ResultCache resultCache;
+	private final QueryPlanCache queryPlanCache;
+
+	private final Sort indexSort;
+
+	// Set on a master index, tracks the commit point held by each replica
+	private final ReplicationMaster replicationMaster;
+	// Set on a replica index, which has no IndexWriter
+	private final ReplicationSlave replicationSlave;
+	private final ScheduledFuture<?> replicationFuture;
+	// Serializes the replications and the backups, which may last, without blocking the queries
+	private final Object replicationLock;
+
+	// The number of queries which timed out or reached their hits budget
+	private final AtomicLong abortedQueries;
+
+	private final IndexMetrics metrics;
 
 	private IndexInstance(SchemaInstance schema, Directory dataDirectory, IndexSettingsDefinition settings,
 			LinkedHashMap<String, AnalyzerDefinition> analyzerMap, LinkedHashMap<String, FieldDefinition> fieldMap,
-			FileSet fileSet, IndexWriter indexWriter, SearcherManager searcherManager,
-			UpdatableAnalyzer queryAnalyzer) {
+			FileSet fileSet, IndexWriter indexWriter, SearcherManager searcherManager, UpdatableAnalyzer indexAnalyzer,
+			UpdatableAnalyzer queryAnalyzer, Similarity similarity, Sort indexSort,
+			ReplicationSlave replicationSlave, WarmingSearcherFactory warmingSearcherFactory, IndexMetrics metrics) {
 		this.schema = schema;
+		this.indexSort = indexSort;
 		this.fileSet = fileSet;
 		this.dataDirectory = dataDirectory;
 		this.analyzerMap = analyzerMap;
 		this.fieldMap = fieldMap;
 		this.indexWriter = indexWriter;
-		this.indexWriterConfig = indexWriter.getConfig();
-		this.indexAnalyzer = (UpdatableAnalyzer) indexWriterConfig.getAnalyzer();
+		this.indexAnalyzer = indexAnalyzer;
 		this.queryAnalyzer = queryAnalyzer;
-		this.snapshotDeletionPolicy = (SnapshotDeletionPolicy) indexWriterConfig.getIndexDeletionPolicy();
+		this.similarity = similarity;
+		if (indexWriter != null) {
+			this.snapshotDeletionPolicy = (SnapshotDeletionPolicy) indexWriter.getConfig().getIndexDeletionPolicy();
+			this.replicationMaster = new ReplicationMaster(indexWriter, snapshotDeletionPolicy, dataDirectory,
+					fileSet.dataDirectory);
+		} else {
+			this.snapshotDeletionPolicy = null;
+			this.replicationMaster = null;
+		}
+		this.replicationSlave = replicationSlave;
 		this.settings = settings;
 		this.searcherManager = searcherManager;
 		this.facetsReaderStateCache = null;
+		this.previousFacetsReaderStateCache = null;
+		this.facetsStateLock = new Object();
+		this.replicationLock = new Object();
+		this.uncommittedDocs = new AtomicInteger();
+		this.commitLock = new Object();
+		this.abortedQueries = new AtomicLong();
+		this.metrics = metrics;
+		searcherManager.addListener(metrics.new RefreshListener());
+		if (settings.isGroupCommit()) {
+			final ScheduledExecutorService scheduler = schema.getScheduledExecutorService();
+			commitFuture = scheduler
+					.scheduleWithFixedDelay(this::groupCommit, settings.commit_interval_ms, settings.commit_interval_ms,
+							TimeUnit.MILLISECONDS);
+			refreshFuture = settings.refresh_interval_ms == null || settings.refresh_interval_ms <= 0 ?
+					null :
+					scheduler.scheduleWithFixedDelay(this::nrtRefresh, settings.refresh_interval_ms,
+							settings.refresh_interval_ms, TimeUnit.MILLISECONDS);
+		} else {
+			commitFuture = null;
+			refreshFuture = null;
+		}
+		replicationFuture = replicationSlave == null || settings.replication_interval_ms == null ||
+				settings.replication_interval_ms <= 0 ?
+				null :
+				schema.getScheduledExecutorService()
+						.scheduleWithFixedDelay(this::scheduledReplication, settings.replication_interval_ms,
+								settings.replication_interval_ms, TimeUnit.MILLISECONDS);
+		if (settings.isResultCache()) {
+			resultCache = new ResultCache(settings.result_cache_max_entries, settings.result_cache_max_bytes);
+			searcherManager.addListener(new ReferenceManager.RefreshListener() {
+				@Override
+				public void beforeRefresh() {
+				}
+
+				@Override
+				public void afterRefresh(boolean didRefresh) {
+					if (didRefresh)
+						resultCache.clear();
+				}
+			});
+		} else
+			resultCache = null;
+		queryPlanCache = settings.getQueryCacheMaxEntries() > 0 ?
+				new QueryPlanCache(settings.getQueryCacheMaxEntries()) :
+				null;
+		if (warmingSearcherFactory != null) {
+			warmingSearcherFactory.setWarmer(this::warmSearcher);
+			warmCurrentSearcher();
+		}
 	}
 
 	private static class FileSet {
@@ -164,23 +264,55 @@ final public class IndexInstance implements Closeable {
 			// Open and lock the data directory
 			dataDirectory = FSDirectory.open(fileSet.dataDirectory.toPath());
 
-			// Set
-			IndexWriterConfig indexWriterConfig = new IndexWriterConfig(indexAnalyzer);
-			if (settings != null && settings.similarity_class != null)
-				indexWriterConfig.setSimilarity(IndexUtils.findSimilarity(settings.similarity_class));
-			indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-			SnapshotDeletionPolicy snapshotDeletionPolicy = new SnapshotDeletionPolicy(
-					indexWriterConfig.getIndexDeletionPolicy());
-			indexWriterConfig.setIndexDeletionPolicy(snapshotDeletionPolicy);
-			indexWriter = new IndexWriter(dataDirectory, indexWriterConfig);
-			if (indexWriter.hasUncommittedChanges())
-				indexWriter.commit();
-
-			// Finally we build the SearchSearcherManger
-			SearcherManager searcherManager = new SearcherManager(indexWriter, true, null);
+			final Similarity similarity = settings.similarity_class == null ?
+					IndexSearcher.getDefaultSimilarity() :
+					IndexUtils.findSimilarity(settings.similarity_class);
+			final Sort indexSort = settings.index_sort == null || settings.index_sort.isEmpty() ?
+					null :
+					buildIndexSort(context, settings);
+			final SearcherFactory parallelSearcherFactory = settings.isParallelSearch() ?
+					new ParallelIndexSearcher.Factory(schema.getSearchExecutorService()) :
+					null;
+			final WarmingSearcherFactory warmingSearcherFactory =
+					settings.isWarmup() ? new WarmingSearcherFactory(parallelSearcherFactory) : null;
+			final SearcherFactory searcherFactory =
+					warmingSearcherFactory != null ? warmingSearcherFactory : parallelSearcherFactory;
+
+			final IndexMetrics metrics = new IndexMetrics();
+			final ReplicationSlave replicationSlave;
+			final SearcherManager searcherManager;
+			if (settings.isReplica()) {
+				// A replica has no IndexWriter, the searcher is opened on the last replicated commit
+				replicationSlave = new ReplicationSlave(settings.replication_master, null,
+						getReplicaId(indexDirectory), dataDirectory);
+				if (!DirectoryReader.indexExists(dataDirectory))
+					new IndexWriter(dataDirectory, new IndexWriterConfig(indexAnalyzer)).close();
+				searcherManager = new SearcherManager(dataDirectory, searcherFactory);
+			} else {
+				// Set
+				IndexWriterConfig indexWriterConfig = new IndexWriterConfig(indexAnalyzer);
+				indexWriterConfig.setSimilarity(similarity);
+				indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+				// The merged segments are sorted, the flushed segments are not
+				if (indexSort != null)
+					indexWriterConfig
+							.setMergePolicy(new SortingMergePolicy(indexWriterConfig.getMergePolicy(), indexSort));
+				SnapshotDeletionPolicy snapshotDeletionPolicy = new SnapshotDeletionPolicy(
+						indexWriterConfig.getIndexDeletionPolicy());
+				indexWriterConfig.setIndexDeletionPolicy(snapshotDeletionPolicy);
+				indexWriterConfig.setMergeScheduler(metrics.new MergeScheduler());
+				indexWriter = new IndexWriter(dataDirectory, indexWriterConfig);
+				if (indexWriter.hasUncommittedChanges())
+					indexWriter.commit();
+
+				// Finally we build the SearchSearcherManger
+				replicationSlave = null;
+				searcherManager = new SearcherManager(indexWriter, true, searcherFactory);
+			}
 
 			return new IndexInstance(schema, dataDirectory, settings, analyzerMap, fieldMap, fileSet, indexWriter,
-					searcherManager, queryAnalyzer);
+					searcherManager, indexAnalyzer, queryAnalyzer, similarity, indexSort, replicationSlave,
+					warmingSearcherFactory, metrics);
 		} catch (IOException | ServerException | ReflectiveOperationException | InterruptedException e) {
 			// We failed in opening the index. We close everything we can
 			if (queryAnalyzer != null)
@@ -195,14 +327,47 @@ final public class IndexInstance implements Closeable {
 		}
 	}
 
+	/**
+	 * The identifier of a replica is generated once and kept in the index directory. It is stable across restarts,
+	 * the master can then reuse the snapshot of the replica.
+	 */
+	private static String getReplicaId(final File indexDirectory) throws IOException {
+		final File replicaIdFile = new File(indexDirectory, REPLICA_ID_FILE);
+		if (replicaIdFile.exists())
+			return FileUtils.readFileToString(replicaIdFile, StandardCharsets.UTF_8).trim();
+		final String node = ClusterManager.INSTANCE == null ?
+				UUID.randomUUID().toString() :
+				ClusterManager.INSTANCE.myAddress;
+		final String replicaId = node + '/' + indexDirectory.getParentFile().getName() + '/' + indexDirectory.getName();
+		FileUtils.writeStringToFile(replicaIdFile, replicaId, StandardCharsets.UTF_8);
+		return replicaId;
+	}
+
+	private static Sort buildIndexSort(final AnalyzerContext context, final IndexSettingsDefinition settings) {
+		try {
+			final Sort sort = SortUtils.buildSort(context.fieldTypes, settings.index_sort);
+			if (sort.needsScores())
+				throw new IllegalArgumentException("The score can't be used to sort the index");
+			return sort;
+		} catch (IllegalArgumentException e) {
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE, "Wrong index sort: " + e.getMessage());
+		}
+	}
+
 	public IndexSettingsDefinition getSettings() {
 		return settings;
 	}
 
 	@Override
 	public void close() {
+		if (commitFuture != null)
+			commitFuture.cancel(false);
+		if (refreshFuture != null)
+			refreshFuture.cancel(false);
+		if (replicationFuture != null)
+			replicationFuture.cancel(false);
 		IOUtils.closeQuietly(searcherManager);
-		if (indexWriter.isOpen())
+		if (indexWriter != null && indexWriter.isOpen())
 			IOUtils.closeQuietly(indexWriter);
 		IOUtils.closeQuietly(dataDirectory);
 	}
@@ -219,18 +384,65 @@ final public class IndexInstance implements Closeable {
 	private IndexStatus getIndexStatus() throws IOException {
 		final IndexSearcher indexSearcher = searcherManager.acquire();
 		try {
-			return new IndexStatus(indexSearcher.getIndexReader(), settings, analyzerMap.keySet(), fieldMap.keySet());
+			return new IndexStatus(indexSearcher.getIndexReader(), settings, analyzerMap.keySet(), fieldMap.keySet(),
+					resultCache == null ? null : resultCache.getStatus(), abortedQueries.get(),
+					replicationMaster == null ? null : replicationMaster.getReplicas());
 		} finally {
 			searcherManager.release(indexSearcher);
 		}
 	}
 
+	/**
+	 * @return the metrics of the index in the Prometheus text format
+	 * @throws IOException
+	 */
+	String getMetrics() throws IOException {
+		final IndexMetrics.TextFormat text =
+				new IndexMetrics.TextFormat(fileSet.indexDirectory.getParentFile().getName(),
+						fileSet.indexDirectory.getName());
+		metrics.write(text);
+		text.counter("aborted_queries_total", "The queries which timed out or reached their hits budget",
+				abortedQueries.get());
+		final IndexSearcher indexSearcher = searcherManager.acquire();
+		try {
+			final IndexReader indexReader = indexSearcher.getIndexReader();
+			text.gauge("num_docs", "The number of documents", indexReader.numDocs());
+			text.gauge("segments", "The number of segments", indexReader.leaves().size());
+		} finally {
+			searcherManager.release(indexSearcher);
+		}
+		if (indexWriter != null)
+			text.gauge("writer_ram_bytes", "The memory used by the index writer", getWriterRamBytesUsed());
+		text.gauge("read_semaphore_queue_length", "The requests waiting for the read semaphore",
+				schema.getReadQueueLength());
+		text.gauge("write_semaphore_queue_length", "The requests waiting for the write semaphore",
+				schema.getWriteQueueLength());
+		if (resultCache != null) {
+			final ResultCacheStatus cacheStatus = resultCache.getStatus();
+			text.gauge("result_cache_entries", "The number of cached results", cacheStatus.entries);
+			text.gauge("result_cache_bytes", "The estimated size of the cached results", cacheStatus.bytes);
+			text.counter("result_cache_hits_total", "The results served by the cache", cacheStatus.hits);
+			text.counter("result_cache_misses_total", "The results not found in the cache", cacheStatus.misses);
+			text.counter("result_cache_evictions_total", "The results evicted from the cache",
+					cacheStatus.evictions);
+		}
+		return text.toString();
+	}
+
+	final IndexMetrics getIndexMetrics() {
+		return metrics;
+	}
+
+	final long getWriterRamBytesUsed() {
+		return indexWriter == null ? 0 : indexWriter.ramBytesUsed();
+	}
+
 	LinkedHashMap<String, FieldDefinition> getFields() {
 		return fieldMap;
 	}
 
 	IndexStatus getStatus() throws IOException, InterruptedException {
-		final Semaphore sem = schema.acquireReadSemaphore();
+		final Semaphore sem = acquireReadSemaphore();
 		try {
 			return getIndexStatus();
 		} finally {
@@ -239,12 +451,25 @@ final public class IndexInstance implements Closeable {
 		}
 	}
 
-	synchronized void setFields(LinkedHashMap<String, FieldDefinition> fields) throws ServerException, IOException {
+	void setFields(LinkedHashMap<String, FieldDefinition> fields) throws ServerException, IOException {
+		checkNotReplica();
+		updateFields(fields);
+	}
+
+	/**
+	 * The fields of a replica are only updated by the replication
+	 */
+	private synchronized void updateFields(LinkedHashMap<String, FieldDefinition> fields)
+			throws ServerException, IOException {
 		AnalyzerContext analyzerContext = new AnalyzerContext(analyzerMap, fields);
 		indexAnalyzer.update(analyzerContext, analyzerContext.indexAnalyzerMap);
 		queryAnalyzer.update(analyzerContext, analyzerContext.queryAnalyzerMap);
 		JsonMapper.MAPPER.writeValue(fileSet.fieldMapFile, fields);
 		fieldMap = fields;
+		if (resultCache != null)
+			resultCache.clear();
+		if (queryPlanCache != null)
+			queryPlanCache.clear();
 	}
 
 	void setField(String field_name, FieldDefinition field) throws IOException, ServerException {
@@ -264,13 +489,25 @@ final public class IndexInstance implements Closeable {
 		return analyzerMap;
 	}
 
-	synchronized void setAnalyzers(LinkedHashMap<String, AnalyzerDefinition> analyzers)
+	void setAnalyzers(LinkedHashMap<String, AnalyzerDefinition> analyzers) throws ServerException, IOException {
+		checkNotReplica();
+		updateAnalyzers(analyzers);
+	}
+
+	/**
+	 * The analyzers of a replica are only updated by the replication
+	 */
+	private synchronized void updateAnalyzers(LinkedHashMap<String, AnalyzerDefinition> analyzers)
 			throws ServerException, IOException {
 		AnalyzerContext analyzerContext = new AnalyzerContext(analyzers, fieldMap);
 		indexAnalyzer.update(analyzerContext, analyzerContext.indexAnalyzerMap);
 		queryAnalyzer.update(analyzerContext, analyzerContext.queryAnalyzerMap);
 		JsonMapper.MAPPER.writeValue(fileSet.analyzerMapFile, analyzers);
 		analyzerMap = analyzers;
+		if (resultCache != null)
+			resultCache.clear();
+		if (queryPlanCache != null)
+			queryPlanCache.clear();
 	}
 
 	void setAnalyzer(String analyzerName, AnalyzerDefinition analyzer) throws IOException, ServerException {
@@ -309,52 +546,208 @@ final public class IndexInstance implements Closeable {
 		return queryAnalyzer.getWrappedAnalyzer(field);
 	}
 
-	private void nrtCommit() throws IOException, ServerException {
-		indexWriter.commit();
+	private void checkNotReplica() {
+		if (replicationSlave != null)
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+					"This index is a read-only replica of " + settings.replication_master);
+	}
+
+	private void checkNotMaster() {
+		if (replicationSlave == null)
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE, "This index is not a replica");
+	}
+
+	final ReplicationStatus getReplicationStatus(final String replicaId) throws IOException {
+		checkNotReplica();
+		return replicationMaster.getStatus(replicaId);
+	}
+
+	final InputStream getReplicationFile(final String replicaId, final String fileName) throws IOException {
+		checkNotReplica();
+		return replicationMaster.getFile(replicaId, fileName);
+	}
+
+	/**
+	 * Copy the analyzers, the fields and the last commit point of the master, then refresh the searcher.
+	 *
+	 * @return the replicated commit point
+	 * @throws IOException          if any I/O error occurs
+	 * @throws InterruptedException if the replication is interrupted
+	 */
+	final ReplicationStatus replicate() throws IOException, InterruptedException {
+		synchronized (replicationLock) {
+			checkNotMaster();
+			final Semaphore sem = acquireWriteSemaphore();
+			try {
+				final LinkedHashMap<String, AnalyzerDefinition> analyzers = replicationSlave.getMasterAnalyzers();
+				if (analyzers != null && !isSameJson(analyzers, analyzerMap))
+					updateAnalyzers(analyzers);
+				final LinkedHashMap<String, FieldDefinition> fields = replicationSlave.getMasterFields();
+				if (fields != null && !isSameJson(fields, fieldMap))
+					updateFields(fields);
+				final ReplicationStatus status = replicationSlave.update();
+				if (status.downloaded_files == 0)
+					return status;
+				searcherManager.maybeRefreshBlocking();
+				schema.scheduleRefresh();
+				replicationSlave.purge(status);
+				return status;
+			} finally {
+				if (sem != null)
+					sem.release();
+			}
+		}
+	}
+
+	private static boolean isSameJson(final Object o1, final Object o2) throws JsonProcessingException {
+		return JsonMapper.MAPPER.writeValueAsString(o1).equals(JsonMapper.MAPPER.writeValueAsString(o2));
+	}
+
+	private Semaphore acquireReadSemaphore() throws InterruptedException {
+		final long start = System.nanoTime();
+		final Semaphore sem = schema.acquireReadSemaphore();
+		if (sem != null)
+			metrics.readSemaphoreWait.observeNanos(System.nanoTime() - start);
+		return sem;
+	}
+
+	private Semaphore acquireWriteSemaphore() throws InterruptedException {
+		metrics.writeRequests.increment();
+		final long start = System.nanoTime();
+		final Semaphore sem = schema.acquireWriteSemaphore();
+		if (sem != null)
+			metrics.writeSemaphoreWait.observeNanos(System.nanoTime() - start);
+		return sem;
+	}
+
+	private void scheduledReplication() {
+		try {
+			replicate();
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			logger.error("Replication failure: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * The commits of the write requests and the group commits are serialized. The pending documents are only
+	 * discounted once the commit succeeded, a failed commit is retried by the next group commit.
+	 */
+	private void commit() throws IOException, ServerException {
+		synchronized (commitLock) {
+			final int pending = uncommittedDocs.get();
+			final long start = System.nanoTime();
+			indexWriter.commit();
+			metrics.commitDuration.observeNanos(System.nanoTime() - start);
+			uncommittedDocs.addAndGet(-pending);
+		}
 		searcherManager.maybeRefresh();
-		schema.mayBeRefresh();
+		schema.scheduleRefresh();
+	}
+
+	/**
+	 * Commit the changes. In group commit mode, the commit is delegated to the
+	 * background committer, unless too many documents are waiting.
+	 *
+	 * @param updatedDocs the number of documents updated by the caller
+	 * @throws IOException
+	 * @throws ServerException
+	 */
+	private void nrtCommit(final int updatedDocs) throws IOException, ServerException {
+		metrics.writtenDocuments.add(updatedDocs);
+		if (settings.isGroupCommit()) {
+			final int uncommitted = uncommittedDocs.addAndGet(updatedDocs);
+			if (settings.max_uncommitted_docs == null || uncommitted < settings.max_uncommitted_docs)
+				return;
+		}
+		commit();
+	}
+
+	/**
+	 * The scheduled commit waits for the write semaphore, like the write requests.
+	 */
+	private void groupCommit() {
+		if (uncommittedDocs.get() == 0)
+			return;
+		try {
+			final Semaphore sem = schema.acquireWriteSemaphore();
+			try {
+				commit();
+			} finally {
+				if (sem != null)
+					sem.release();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | RuntimeException e) {
+			logger.error("Group commit failure: " + e.getMessage(), e);
+		}
 	}
 
-	final synchronized BackupStatus backup(Integer keepLastCount) throws IOException, InterruptedException {
-		Semaphore sem = schema.acquireReadSemaphore();
+	private void nrtRefresh() {
 		try {
-			File backupdir = null;
-			final IndexCommit commit = snapshotDeletionPolicy.snapshot();
+			if (searcherManager.maybeRefresh())
+				schema.scheduleRefresh();
+		} catch (IOException | RuntimeException e) {
+			logger.error("NRT refresh failure: " + e.getMessage(), e);
+		}
+	}
+
+	final BackupStatus backup(Integer keepLastCount) throws IOException, InterruptedException {
+		synchronized (replicationLock) {
+			Semaphore sem = acquireReadSemaphore();
 			try {
-				int files_count = 0;
-				long bytes_size = 0;
-				if (!fileSet.backupDirectory.exists())
-					fileSet.backupDirectory.mkdir();
-				backupdir = new File(fileSet.backupDirectory, Long.toString(commit.getGeneration()));
-				if (!backupdir.exists())
-					backupdir.mkdir();
-				if (!backupdir.exists())
-					throw new IOException("Cannot create the backup directory: " + backupdir);
-				for (String fileName : commit.getFileNames()) {
-					File sourceFile = new File(fileSet.dataDirectory, fileName);
-					File targetFile = new File(backupdir, fileName);
-					files_count++;
-					bytes_size += sourceFile.length();
-					if (targetFile.exists() && targetFile.length() == sourceFile.length()
-							&& targetFile.lastModified() == sourceFile.lastModified())
-						continue;
-					FileUtils.copyFile(sourceFile, targetFile, true);
+				File backupdir = null;
+				// The files of a replica are only deleted by the replication, which is synchronized with the backup
+				final IndexCommit commit = snapshotDeletionPolicy != null ?
+						snapshotDeletionPolicy.snapshot() :
+						getLastCommit(DirectoryReader.listCommits(dataDirectory));
+				try {
+					int files_count = 0;
+					long bytes_size = 0;
+					if (!fileSet.backupDirectory.exists())
+						fileSet.backupDirectory.mkdir();
+					backupdir = new File(fileSet.backupDirectory, Long.toString(commit.getGeneration()));
+					if (!backupdir.exists())
+						backupdir.mkdir();
+					if (!backupdir.exists())
+						throw new IOException("Cannot create the backup directory: " + backupdir);
+					final Collection<String> fileNames = commit.getFileNames();
+					for (String fileName : fileNames) {
+						files_count++;
+						bytes_size += new File(fileSet.dataDirectory, fileName).length();
+					}
+					new BackupCopier(schema.getExecutorService(), settings.backup_copy_threads,
+							settings.backup_max_mb_per_sec)
+							.backup(fileNames, fileSet.dataDirectory, getPreviousBackup(commit.getGeneration()),
+									backupdir);
+					purgeBackups(keepLastCount);
+					return new BackupStatus(commit.getGeneration(), backupdir.lastModified(), bytes_size, files_count);
+				} catch (IOException e) {
+					if (backupdir != null)
+						FileUtils.deleteQuietly(backupdir);
+					throw e;
+				} finally {
+					if (snapshotDeletionPolicy != null)
+						snapshotDeletionPolicy.release(commit);
 				}
-				purgeBackups(keepLastCount);
-				return new BackupStatus(commit.getGeneration(), backupdir.lastModified(), bytes_size, files_count);
-			} catch (IOException e) {
-				if (backupdir != null)
-					FileUtils.deleteQuietly(backupdir);
-				throw e;
 			} finally {
-				snapshotDeletionPolicy.release(commit);
+				if (sem != null)
+					sem.release();
 			}
-		} finally {
-			if (sem != null)
-				sem.release();
 		}
 	}
 
+	private File getPreviousBackup(final long generation) {
+		for (BackupStatus backup : backups())
+			if (backup.generation < generation)
+				return new File(fileSet.backupDirectory, Long.toString(backup.generation));
+		return null;
+	}
+
+	private static IndexCommit getLastCommit(final List<IndexCommit> commits) {
+		return commits.get(commits.size() - 1);
+	}
+
 	private void purgeBackups(Integer keepLastCount) {
 		if (keepLastCount == null)
 			return;
@@ -391,7 +784,7 @@ final public class IndexInstance implements Closeable {
 	}
 
 	final List<BackupStatus> getBackups() throws InterruptedException {
-		final Semaphore sem = schema.acquireReadSemaphore();
+		final Semaphore sem = acquireReadSemaphore();
 		try {
 			return backups();
 		} finally {
@@ -401,10 +794,11 @@ final public class IndexInstance implements Closeable {
 	}
 
 	final void deleteAll() throws IOException, InterruptedException, ServerException {
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		checkNotReplica();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			indexWriter.deleteAll();
-			nrtCommit();
+			commit();
 		} finally {
 			if (sem != null)
 				sem.release();
@@ -429,15 +823,16 @@ final public class IndexInstance implements Closeable {
 
 	final <T> Object postDocument(final Map<String, Field> fields, final T document)
 			throws IOException, InterruptedException {
+		checkNotReplica();
 		if (document == null)
 			return null;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			schema.checkSize(1);
 			RecordsPoster.UpdateObjectDocument poster = getDocumentPoster(fields);
 			poster.accept(document);
 			Object id = poster.ids.isEmpty() ? null : poster.ids.iterator().next();
-			nrtCommit();
+			nrtCommit(1);
 			return id;
 		} finally {
 			if (sem != null)
@@ -446,15 +841,16 @@ final public class IndexInstance implements Closeable {
 	}
 
 	final Object postMappedDocument(final Map<String, Object> document) throws IOException, InterruptedException {
+		checkNotReplica();
 		if (document == null || document.isEmpty())
 			return null;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			schema.checkSize(1);
 			RecordsPoster.UpdateMapDocument poster = getDocumentPoster();
 			poster.accept(document);
 			Object id = poster.ids.isEmpty() ? null : poster.ids.iterator().next();
-			nrtCommit();
+			nrtCommit(1);
 			return id;
 		} finally {
 			if (sem != null)
@@ -464,14 +860,15 @@ final public class IndexInstance implements Closeable {
 
 	final Collection<Object> postMappedDocuments(final Collection<Map<String, Object>> documents)
 			throws IOException, InterruptedException {
+		checkNotReplica();
 		if (documents == null || documents.isEmpty())
 			return null;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			schema.checkSize(documents.size());
 			RecordsPoster.UpdateMapDocument poster = getDocumentPoster();
 			documents.forEach(poster);
-			nrtCommit();
+			nrtCommit(documents.size());
 			return poster.ids;
 		} finally {
 			if (sem != null)
@@ -479,16 +876,60 @@ final public class IndexInstance implements Closeable {
 		}
 	}
 
+	/**
+	 * Index a stream of newline delimited JSON documents using several threads
+	 *
+	 * @param input   the NDJSON stream
+	 * @param threads the number of indexing threads (at most twice the number of processors), or null to use the number
+	 *                of processors
+	 * @return the number of indexed documents and the errors
+	 * @throws IOException          if any I/O error occurs
+	 * @throws InterruptedException if the indexing is interrupted
+	 */
+	final BulkStatus postMappedDocuments(final InputStream input, final Integer threads)
+			throws IOException, InterruptedException {
+		checkNotReplica();
+		final Semaphore sem = acquireWriteSemaphore();
+		try {
+			final BulkPoster bulkPoster =
+					new BulkPoster(schema.getExecutorService(), threads, this::getBulkPoster, schema::checkSize);
+			final BulkStatus status = bulkPoster.post(input);
+			bulkCommit(status.indexed);
+			return status;
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	/**
+	 * @return a poster for the workers of a bulk, which does not keep the ids of the documents
+	 */
+	final RecordsPoster.UpdateMapDocument getBulkPoster() {
+		return RecordsPoster.UpdateMapDocument.withoutIds(indexAnalyzer.getContext(), indexWriter);
+	}
+
+	/**
+	 * Commit the documents indexed by the posters of a bulk, the caller holds the write semaphore
+	 *
+	 * @param indexed the number of indexed documents
+	 */
+	final void bulkCommit(final long indexed) throws IOException {
+		if (indexed > 0)
+			nrtCommit((int) indexed);
+	}
+
 	final <T> Collection<Object> postDocuments(final Map<String, Field> fields, final Collection<T> documents)
 			throws IOException, InterruptedException {
+		checkNotReplica();
 		if (documents == null || documents.isEmpty())
 			return null;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			schema.checkSize(documents.size());
 			RecordsPoster.UpdateObjectDocument poster = getDocumentPoster(fields);
 			documents.forEach(poster);
-			nrtCommit();
+			nrtCommit(documents.size());
 			return poster.ids;
 		} finally {
 			if (sem != null)
@@ -498,13 +939,14 @@ final public class IndexInstance implements Closeable {
 
 	final <T> void updateDocValues(final Map<String, Field> fields, final T document)
 			throws InterruptedException, IOException {
+		checkNotReplica();
 		if (document == null)
 			return;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			RecordsPoster.UpdateObjectDocValues poster = getDocValuesPoster(fields);
 			poster.accept(document);
-			nrtCommit();
+			nrtCommit(1);
 		} finally {
 			if (sem != null)
 				sem.release();
@@ -512,13 +954,14 @@ final public class IndexInstance implements Closeable {
 	}
 
 	final void updateMappedDocValues(final Map<String, Object> document) throws IOException, InterruptedException {
+		checkNotReplica();
 		if (document == null || document.isEmpty())
 			return;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			RecordsPoster.UpdateMapDocValues poster = getDocValuesPoster();
 			poster.accept(document);
-			nrtCommit();
+			nrtCommit(1);
 		} finally {
 			if (sem != null)
 				sem.release();
@@ -527,13 +970,14 @@ final public class IndexInstance implements Closeable {
 
 	final <T> void updateDocsValues(final Map<String, Field> fields, final Collection<T> documents)
 			throws IOException, InterruptedException {
+		checkNotReplica();
 		if (documents == null || documents.isEmpty())
 			return;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			RecordsPoster.UpdateObjectDocValues poster = getDocValuesPoster(fields);
 			documents.forEach(poster);
-			nrtCommit();
+			nrtCommit(documents.size());
 		} finally {
 			if (sem != null)
 				sem.release();
@@ -542,13 +986,14 @@ final public class IndexInstance implements Closeable {
 
 	final void updateMappedDocsValues(final Collection<Map<String, Object>> documents)
 			throws IOException, ServerException, InterruptedException {
+		checkNotReplica();
 		if (documents == null || documents.isEmpty())
 			return;
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			RecordsPoster.UpdateMapDocValues poster = getDocValuesPoster();
 			documents.forEach(poster);
-			nrtCommit();
+			nrtCommit(documents.size());
 		} finally {
 			if (sem != null)
 				sem.release();
@@ -558,13 +1003,14 @@ final public class IndexInstance implements Closeable {
 	final ResultDefinition.WithMap deleteByQuery(final QueryDefinition queryDefinition)
 			throws IOException, InterruptedException, QueryNodeException, ParseException, ServerException,
 			ReflectiveOperationException {
-		final Semaphore sem = schema.acquireWriteSemaphore();
+		checkNotReplica();
+		final Semaphore sem = acquireWriteSemaphore();
 		try {
 			final QueryContext queryContext = new QueryContext(null, queryAnalyzer, null, queryDefinition);
 			final Query query = QueryUtils.getLuceneQuery(queryContext);
 			int docs = indexWriter.numDocs();
 			indexWriter.deleteDocuments(query);
-			nrtCommit();
+			commit();
 			docs -= indexWriter.numDocs();
 			return new ResultDefinition.WithMap(docs);
 		} finally {
@@ -573,31 +1019,180 @@ final public class IndexInstance implements Closeable {
 		}
 	}
 
-	private synchronized SortedSetDocValuesReaderState getFacetsState(final IndexReader indexReader)
-			throws IOException {
-		Pair<IndexReader, SortedSetDocValuesReaderState> current = facetsReaderStateCache;
-		if (current != null && current.getLeft() == indexReader)
-			return current.getRight();
-		SortedSetDocValuesReaderState newState = IndexUtils.getNewFacetsState(indexReader);
-		facetsReaderStateCache = Pair.of(indexReader, newState);
-		return newState;
+	private SortedSetDocValuesReaderState getFacetsState(final IndexReader indexReader) throws IOException {
+		synchronized (facetsStateLock) {
+			Pair<IndexReader, SortedSetDocValuesReaderState> current = facetsReaderStateCache;
+			if (current != null && current.getLeft() == indexReader) {
+				metrics.facetsStateHits.increment();
+				return current.getRight();
+			}
+			Pair<IndexReader, SortedSetDocValuesReaderState> previous = previousFacetsReaderStateCache;
+			if (previous != null && previous.getLeft() == indexReader) {
+				metrics.facetsStateHits.increment();
+				return previous.getRight();
+			}
+			metrics.facetsStateMisses.increment();
+			SortedSetDocValuesReaderState newState = IndexUtils.getNewFacetsState(indexReader);
+			previousFacetsReaderStateCache = current;
+			facetsReaderStateCache = Pair.of(indexReader, newState);
+			return newState;
+		}
 	}
 
-	final private QueryContext buildQueryContext(final IndexSearcher indexSearcher,
+	final QueryContext buildQueryContext(final IndexSearcher indexSearcher,
 			final QueryDefinition queryDefinition) throws IOException {
-		indexSearcher.setSimilarity(indexWriterConfig.getSimilarity());
-		final SortedSetDocValuesReaderState facetsState = getFacetsState(indexSearcher.getIndexReader());
-		return new QueryContext(indexSearcher, queryAnalyzer, facetsState, queryDefinition);
+		return buildQueryContext(indexSearcher, getFacetsState(indexSearcher.getIndexReader()), queryDefinition);
+	}
+
+	/**
+	 * @param indexSearcher   a searcher using the fields and the analyzers of this index
+	 * @param facetsState     the facets state of the reader of the searcher
+	 * @param queryDefinition the query
+	 * @return a new query context
+	 */
+	final QueryContext buildQueryContext(final IndexSearcher indexSearcher,
+			final SortedSetDocValuesReaderState facetsState, final QueryDefinition queryDefinition) {
+		indexSearcher.setSimilarity(similarity);
+		return new QueryContext(indexSearcher, queryAnalyzer, facetsState, queryDefinition, indexSort,
+				queryPlanCache);
+	}
+
+	/**
+	 * Run the warm-up queries on a searcher which is not yet published. A failing query does not prevent the
+	 * searcher from being published.
+	 *
+	 * @param indexSearcher the new searcher
+	 */
+	private void warmSearcher(final IndexSearcher indexSearcher) {
+		for (QueryDefinition queryDefinition : settings.warmup_queries) {
+			try {
+				QueryUtils.search(buildQueryContext(indexSearcher, queryDefinition),
+						ResultDocumentBuilder.MapBuilderFactory.INSTANCE);
+			} catch (IOException | ParseException | ReflectiveOperationException | QueryNodeException |
+					RuntimeException e) {
+				logger.warn("Warm-up query failure: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private void warmCurrentSearcher() {
+		try {
+			final IndexSearcher indexSearcher = searcherManager.acquire();
+			try {
+				warmSearcher(indexSearcher);
+			} finally {
+				searcherManager.release(indexSearcher);
+			}
+		} catch (IOException e) {
+			logger.warn("Warm-up failure: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Count the aborted queries and record the duration of the phases of an executed (not cached) query.
+	 */
+	private ResultDefinition checkResult(final ResultDefinition result) {
+		if (result.timed_out != null || result.terminated_early != null)
+			abortedQueries.incrementAndGet();
+		metrics.recordPhases(result.timer);
+		return result;
 	}
 
 	final ResultDefinition search(final QueryDefinition queryDefinition,
 			ResultDocumentBuilder.BuilderFactory<?> documentBuilderFactory)
 			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException {
-		final Semaphore sem = schema.acquireReadSemaphore();
+		metrics.queries.increment();
+		final long start = System.nanoTime();
+		try {
+			return cachedSearch(queryDefinition, documentBuilderFactory);
+		} finally {
+			metrics.queryDuration.observeNanos(System.nanoTime() - start);
+		}
+	}
+
+	private ResultDefinition cachedSearch(final QueryDefinition queryDefinition,
+			ResultDocumentBuilder.BuilderFactory<?> documentBuilderFactory)
+			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException {
+		final Semaphore sem = acquireReadSemaphore();
+		try {
+			final IndexSearcher indexSearcher = searcherManager.acquire();
+			try {
+				// Only the results using a map of fields are cached, the profiled results are never cached
+				if (resultCache == null || documentBuilderFactory != ResultDocumentBuilder.MapBuilderFactory.INSTANCE ||
+						queryDefinition.isProfiled())
+					return checkResult(QueryUtils
+							.search(buildQueryContext(indexSearcher, queryDefinition), documentBuilderFactory));
+				final ResultCache.Key key = ResultCache
+						.getKey(((DirectoryReader) indexSearcher.getIndexReader()).getVersion(), queryDefinition);
+				ResultDefinition.WithMap result = resultCache.get(key);
+				if (result != null)
+					return result;
+				result = (ResultDefinition.WithMap) QueryUtils
+						.search(buildQueryContext(indexSearcher, queryDefinition), documentBuilderFactory);
+				checkResult(result);
+				// A partial result is not cached
+				if (result.timed_out == null && result.terminated_early == null)
+					resultCache.put(key, result);
+				return result;
+			} finally {
+				searcherManager.release(indexSearcher);
+			}
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	/**
+	 * Write all the documents matching the query as newline delimited JSON.
+	 *
+	 * @param queryDefinition the query and the returned fields (all the fields by default)
+	 * @param output          the stream receiving the documents
+	 * @return the number of exported documents
+	 */
+	final long export(final QueryDefinition queryDefinition, final OutputStream output)
+			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException {
+		final Semaphore sem = acquireReadSemaphore();
+		try {
+			final IndexSearcher indexSearcher = searcherManager.acquire();
+			try {
+				return export(buildQueryContext(indexSearcher, queryDefinition), queryDefinition, output);
+			} finally {
+				searcherManager.release(indexSearcher);
+			}
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	final long export(final QueryContext queryContext, final QueryDefinition queryDefinition,
+			final OutputStream output)
+			throws IOException, ParseException, ReflectiveOperationException, QueryNodeException {
+		final Query query = QueryUtils.getLuceneQuery(queryContext);
+		final Set<String> returnedFields =
+				queryDefinition.returned_fields == null || queryDefinition.returned_fields.isEmpty() ?
+						fieldMap.keySet() :
+						queryDefinition.returned_fields;
+		final ExportCollector collector =
+				new ExportCollector(output, returnedFields, queryAnalyzer.getContext().fieldTypes);
+		queryContext.indexSearcher.search(query, collector);
+		return collector.finish();
+	}
+
+	/**
+	 * Fetch the documents by identifier, without running a query
+	 *
+	 * @param multiGetDefinition the identifiers and the returned fields
+	 * @return the documents, in the order of the identifiers
+	 */
+	final MultiGetResult multiGet(final MultiGetDefinition multiGetDefinition)
+			throws IOException, InterruptedException {
+		final Semaphore sem = acquireReadSemaphore();
 		try {
 			final IndexSearcher indexSearcher = searcherManager.acquire();
 			try {
-				return QueryUtils.search(buildQueryContext(indexSearcher, queryDefinition), documentBuilderFactory);
+				return multiGet(indexSearcher.getIndexReader(), multiGetDefinition);
 			} finally {
 				searcherManager.release(indexSearcher);
 			}
@@ -607,8 +1202,32 @@ final public class IndexInstance implements Closeable {
 		}
 	}
 
-	Directory getDataDirectory() {
-		return dataDirectory;
+	final MultiGetResult multiGet(final IndexReader indexReader, final MultiGetDefinition multiGetDefinition)
+			throws IOException {
+		final Set<String> returnedFields =
+				multiGetDefinition.returned_fields == null || multiGetDefinition.returned_fields.isEmpty() ?
+						fieldMap.keySet() :
+						multiGetDefinition.returned_fields;
+		return new MultiGetter(indexReader, returnedFields, queryAnalyzer.getContext().fieldTypes)
+				.fetch(multiGetDefinition.ids);
+	}
+
+	/**
+	 * Returns the current near-real-time reader of the index.
+	 * The reference must be released by calling IndexReader.decRef().
+	 *
+	 * @return the current reader
+	 * @throws IOException
+	 */
+	IndexReader acquireIndexReader() throws IOException {
+		final IndexSearcher indexSearcher = searcherManager.acquire();
+		try {
+			final IndexReader indexReader = indexSearcher.getIndexReader();
+			indexReader.incRef();
+			return indexReader;
+		} finally {
+			searcherManager.release(indexSearcher);
+		}
 	}
 
 	void fillFields(final Map<String, FieldDefinition> fields) {
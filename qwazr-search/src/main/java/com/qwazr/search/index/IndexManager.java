@@ -29,11 +29,15 @@ import java.net.URISyntaxException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IndexManager {
 
 	public final static String SERVICE_NAME_SEARCH = "search";
 	public final static String INDEXES_DIRECTORY = "index";
+	public final static String SEARCH_THREAD_PREFIX = "qwazr-search-";
 
 	private static final Logger logger = LoggerFactory.getLogger(IndexManager.class);
 
@@ -63,10 +67,22 @@ public class IndexManager {
 
 	private final ExecutorService executorService;
 
+	private final ScheduledExecutorService scheduledExecutorService;
+
+	/**
+	 * Runs the slices of the parallel searches, one thread per processor
+	 */
+	private final ExecutorService searchExecutorService;
+
 	private final File rootDirectory;
 
 	private IndexManager(ExecutorService executorService, File rootDirectory) {
 		this.executorService = executorService;
+		this.scheduledExecutorService = Executors
+				.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+		final AtomicInteger searchThreadCount = new AtomicInteger();
+		this.searchExecutorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				runnable -> new Thread(runnable, SEARCH_THREAD_PREFIX + searchThreadCount.incrementAndGet()));
 		this.rootDirectory = rootDirectory;
 		schemaMap = new ConcurrentHashMap<String, SchemaInstance>();
 		File[] directories = rootDirectory.listFiles((FileFilter) DirectoryFileFilter.INSTANCE);
@@ -74,7 +90,8 @@ public class IndexManager {
 			return;
 		for (File schemaDirectory : directories) {
 			try {
-				schemaMap.put(schemaDirectory.getName(), new SchemaInstance(executorService, schemaDirectory));
+				schemaMap.put(schemaDirectory.getName(), new SchemaInstance(executorService, searchExecutorService,
+						scheduledExecutorService, schemaDirectory));
 			} catch (ServerException | IOException | ReflectiveOperationException | InterruptedException | URISyntaxException e) {
 				logger.error(e.getMessage(), e);
 			}
@@ -82,6 +99,8 @@ public class IndexManager {
 	}
 
 	private void shutdown() {
+		scheduledExecutorService.shutdown();
+		searchExecutorService.shutdown();
 		synchronized (schemaMap) {
 			for (SchemaInstance instance : schemaMap.values())
 				IOUtils.closeQuietly(instance);
@@ -94,7 +113,8 @@ public class IndexManager {
 		synchronized (schemaMap) {
 			SchemaInstance schemaInstance = schemaMap.get(schemaName);
 			if (schemaInstance == null) {
-				schemaInstance = new SchemaInstance(executorService, new File(rootDirectory, schemaName));
+				schemaInstance = new SchemaInstance(executorService, searchExecutorService, scheduledExecutorService,
+						new File(rootDirectory, schemaName));
 				schemaMap.put(schemaName, schemaInstance);
 			}
 			if (settings != null)
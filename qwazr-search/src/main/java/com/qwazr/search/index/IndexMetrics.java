@@ -0,0 +1,257 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.utils.TimeTracker;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.search.ReferenceManager;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of one index, written in the Prometheus text exposition format.
+ * Recording a value is lock free.
+ */
+class IndexMetrics {
+
+	private final static String PREFIX = "qwazr_index_";
+
+	final LongAdder queries = new LongAdder();
+	final LongAdder writeRequests = new LongAdder();
+	final LongAdder writtenDocuments = new LongAdder();
+	final LongAdder facetsStateHits = new LongAdder();
+	final LongAdder facetsStateMisses = new LongAdder();
+	final LongAdder merges = new LongAdder();
+	final AtomicInteger runningMerges = new AtomicInteger();
+
+	final Histogram queryDuration = new Histogram();
+	final Histogram readSemaphoreWait = new Histogram();
+	final Histogram writeSemaphoreWait = new Histogram();
+	final Histogram refreshDuration = new Histogram();
+	final Histogram commitDuration = new Histogram();
+	final Histogram mergeDuration = new Histogram();
+
+	private final Map<String, Histogram> phaseDurations = new ConcurrentHashMap<>();
+
+	/**
+	 * Record the durations of the phases of a query, as tracked by its TimeTracker
+	 *
+	 * @param status the status of the TimeTracker of the query
+	 */
+	final void recordPhases(final TimeTracker.Status status) {
+		if (status == null || status.durations == null)
+			return;
+		status.durations.forEach((phase, duration) -> phaseDurations.computeIfAbsent(phase, p -> new Histogram())
+				.observeMillis(duration));
+	}
+
+	/**
+	 * Add the values recorded by another index, as the metrics of a sharded index sum the metrics of its shards
+	 *
+	 * @param other the metrics of the other index
+	 */
+	final void add(final IndexMetrics other) {
+		queries.add(other.queries.sum());
+		writeRequests.add(other.writeRequests.sum());
+		writtenDocuments.add(other.writtenDocuments.sum());
+		facetsStateHits.add(other.facetsStateHits.sum());
+		facetsStateMisses.add(other.facetsStateMisses.sum());
+		merges.add(other.merges.sum());
+		runningMerges.addAndGet(other.runningMerges.get());
+		queryDuration.add(other.queryDuration);
+		readSemaphoreWait.add(other.readSemaphoreWait);
+		writeSemaphoreWait.add(other.writeSemaphoreWait);
+		refreshDuration.add(other.refreshDuration);
+		commitDuration.add(other.commitDuration);
+		mergeDuration.add(other.mergeDuration);
+		other.phaseDurations.forEach(
+				(phase, histogram) -> phaseDurations.computeIfAbsent(phase, p -> new Histogram()).add(histogram));
+	}
+
+	/**
+	 * A histogram with fixed buckets, from one millisecond to ten seconds
+	 */
+	static class Histogram {
+
+		private final static double[] BOUNDS =
+				{ 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+		private final LongAdder[] buckets;
+		private final DoubleAdder sum;
+
+		private Histogram() {
+			buckets = new LongAdder[BOUNDS.length + 1];
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = new LongAdder();
+			sum = new DoubleAdder();
+		}
+
+		final void observe(final double seconds) {
+			int i = 0;
+			while (i < BOUNDS.length && seconds > BOUNDS[i])
+				i++;
+			buckets[i].increment();
+			sum.add(seconds);
+		}
+
+		final void observeNanos(final long nanos) {
+			observe(nanos / 1_000_000_000D);
+		}
+
+		final void observeMillis(final long millis) {
+			observe(millis / 1000D);
+		}
+
+		private void add(final Histogram other) {
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i].add(other.buckets[i].sum());
+			sum.add(other.sum.sum());
+		}
+	}
+
+	/**
+	 * Record the duration of the refreshes of the searcher. The SearcherManager does one refresh at a time.
+	 */
+	class RefreshListener implements ReferenceManager.RefreshListener {
+
+		private volatile long start;
+
+		@Override
+		public void beforeRefresh() {
+			start = System.nanoTime();
+		}
+
+		@Override
+		public void afterRefresh(final boolean didRefresh) {
+			if (didRefresh)
+				refreshDuration.observeNanos(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * A merge scheduler which records the number and the duration of the merges
+	 */
+	class MergeScheduler extends ConcurrentMergeScheduler {
+
+		@Override
+		protected void doMerge(final IndexWriter writer, final MergePolicy.OneMerge merge) throws IOException {
+			final long start = System.nanoTime();
+			runningMerges.incrementAndGet();
+			try {
+				super.doMerge(writer, merge);
+			} finally {
+				runningMerges.decrementAndGet();
+				merges.increment();
+				mergeDuration.observeNanos(System.nanoTime() - start);
+			}
+		}
+	}
+
+	final void write(final TextFormat text) {
+		text.counter("queries_total", "The number of queries", queries.sum());
+		text.histogram("query_duration_seconds", "The latency of the queries", queryDuration);
+		text.type("query_phase_duration_seconds", "The latency of each phase of the queries", "histogram");
+		new TreeMap<>(phaseDurations)
+				.forEach((phase, histogram) -> text.histogramSamples("query_phase_duration_seconds", histogram,
+						"phase", phase));
+		text.counter("write_requests_total", "The number of write requests", writeRequests.sum());
+		text.counter("written_documents_total", "The number of documents written", writtenDocuments.sum());
+		text.type("semaphore_wait_seconds", "The time spent waiting for the read or write semaphore", "histogram");
+		text.histogramSamples("semaphore_wait_seconds", readSemaphoreWait, "type", "read");
+		text.histogramSamples("semaphore_wait_seconds", writeSemaphoreWait, "type", "write");
+		text.histogram("refresh_duration_seconds", "The duration of the searcher refreshes", refreshDuration);
+		text.histogram("commit_duration_seconds", "The duration of the commits", commitDuration);
+		text.counter("merges_total", "The number of completed merges", merges.sum());
+		text.histogram("merge_duration_seconds", "The duration of the merges", mergeDuration);
+		text.gauge("running_merges", "The number of running merges", runningMerges.get());
+		text.counter("facets_state_cache_hits_total", "The facets states reused from the cache",
+				facetsStateHits.sum());
+		text.counter("facets_state_cache_misses_total", "The facets states built", facetsStateMisses.sum());
+	}
+
+	/**
+	 * Build the text exposition format. Every sample has the schema and the index labels.
+	 */
+	static class TextFormat {
+
+		private final StringBuilder builder;
+		private final String labels;
+
+		TextFormat(final String schemaName, final String indexName) {
+			builder = new StringBuilder();
+			labels = "schema=\"" + escape(schemaName) + "\",index=\"" + escape(indexName) + '"';
+		}
+
+		private static String escape(final String value) {
+			return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+
+		private void type(final String name, final String help, final String type) {
+			builder.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+			builder.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+		}
+
+		private void sample(final String name, final String extraLabels, final Number value) {
+			builder.append(PREFIX).append(name).append('{').append(labels);
+			if (extraLabels != null)
+				builder.append(',').append(extraLabels);
+			builder.append("} ").append(value).append('\n');
+		}
+
+		final void counter(final String name, final String help, final Number value) {
+			type(name, help, "counter");
+			sample(name, null, value);
+		}
+
+		final void gauge(final String name, final String help, final Number value) {
+			type(name, help, "gauge");
+			sample(name, null, value);
+		}
+
+		final void histogram(final String name, final String help, final Histogram histogram) {
+			type(name, help, "histogram");
+			histogramSamples(name, histogram, null, null);
+		}
+
+		private void histogramSamples(final String name, final Histogram histogram, final String labelName,
+				final String labelValue) {
+			final String extraLabel = labelName == null ? null : labelName + "=\"" + escape(labelValue) + '"';
+			final String bucketPrefix = extraLabel == null ? "le=\"" : extraLabel + ",le=\"";
+			long cumulative = 0;
+			for (int i = 0; i < Histogram.BOUNDS.length; i++) {
+				cumulative += histogram.buckets[i].sum();
+				sample(name + "_bucket", bucketPrefix + Histogram.BOUNDS[i] + '"', cumulative);
+			}
+			cumulative += histogram.buckets[Histogram.BOUNDS.length].sum();
+			sample(name + "_bucket", bucketPrefix + "+Inf\"", cumulative);
+			sample(name + "_sum", extraLabel, histogram.sum.sum());
+			sample(name + "_count", extraLabel, cumulative);
+		}
+
+		@Override
+		public String toString() {
+			return builder.toString();
+		}
+	}
+}
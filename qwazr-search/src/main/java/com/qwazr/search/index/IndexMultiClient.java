@@ -17,18 +17,38 @@ package com.qwazr.search.index;
 
 import com.qwazr.search.analysis.AnalyzerDefinition;
 import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.utils.IOUtils;
+import com.qwazr.utils.TimeTracker;
 import com.qwazr.utils.json.client.JsonMultiClientAbstract;
+import com.qwazr.utils.server.ServerException;
+import com.qwazr.utils.server.WebAppExceptionHolder;
+import com.qwazr.utils.threads.ThreadUtils.FunctionExceptionCatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class IndexMultiClient extends JsonMultiClientAbstract<String, IndexSingleClient>
 		implements IndexServiceInterface {
 
+	private static final Logger logger = LoggerFactory.getLogger(IndexMultiClient.class);
+
+	// The time left to a node which stopped at the deadline of the query to send its partial results
+	private static final long NODE_TIMEOUT_MARGIN_MS = 1000;
+
+	private final Integer msTimeOut;
+
 	public IndexMultiClient(ExecutorService executor, String[] urls, Integer msTimeOut) throws URISyntaxException {
 		super(executor, new IndexSingleClient[urls.length], urls, msTimeOut);
+		this.msTimeOut = msTimeOut;
 	}
 
 	@Override
@@ -173,6 +193,95 @@ public class IndexMultiClient extends JsonMultiClientAbstract<String, IndexSingl
 		return null;
 	}
 
+	@Override
+	public ReplicationStatus getReplicationStatus(String schema_name, String index_name, String replica_id) {
+		return null;
+	}
+
+	@Override
+	public Response getReplicationFile(String schema_name, String index_name, String replica_id,
+			String file_name) {
+		return null;
+	}
+
+	@Override
+	public ReplicationStatus replicate(String schema_name, String index_name) {
+		return null;
+	}
+
+	@Override
+	public String getMetrics(String schema_name, String index_name) {
+		throw new ServerException(Response.Status.NOT_IMPLEMENTED,
+				"The metrics are exposed by each node: " + schema_name + "/" + index_name);
+	}
+
+	/**
+	 * The request is sent to all the nodes, each position takes the document found by one of them
+	 */
+	@Override
+	public MultiGetResult getDocuments(final String schema_name, final String index_name,
+			final MultiGetDefinition multiGet) {
+
+		final List<FunctionExceptionCatcher<MultiGetResult>> threads = new ArrayList<>(size());
+		for (IndexSingleClient client : this) {
+			threads.add(new FunctionExceptionCatcher<MultiGetResult>() {
+				@Override
+				public MultiGetResult execute() throws Exception {
+					return client.getDocuments(schema_name, index_name, multiGet);
+				}
+			});
+		}
+		try {
+			if (msTimeOut == null)
+				executor.invokeAll(threads);
+			else
+				executor.invokeAll(threads, msTimeOut, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw ServerException.getJsonException(e);
+		}
+
+		final WebAppExceptionHolder exceptionHolder = new WebAppExceptionHolder(logger);
+		final List<MultiGetResult.Document> documents = new ArrayList<>();
+		boolean answered = false;
+		for (FunctionExceptionCatcher<MultiGetResult> thread : threads) {
+			try {
+				thread.checkException();
+			} catch (WebApplicationException e) {
+				if (e.getResponse().getStatus() != 404)
+					exceptionHolder.switchAndWarn(e);
+				continue;
+			} catch (Exception e) {
+				logger.warn(e.getMessage(), e);
+				throw ServerException.getJsonException(e);
+			}
+			final MultiGetResult result = thread.getResult();
+			if (result == null)
+				continue; // No answer before the timeout
+			answered = true;
+			if (result.documents == null)
+				continue;
+			int pos = 0;
+			for (MultiGetResult.Document document : result.documents) {
+				if (pos == documents.size())
+					documents.add(document);
+				else if (!Boolean.TRUE.equals(documents.get(pos).found) && Boolean.TRUE.equals(document.found))
+					documents.set(pos, document);
+				pos++;
+			}
+		}
+		if (!answered) {
+			if (exceptionHolder.getException() != null)
+				throw exceptionHolder.getException();
+			throw new ServerException(Response.Status.GATEWAY_TIMEOUT,
+					"No node answered before the timeout: " + schema_name + "/" + index_name);
+		}
+		int found = 0;
+		for (MultiGetResult.Document document : documents)
+			if (Boolean.TRUE.equals(document.found))
+				found++;
+		return new MultiGetResult(found, documents);
+	}
+
 	@Override
 	public Response postMappedDocuments(String schema_name, String index_name,
 			Collection<Map<String, Object>> documents) {
@@ -180,6 +289,13 @@ public class IndexMultiClient extends JsonMultiClientAbstract<String, IndexSingl
 		return null;
 	}
 
+	@Override
+	public BulkStatus postMappedDocuments(String schema_name, String index_name, InputStream input,
+			Integer threads) {
+		throw new ServerException(Response.Status.NOT_IMPLEMENTED,
+				"The bulk indexing is sent to one node: " + schema_name + "/" + index_name);
+	}
+
 	@Override
 	public Response updateMappedDocValues(String schema_name, String index_name, Map<String, Object> document) {
 		return null;
@@ -199,14 +315,102 @@ public class IndexMultiClient extends JsonMultiClientAbstract<String, IndexSingl
 
 	@Override
 	public LinkedHashMap<String, Object> getDocument(String schema_name, String index_name, String doc_id) {
-		return null;
-	}
-
-	@Override
-	public ResultDefinition.WithMap searchQuery(String schema_name, String index_name, QueryDefinition query,
-			Boolean delete) {
-		// TODO Auto-generated method stub
-		return null;
+		WebAppExceptionHolder exceptionHolder = new WebAppExceptionHolder(logger);
+		for (IndexSingleClient client : this) {
+			try {
+				return client.getDocument(schema_name, index_name, doc_id);
+			} catch (WebApplicationException e) {
+				if (e.getResponse().getStatus() != 404)
+					exceptionHolder.switchAndWarn(e);
+			}
+		}
+		if (exceptionHolder.getException() != null)
+			throw exceptionHolder.getException();
+		throw new ServerException(Response.Status.NOT_FOUND, "Document not found: " + doc_id);
+	}
+
+	@Override
+	public ResultDefinition.WithMap searchQuery(final String schema_name, final String index_name,
+			final QueryDefinition query, final Boolean delete) {
+
+		if (query.cursor != null)
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+					"A cursor can't be used with a query sent to several nodes");
+
+		final TimeTracker timeTracker = new TimeTracker();
+		final boolean isDelete = delete != null && delete;
+		final QueryDefinition nodeQuery = isDelete ? query : ResultDefinitionMerger.getNodeQuery(query);
+
+		// Scatter: the query is sent to all the nodes in parallel
+		final List<FunctionExceptionCatcher<ResultDefinition.WithMap>> threads = new ArrayList<>(size());
+		for (IndexSingleClient client : this) {
+			threads.add(new FunctionExceptionCatcher<ResultDefinition.WithMap>() {
+				@Override
+				public ResultDefinition.WithMap execute() throws Exception {
+					return client.searchQuery(schema_name, index_name, nodeQuery, delete);
+				}
+			});
+		}
+		// The nodes enforce the timeout of the query: they are waited a bit longer, to gather their partial results
+		Long timeOut = msTimeOut == null ? null : msTimeOut.longValue();
+		if (query.timeout_ms != null && (timeOut == null || query.timeout_ms + NODE_TIMEOUT_MARGIN_MS < timeOut))
+			timeOut = query.timeout_ms + NODE_TIMEOUT_MARGIN_MS;
+		final List<Future<ResultDefinition.WithMap>> futures;
+		try {
+			futures = timeOut == null ?
+					executor.invokeAll(threads) :
+					executor.invokeAll(threads, timeOut, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw ServerException.getJsonException(e);
+		}
+		timeTracker.next("scatter");
+
+		// Gather: the nodes which did not answer in time are ignored (partial results), a failed node fails the query
+		final List<ResultDefinition.WithMap> results = new ArrayList<>(threads.size());
+		int timedOutNodes = 0;
+		for (int i = 0; i < threads.size(); i++) {
+			if (futures.get(i).isCancelled()) {
+				timedOutNodes++;
+				logger.warn("No result from one node before the timeout: " + schema_name + "/" + index_name);
+				continue;
+			}
+			final FunctionExceptionCatcher<ResultDefinition.WithMap> thread = threads.get(i);
+			try {
+				thread.checkException();
+			} catch (Exception e) {
+				logger.warn(e.getMessage(), e);
+				throw ServerException.getJsonException(e);
+			}
+			results.add(thread.getResult());
+		}
+		if (results.isEmpty())
+			throw new ServerException(Response.Status.GATEWAY_TIMEOUT,
+					"No node answered before the timeout: " + schema_name + "/" + index_name);
+
+		if (isDelete) {
+			long totalHits = 0;
+			for (ResultDefinition.WithMap result : results)
+				if (result.total_hits != null)
+					totalHits += result.total_hits;
+			return new ResultDefinition.WithMap(totalHits);
+		}
+		return new ResultDefinitionMerger(query, results, timedOutNodes > 0).merge(timeTracker);
+	}
+
+	/**
+	 * The documents exported by each node are concatenated
+	 */
+	@Override
+	public Response exportQuery(final String schema_name, final String index_name, final QueryDefinition query) {
+		final StreamingOutput streamingOutput = output -> {
+			for (IndexSingleClient client : this) {
+				final Response response = client.exportQuery(schema_name, index_name, query);
+				try (final InputStream input = (InputStream) response.getEntity()) {
+					IOUtils.copy(input, output);
+				}
+			}
+		};
+		return Response.ok(streamingOutput, APPLICATION_NDJSON_UTF8).build();
 	}
 
 }
@@ -25,8 +25,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.security.Principal;
 import java.util.*;
@@ -152,7 +155,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 	final public LinkedHashMap<String, FieldDefinition> getFields(final String schema_name, final String index_name) {
 		try {
 			checkRight(schema_name);
-			return IndexManager.INSTANCE.get(schema_name).get(index_name).getFields();
+			return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).getFields();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
 				logger.warn(e.getMessage(), e);
@@ -164,7 +167,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 	final public FieldDefinition getField(final String schema_name, final String index_name, final String field_name) {
 		try {
 			checkRight(schema_name);
-			Map<String, FieldDefinition> fieldMap = IndexManager.INSTANCE.get(schema_name).get(index_name).getFields();
+			Map<String, FieldDefinition> fieldMap = getFields(schema_name, index_name);
 			FieldDefinition fieldDef = (fieldMap != null) ? fieldMap.get(field_name) : null;
 			if (fieldDef == null)
 				throw new ServerException(Response.Status.NOT_FOUND, "Field not found: " + field_name);
@@ -180,7 +183,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final LinkedHashMap<String, FieldDefinition> fields) {
 		try {
 			checkRight(schema_name);
-			IndexManager.INSTANCE.get(schema_name).get(index_name).setFields(fields);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).setFields(fields);
 			return fields;
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -192,7 +195,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 	private List<TermDefinition> doAnalyzer(final String schema_name, final String index_name, final String field_name,
 			final String text, final boolean index) throws ServerException, IOException {
 		checkRight(schema_name);
-		IndexInstance indexInstance = IndexManager.INSTANCE.get(schema_name).get(index_name);
+		final IndexAbstract indexInstance = IndexManager.INSTANCE.get(schema_name).getIndex(index_name);
 		Analyzer analyzer = index ?
 				indexInstance.getIndexAnalyzer(field_name) :
 				indexInstance.getQueryAnalyzer(field_name);
@@ -230,7 +233,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final FieldDefinition field) {
 		try {
 			checkRight(schema_name);
-			IndexManager.INSTANCE.get(schema_name).get(index_name).setField(field_name, field);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).setField(field_name, field);
 			return field;
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -243,7 +246,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 	final public Response deleteField(final String schema_name, final String index_name, final String field_name) {
 		try {
 			checkRight(schema_name);
-			IndexManager.INSTANCE.get(schema_name).get(index_name).deleteField(field_name);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).deleteField(field_name);
 			return Response.ok().build();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -257,7 +260,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final String index_name) {
 		try {
 			checkRight(schema_name);
-			return IndexManager.INSTANCE.get(schema_name).get(index_name).getAnalyzers();
+			return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).getAnalyzers();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
 				logger.warn(e.getMessage(), e);
@@ -270,8 +273,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final String analyzer_name) {
 		try {
 			checkRight(schema_name);
-			Map<String, AnalyzerDefinition> analyzerMap = IndexManager.INSTANCE.get(schema_name).get(index_name)
-					.getAnalyzers();
+			Map<String, AnalyzerDefinition> analyzerMap = getAnalyzers(schema_name, index_name);
 			AnalyzerDefinition analyzerDef = (analyzerMap != null) ? analyzerMap.get(analyzer_name) : null;
 			if (analyzerDef == null)
 				throw new ServerException(Response.Status.NOT_FOUND, "Analyzer not found: " + analyzer_name);
@@ -288,7 +290,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final String analyzer_name, AnalyzerDefinition analyzer) {
 		try {
 			checkRight(schema_name);
-			IndexManager.INSTANCE.get(schema_name).get(index_name).setAnalyzer(analyzer_name, analyzer);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).setAnalyzer(analyzer_name, analyzer);
 			return analyzer;
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -301,7 +303,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final String index_name, final LinkedHashMap<String, AnalyzerDefinition> analyzers) {
 		try {
 			checkRight(schema_name);
-			IndexManager.INSTANCE.get(schema_name).get(index_name).setAnalyzers(analyzers);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).setAnalyzers(analyzers);
 			return analyzers;
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -315,7 +317,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final String analyzer_name) {
 		try {
 			checkRight(schema_name);
-			IndexManager.INSTANCE.get(schema_name).get(index_name).deleteAnalyzer(analyzer_name);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).deleteAnalyzer(analyzer_name);
 			return Response.ok().build();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -329,7 +331,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			final String analyzer_name, final String text) {
 		try {
 			checkRight(schema_name);
-			return IndexManager.INSTANCE.get(schema_name).get(index_name).testAnalyzer(analyzer_name, text);
+			return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).testAnalyzer(analyzer_name, text);
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
 				logger.warn(e.getMessage(), e);
@@ -341,7 +343,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 	final public IndexStatus getIndex(final String schema_name, final String index_name) {
 		try {
 			checkRight(schema_name);
-			return IndexManager.INSTANCE.get(schema_name).get(index_name).getStatus();
+			return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).getStatus();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
 				logger.warn(e.getMessage(), e);
@@ -369,7 +371,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			checkRight(schema_name);
 			if (document == null || document.isEmpty())
 				return Response.notModified().build();
-			IndexManager.INSTANCE.get(schema_name).get(index_name).postMappedDocument(document);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).postMappedDocument(document);
 			return Response.ok().build();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -385,7 +387,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			checkRight(schema_name);
 			if (documents == null || documents.isEmpty())
 				return Response.notModified().build();
-			IndexManager.INSTANCE.get(schema_name).get(index_name).postMappedDocuments(documents);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).postMappedDocuments(documents);
 			return Response.ok().build();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -394,13 +396,26 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		}
 	}
 
+	@Override
+	final public BulkStatus postMappedDocuments(final String schema_name, final String index_name,
+			final InputStream input, final Integer threads) {
+		try {
+			checkRight(schema_name);
+			return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).postMappedDocuments(input, threads);
+		} catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(e.getMessage(), e);
+			throw ServerException.getJsonException(e);
+		}
+	}
+
 	@Override
 	final public <T> Object postDocument(final String schemaName, final String indexName,
 			final Map<String, Field> fields, final T document) throws IOException, InterruptedException {
 		checkRight(schemaName);
 		if (document == null)
 			return null;
-		return IndexManager.INSTANCE.get(schemaName).get(indexName).postDocument(fields, document);
+		return IndexManager.INSTANCE.get(schemaName).getIndex(indexName).postDocument(fields, document);
 	}
 
 	@Override
@@ -409,7 +424,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		checkRight(schemaName);
 		if (documents == null || documents.isEmpty())
 			return null;
-		return IndexManager.INSTANCE.get(schemaName).get(indexName).postDocuments(fields, documents);
+		return IndexManager.INSTANCE.get(schemaName).getIndex(indexName).postDocuments(fields, documents);
 	}
 
 	@Override
@@ -419,7 +434,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			checkRight(schema_name);
 			if (document == null || document.isEmpty())
 				return Response.notModified().build();
-			IndexManager.INSTANCE.get(schema_name).get(index_name).updateMappedDocValues(document);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).updateMappedDocValues(document);
 			return Response.ok().build();
 		} catch (Exception e) {
 			logger.warn(e.getMessage(), e);
@@ -434,7 +449,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			checkRight(schema_name);
 			if (documents == null || documents.isEmpty())
 				return Response.notModified().build();
-			IndexManager.INSTANCE.get(schema_name).get(index_name).updateMappedDocsValues(documents);
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).updateMappedDocsValues(documents);
 			return Response.ok().build();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -449,7 +464,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		checkRight(schemaName);
 		if (document == null)
 			return;
-		IndexManager.INSTANCE.get(schemaName).get(indexName).updateDocValues(fields, document);
+		IndexManager.INSTANCE.get(schemaName).getIndex(indexName).updateDocValues(fields, document);
 	}
 
 	@Override
@@ -458,7 +473,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		checkRight(schemaName);
 		if (documents == null || documents.isEmpty())
 			return;
-		IndexManager.INSTANCE.get(schemaName).get(indexName).updateDocsValues(fields, documents);
+		IndexManager.INSTANCE.get(schemaName).getIndex(indexName).updateDocsValues(fields, documents);
 	}
 
 	@Override
@@ -470,7 +485,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 				IndexManager.INSTANCE.backups(keep_last_count);
 				return new BackupStatus();
 			} else
-				return IndexManager.INSTANCE.get(schema_name).get(index_name).backup(keep_last_count);
+				return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).backup(keep_last_count);
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
 				logger.warn(e.getMessage(), e);
@@ -490,11 +505,63 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		}
 	}
 
+	@Override
+	final public ReplicationStatus getReplicationStatus(final String schema_name, final String index_name,
+			final String replica_id) {
+		try {
+			checkRight(null);
+			return IndexManager.INSTANCE.get(schema_name).get(index_name).getReplicationStatus(replica_id);
+		} catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(e.getMessage(), e);
+			throw ServerException.getJsonException(e);
+		}
+	}
+
+	@Override
+	final public Response getReplicationFile(final String schema_name, final String index_name,
+			final String replica_id, final String file_name) {
+		try {
+			checkRight(null);
+			final InputStream input =
+					IndexManager.INSTANCE.get(schema_name).get(index_name).getReplicationFile(replica_id, file_name);
+			return Response.ok(input, MediaType.APPLICATION_OCTET_STREAM).build();
+		} catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(e.getMessage(), e);
+			throw ServerException.getJsonException(e);
+		}
+	}
+
+	@Override
+	final public ReplicationStatus replicate(final String schema_name, final String index_name) {
+		try {
+			checkRight(null);
+			return IndexManager.INSTANCE.get(schema_name).get(index_name).replicate();
+		} catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(e.getMessage(), e);
+			throw ServerException.getJsonException(e);
+		}
+	}
+
+	@Override
+	final public String getMetrics(final String schema_name, final String index_name) {
+		try {
+			checkRight(schema_name);
+			return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).getMetrics();
+		} catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(e.getMessage(), e);
+			throw ServerException.getJsonException(e);
+		}
+	}
+
 	@Override
 	final public Response deleteAll(final String schema_name, final String index_name) {
 		try {
 			checkRight(schema_name);
-			IndexManager.INSTANCE.get(schema_name).get(index_name).deleteAll();
+			IndexManager.INSTANCE.get(schema_name).getIndex(index_name).deleteAll();
 			return Response.ok().build();
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -503,11 +570,10 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		}
 	}
 
-	private QueryDefinition getDocumentQuery(IndexInstance index, Object id) {
+	private QueryDefinition getDocumentQuery(Map<String, FieldDefinition> fields, Object id) {
 		QueryBuilder builder = new QueryBuilder();
 		builder.setQuery(new TermQuery(FieldDefinition.ID_FIELD, BytesRefUtils.fromAny(id)));
 		builder.setRows(1);
-		Map<String, FieldDefinition> fields = index.getFields();
 		if (fields != null)
 			builder.addReturned_field(fields.keySet());
 		return builder.build();
@@ -517,9 +583,9 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 	final public Map<String, Object> getDocument(final String schema_name, final String index_name, final String id) {
 		try {
 			checkRight(schema_name);
-			IndexInstance index = IndexManager.INSTANCE.get(schema_name).get(index_name);
-			ResultDefinition result = index
-					.search(getDocumentQuery(index, id), ResultDocumentBuilder.MapBuilderFactory.INSTANCE);
+			final IndexAbstract index = IndexManager.INSTANCE.get(schema_name).getIndex(index_name);
+			final ResultDefinition result = index.search(getDocumentQuery(index.getFields(), id),
+					ResultDocumentBuilder.MapBuilderFactory.INSTANCE);
 			if (result != null) {
 				List<ResultDocumentMap> docs = result.getDocuments();
 				if (docs != null && !docs.isEmpty())
@@ -533,14 +599,31 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		}
 	}
 
+	@Override
+	final public MultiGetResult getDocuments(final String schema_name, final String index_name,
+			final MultiGetDefinition multiGet) {
+		try {
+			checkRight(schema_name);
+			if (multiGet == null)
+				throw new ServerException(Response.Status.BAD_REQUEST, "The identifiers are missing");
+			return IndexManager.INSTANCE.get(schema_name).getIndex(index_name).multiGet(multiGet);
+		} catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(e.getMessage(), e);
+			throw ServerException.getJsonException(e);
+		}
+	}
+
 	@Override
 	final public <T> T getDocument(String schemaName, String indexName, String id, Map<String, Field> fields,
 			Class<T> indexDefinitionClass) {
 		try {
 			checkRight(schemaName);
-			final IndexInstance index = IndexManager.INSTANCE.get(schemaName).get(indexName);
-			ResultDefinition result = index.search(getDocumentQuery(index, id),
-					ResultDocumentBuilder.ObjectBuilderFactory.createFactory(fields, indexDefinitionClass));
+			final IndexAbstract index = IndexManager.INSTANCE.get(schemaName).getIndex(indexName);
+			final ResultDocumentBuilder.ObjectBuilderFactory documentBuilderFactory =
+					ResultDocumentBuilder.ObjectBuilderFactory.createFactory(fields, indexDefinitionClass);
+			final ResultDefinition result =
+					index.search(getDocumentQuery(index.getFields(), id), documentBuilderFactory);
 			if (result == null)
 				return null;
 			List<ResultDocumentObject<T>> docs = result.getDocuments();
@@ -562,7 +645,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			if ("*".equals(index_name))
 				return (ResultDefinition.WithMap) IndexManager.INSTANCE.get(schema_name)
 						.search(query, ResultDocumentBuilder.MapBuilderFactory.INSTANCE);
-			IndexInstance index = IndexManager.INSTANCE.get(schema_name).get(index_name);
+			IndexAbstract index = IndexManager.INSTANCE.get(schema_name).getIndex(index_name);
 			if (delete != null && delete)
 				return index.deleteByQuery(query);
 			else
@@ -574,6 +657,31 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 		}
 	}
 
+	@Override
+	final public Response exportQuery(final String schema_name, final String index_name,
+			final QueryDefinition query) {
+		try {
+			checkRight(schema_name);
+			final IndexAbstract index = IndexManager.INSTANCE.get(schema_name).getIndex(index_name);
+			final StreamingOutput streamingOutput = output -> {
+				try {
+					index.export(query, output);
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					if (logger.isWarnEnabled())
+						logger.warn(e.getMessage(), e);
+					throw ServerException.getJsonException(e);
+				}
+			};
+			return Response.ok(streamingOutput, APPLICATION_NDJSON_UTF8).build();
+		} catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(e.getMessage(), e);
+			throw ServerException.getJsonException(e);
+		}
+	}
+
 	@Override
 	final public <T> ResultDefinition.WithObject<T> searchQuery(final String schema_name, final String index_name,
 			final QueryDefinition query, final Map<String, Field> fields, final Class<T> indexDefinitionClass) {
@@ -584,7 +692,7 @@ class IndexServiceImpl implements IndexServiceInterface, AnnotatedServiceInterfa
 			if ("*".equals(index_name))
 				return (ResultDefinition.WithObject<T>) IndexManager.INSTANCE.get(schema_name)
 						.search(query, documentBuilerFactory);
-			IndexInstance index = IndexManager.INSTANCE.get(schema_name).get(index_name);
+			IndexAbstract index = IndexManager.INSTANCE.get(schema_name).getIndex(index_name);
 			return (ResultDefinition.WithObject<T>) index.search(query, documentBuilerFactory);
 		} catch (Exception e) {
 			if (logger.isWarnEnabled())
@@ -25,6 +25,7 @@ import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.*;
 
@@ -33,6 +34,10 @@ import java.util.*;
 @ServiceName(IndexManager.SERVICE_NAME_SEARCH)
 public interface IndexServiceInterface extends ServiceInterface {
 
+	String APPLICATION_NDJSON_UTF8 = "application/x-ndjson; charset=UTF-8";
+
+	String TEXT_PLAIN_METRICS = "text/plain; version=0.0.4; charset=utf-8";
+
 	@POST
 	@Path("/{schema_name}")
 	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
@@ -174,35 +179,49 @@ public interface IndexServiceInterface extends ServiceInterface {
 
 	@GET
 	@Path("/{schema_name}/{index_name}/doc/{id}")
-	@Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
-	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+	@Consumes({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
+	@Produces({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
 	Map<String, Object> getDocument(@PathParam("schema_name") String schema_name,
 			@PathParam("index_name") String index_name, @PathParam("id") String doc_id);
 
+	@POST
+	@Path("/{schema_name}/{index_name}/mget")
+	@Consumes({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
+	@Produces({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
+	MultiGetResult getDocuments(@PathParam("schema_name") String schema_name,
+			@PathParam("index_name") String index_name, MultiGetDefinition multiGet);
+
 	@POST
 	@Path("/{schema_name}/{index_name}/doc")
-	@Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+	@Consumes({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
 	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
 	Response postMappedDocument(@PathParam("schema_name") String schema_name,
 			@PathParam("index_name") String index_name, Map<String, Object> document);
 
 	@POST
 	@Path("/{schema_name}/{index_name}/docs")
-	@Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+	@Consumes({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
 	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
 	Response postMappedDocuments(@PathParam("schema_name") String schema_name,
 			@PathParam("index_name") String index_name, Collection<Map<String, Object>> documents);
 
+	@POST
+	@Path("/{schema_name}/{index_name}/docs/bulk")
+	@Consumes(APPLICATION_NDJSON_UTF8)
+	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+	BulkStatus postMappedDocuments(@PathParam("schema_name") String schema_name,
+			@PathParam("index_name") String index_name, InputStream input, @QueryParam("threads") Integer threads);
+
 	@POST
 	@Path("/{schema_name}/{index_name}/doc/values")
-	@Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+	@Consumes({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
 	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
 	Response updateMappedDocValues(@PathParam("schema_name") String schema_name,
 			@PathParam("index_name") String index_name, Map<String, Object> document);
 
 	@POST
 	@Path("/{schema_name}/{index_name}/docs/values")
-	@Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+	@Consumes({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
 	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
 	Response updateMappedDocsValues(@PathParam("schema_name") String schema_name,
 			@PathParam("index_name") String index_name, Collection<Map<String, Object>> documents);
@@ -219,13 +238,44 @@ public interface IndexServiceInterface extends ServiceInterface {
 	List<BackupStatus> getBackups(@PathParam("schema_name") String schema_name,
 			@PathParam("index_name") String index_name);
 
+	@GET
+	@Path("/{schema_name}/{index_name}/replication")
+	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+	ReplicationStatus getReplicationStatus(@PathParam("schema_name") String schema_name,
+			@PathParam("index_name") String index_name, @QueryParam("replica") String replica_id);
+
+	@GET
+	@Path("/{schema_name}/{index_name}/replication/{file_name}")
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	Response getReplicationFile(@PathParam("schema_name") String schema_name,
+			@PathParam("index_name") String index_name, @QueryParam("replica") String replica_id,
+			@PathParam("file_name") String file_name);
+
 	@POST
-	@Path("/{schema_name}/{index_name}/search")
-	@Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+	@Path("/{schema_name}/{index_name}/replication")
 	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+	ReplicationStatus replicate(@PathParam("schema_name") String schema_name,
+			@PathParam("index_name") String index_name);
+
+	@GET
+	@Path("/{schema_name}/{index_name}/metrics")
+	@Produces(TEXT_PLAIN_METRICS)
+	String getMetrics(@PathParam("schema_name") String schema_name, @PathParam("index_name") String index_name);
+
+	@POST
+	@Path("/{schema_name}/{index_name}/search")
+	@Consumes({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
+	@Produces({ ServiceInterface.APPLICATION_JSON_UTF8, ServiceInterface.APPLICATION_SMILE })
 	ResultDefinition.WithMap searchQuery(@PathParam("schema_name") String schema_name,
 			@PathParam("index_name") String index_name, QueryDefinition query, @QueryParam("delete") Boolean delete);
 
+	@POST
+	@Path("/{schema_name}/{index_name}/export")
+	@Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+	@Produces(APPLICATION_NDJSON_UTF8)
+	Response exportQuery(@PathParam("schema_name") String schema_name, @PathParam("index_name") String index_name,
+			QueryDefinition query);
+
 	public static IndexServiceInterface getClient(Boolean local, String group, Integer msTimeout)
 			throws URISyntaxException {
 		if (local != null && local)
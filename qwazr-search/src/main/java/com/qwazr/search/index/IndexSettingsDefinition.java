@@ -15,23 +15,186 @@
  */
 package com.qwazr.search.index;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.qwazr.utils.StringUtils;
 import com.qwazr.utils.json.JsonMapper;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 public class IndexSettingsDefinition {
 
 	final public String similarity_class;
 
+	/**
+	 * When set, the writes are not committed on each request. A background task
+	 * commits the pending changes with this period (in milliseconds).
+	 */
+	final public Integer commit_interval_ms;
+
+	/**
+	 * The period (in milliseconds) of the near-real-time refresh of the searcher.
+	 * Only used when commit_interval_ms is set. If not set, the searcher is refreshed after each commit.
+	 */
+	final public Integer refresh_interval_ms;
+
+	/**
+	 * The maximum number of uncommitted documents before the commit is forced.
+	 * Only used when commit_interval_ms is set.
+	 */
+	final public Integer max_uncommitted_docs;
+
+	/**
+	 * The maximum number of query results kept in the result cache. The cache is disabled if not set.
+	 */
+	final public Integer result_cache_max_entries;
+
+	/**
+	 * The maximum size (in bytes, estimated from the returned values) of the query results kept in the result cache.
+	 */
+	final public Long result_cache_max_bytes;
+
+	/**
+	 * When true, the segments are searched in parallel by the search threads of the server (one per processor).
+	 */
+	final public Boolean parallel_search;
+
+	/**
+	 * The order of the documents in the merged segments. A query sorted by a prefix of this sort, which does not
+	 * require the total number of hits, stops collecting a sorted segment once the requested rows are collected.
+	 */
+	final public LinkedHashMap<String, QueryDefinition.SortEnum> index_sort;
+
+	/**
+	 * The URL of the master index (http://host:port/indexes/{schema_name}/{index_name}). When set, the index is a
+	 * read-only replica which copies the segments of the last commit of the master.
+	 */
+	final public String replication_master;
+
+	/**
+	 * The period (in milliseconds) of the replication. If not set, the replication is only done on request.
+	 */
+	final public Integer replication_interval_ms;
+
+	/**
+	 * The number of threads copying the files which can't be hard-linked during a backup. The default is 2.
+	 */
+	final public Integer backup_copy_threads;
+
+	/**
+	 * The maximum throughput (in MB per second) of the file copies during a backup. Unlimited if not set.
+	 */
+	final public Double backup_max_mb_per_sec;
+
+	/**
+	 * The queries executed on a new searcher before it is published, once the index has been refreshed. They load
+	 * the doc values, the norms and the facets state used by the next queries.
+	 */
+	final public List<QueryDefinition> warmup_queries;
+
+	/**
+	 * The maximum number of built Lucene queries and sorts kept in the query plan cache. The default is 1000,
+	 * zero disables the cache.
+	 */
+	final public Integer query_cache_max_entries;
+
+	/**
+	 * The number of physical indexes (shards) of a sharded index. A document is stored in one shard, selected by
+	 * hashing its identifier. The number of shards of an existing index cannot be changed.
+	 */
+	final public Integer shards;
+
 	public IndexSettingsDefinition() {
 		similarity_class = null;
+		commit_interval_ms = null;
+		refresh_interval_ms = null;
+		max_uncommitted_docs = null;
+		result_cache_max_entries = null;
+		result_cache_max_bytes = null;
+		parallel_search = null;
+		index_sort = null;
+		replication_master = null;
+		replication_interval_ms = null;
+		backup_copy_threads = null;
+		backup_max_mb_per_sec = null;
+		warmup_queries = null;
+		query_cache_max_entries = null;
+		shards = null;
 	}
 
 	public IndexSettingsDefinition(String similarity_class) {
 		this.similarity_class = similarity_class;
+		commit_interval_ms = null;
+		refresh_interval_ms = null;
+		max_uncommitted_docs = null;
+		result_cache_max_entries = null;
+		result_cache_max_bytes = null;
+		parallel_search = null;
+		index_sort = null;
+		replication_master = null;
+		replication_interval_ms = null;
+		backup_copy_threads = null;
+		backup_max_mb_per_sec = null;
+		warmup_queries = null;
+		query_cache_max_entries = null;
+		shards = null;
+	}
+
+	private IndexSettingsDefinition(Builder builder) {
+		similarity_class = builder.similarity_class;
+		commit_interval_ms = builder.commit_interval_ms;
+		refresh_interval_ms = builder.refresh_interval_ms;
+		max_uncommitted_docs = builder.max_uncommitted_docs;
+		result_cache_max_entries = builder.result_cache_max_entries;
+		result_cache_max_bytes = builder.result_cache_max_bytes;
+		parallel_search = builder.parallel_search;
+		index_sort = builder.index_sort;
+		replication_master = builder.replication_master;
+		replication_interval_ms = builder.replication_interval_ms;
+		backup_copy_threads = builder.backup_copy_threads;
+		backup_max_mb_per_sec = builder.backup_max_mb_per_sec;
+		warmup_queries = builder.warmup_queries;
+		query_cache_max_entries = builder.query_cache_max_entries;
+		shards = builder.shards;
+	}
+
+	@JsonIgnore
+	final boolean isGroupCommit() {
+		return commit_interval_ms != null && commit_interval_ms > 0;
+	}
+
+	@JsonIgnore
+	final boolean isResultCache() {
+		return result_cache_max_entries != null && result_cache_max_entries > 0;
+	}
+
+	@JsonIgnore
+	final boolean isParallelSearch() {
+		return parallel_search != null && parallel_search;
+	}
+
+	@JsonIgnore
+	final boolean isWarmup() {
+		return warmup_queries != null && !warmup_queries.isEmpty();
+	}
+
+	@JsonIgnore
+	final boolean isReplica() {
+		return replication_master != null && !replication_master.isEmpty();
+	}
+
+	@JsonIgnore
+	final boolean isSharded() {
+		return shards != null && shards > 1;
+	}
+
+	@JsonIgnore
+	final int getQueryCacheMaxEntries() {
+		return query_cache_max_entries == null ? 1000 : query_cache_max_entries;
 	}
 
 	final static IndexSettingsDefinition EMPTY = new IndexSettingsDefinition();
@@ -42,4 +205,110 @@ public class IndexSettingsDefinition {
 		return JsonMapper.MAPPER.readValue(jsonString, IndexSettingsDefinition.class);
 	}
 
+	public final static Builder builder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+
+		private String similarity_class = null;
+		private Integer commit_interval_ms = null;
+		private Integer refresh_interval_ms = null;
+		private Integer max_uncommitted_docs = null;
+		private Integer result_cache_max_entries = null;
+		private Long result_cache_max_bytes = null;
+		private Boolean parallel_search = null;
+		private LinkedHashMap<String, QueryDefinition.SortEnum> index_sort = null;
+		private String replication_master = null;
+		private Integer replication_interval_ms = null;
+		private Integer backup_copy_threads = null;
+		private Double backup_max_mb_per_sec = null;
+		private List<QueryDefinition> warmup_queries = null;
+		private Integer query_cache_max_entries = null;
+		private Integer shards = null;
+
+		public Builder setSimilarityClass(String similarity_class) {
+			this.similarity_class = similarity_class;
+			return this;
+		}
+
+		public Builder setCommitIntervalMs(Integer commit_interval_ms) {
+			this.commit_interval_ms = commit_interval_ms;
+			return this;
+		}
+
+		public Builder setRefreshIntervalMs(Integer refresh_interval_ms) {
+			this.refresh_interval_ms = refresh_interval_ms;
+			return this;
+		}
+
+		public Builder setMaxUncommittedDocs(Integer max_uncommitted_docs) {
+			this.max_uncommitted_docs = max_uncommitted_docs;
+			return this;
+		}
+
+		public Builder setResultCacheMaxEntries(Integer result_cache_max_entries) {
+			this.result_cache_max_entries = result_cache_max_entries;
+			return this;
+		}
+
+		public Builder setResultCacheMaxBytes(Long result_cache_max_bytes) {
+			this.result_cache_max_bytes = result_cache_max_bytes;
+			return this;
+		}
+
+		public Builder setParallelSearch(Boolean parallel_search) {
+			this.parallel_search = parallel_search;
+			return this;
+		}
+
+		public Builder addIndexSort(String field, QueryDefinition.SortEnum sortEnum) {
+			if (index_sort == null)
+				index_sort = new LinkedHashMap<>();
+			index_sort.put(field, sortEnum);
+			return this;
+		}
+
+		public Builder setReplicationMaster(String replication_master) {
+			this.replication_master = replication_master;
+			return this;
+		}
+
+		public Builder setReplicationIntervalMs(Integer replication_interval_ms) {
+			this.replication_interval_ms = replication_interval_ms;
+			return this;
+		}
+
+		public Builder setBackupCopyThreads(Integer backup_copy_threads) {
+			this.backup_copy_threads = backup_copy_threads;
+			return this;
+		}
+
+		public Builder setBackupMaxMbPerSec(Double backup_max_mb_per_sec) {
+			this.backup_max_mb_per_sec = backup_max_mb_per_sec;
+			return this;
+		}
+
+		public Builder addWarmupQuery(QueryDefinition query) {
+			if (warmup_queries == null)
+				warmup_queries = new ArrayList<>();
+			warmup_queries.add(query);
+			return this;
+		}
+
+		public Builder setQueryCacheMaxEntries(Integer query_cache_max_entries) {
+			this.query_cache_max_entries = query_cache_max_entries;
+			return this;
+		}
+
+		public Builder setShards(Integer shards) {
+			this.shards = shards;
+			return this;
+		}
+
+		public IndexSettingsDefinition build() {
+			return new IndexSettingsDefinition(this);
+		}
+	}
+
 }
@@ -18,28 +18,54 @@ package com.qwazr.search.index;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.qwazr.search.analysis.AnalyzerDefinition;
 import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.utils.IOUtils;
 import com.qwazr.utils.http.HttpResponseEntityException;
 import com.qwazr.utils.http.HttpUtils;
+import com.qwazr.utils.json.DataFormat;
 import com.qwazr.utils.json.client.JsonClientAbstract;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.Credentials;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class IndexSingleClient extends JsonClientAbstract implements IndexServiceInterface {
 
+	// The format of the documents and of the search results
+	private final DataFormat format;
+
 	public IndexSingleClient(String url, int msTimeOut) throws URISyntaxException {
-		super(url, msTimeOut);
+		this(url, msTimeOut, null, DataFormat.JSON);
 	}
 
 	public IndexSingleClient(String url, int msTimeOut, Credentials credentials) throws URISyntaxException {
+		this(url, msTimeOut, credentials, DataFormat.JSON);
+	}
+
+	/**
+	 * @param url         the URL of the service
+	 * @param msTimeOut   the timeout in milliseconds
+	 * @param credentials optional credentials
+	 * @param format      the format used to post the documents, and to read the documents and the search results.
+	 *                    The binary Smile format is cheaper to encode and to decode than JSON.
+	 * @throws URISyntaxException if the URL is not valid
+	 */
+	public IndexSingleClient(String url, int msTimeOut, Credentials credentials, DataFormat format)
+			throws URISyntaxException {
 		super(url, msTimeOut, credentials);
+		this.format = format == null ? DataFormat.JSON : format;
 	}
 
 	public final static TypeReference<Set<String>> SetStringTypeRef = new TypeReference<Set<String>>() {
@@ -243,7 +269,7 @@ public class IndexSingleClient extends JsonClientAbstract implements IndexServic
 		try {
 			UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/doc");
 			Request request = Request.Post(uriBuilder.build());
-			HttpResponse response = execute(request, document, null);
+			HttpResponse response = execute(request, document, null, format);
 			HttpUtils.checkStatusCodes(response, 200);
 			return Response.status(response.getStatusLine().getStatusCode()).build();
 		} catch (HttpResponseEntityException e) {
@@ -271,6 +297,78 @@ public class IndexSingleClient extends JsonClientAbstract implements IndexServic
 		return commonServiceRequest(request, null, null, ListBackupStatusTypeRef, 200);
 	}
 
+	@Override
+	public ReplicationStatus getReplicationStatus(String schema_name, String index_name, String replica_id) {
+		UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/replication")
+				.setParameterObject("replica", replica_id);
+		Request request = Request.Get(uriBuilder.build());
+		return commonServiceRequest(request, null, null, ReplicationStatus.class, 200);
+	}
+
+	/**
+	 * The file is downloaded when the entity of the response is written, it is not buffered in memory
+	 */
+	@Override
+	public Response getReplicationFile(String schema_name, String index_name, String replica_id,
+			String file_name) {
+		final StreamingOutput streamingOutput =
+				output -> getReplicationFile(schema_name, index_name, replica_id, file_name, response -> {
+					HttpUtils.checkStatusCodes(response, 200);
+					try (final InputStream input = response.getEntity().getContent()) {
+						IOUtils.copy(input, output);
+					}
+					return null;
+				});
+		return Response.ok(streamingOutput, MediaType.APPLICATION_OCTET_STREAM).build();
+	}
+
+	/**
+	 * Download a file of the replicated commit point without buffering it in memory
+	 *
+	 * @param schema_name     the name of the schema
+	 * @param index_name      the name of the index
+	 * @param replica_id      the identifier of the replica
+	 * @param file_name       the name of the file
+	 * @param responseHandler the handler which reads the content of the file
+	 * @param <T>             the type returned by the handler
+	 * @return the value returned by the handler
+	 * @throws IOException if any I/O error occurs
+	 */
+	public <T> T getReplicationFile(String schema_name, String index_name, String replica_id, String file_name,
+			ResponseHandler<T> responseHandler) throws IOException {
+		return execute(getReplicationFileRequest(schema_name, index_name, replica_id, file_name), null, null,
+				responseHandler);
+	}
+
+	private Request getReplicationFileRequest(String schema_name, String index_name, String replica_id,
+			String file_name) {
+		UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/replication/", file_name)
+				.setParameterObject("replica", replica_id);
+		return Request.Get(uriBuilder.build());
+	}
+
+	@Override
+	public ReplicationStatus replicate(String schema_name, String index_name) {
+		UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/replication");
+		Request request = Request.Post(uriBuilder.build());
+		return commonServiceRequest(request, null, null, ReplicationStatus.class, 200);
+	}
+
+	@Override
+	public String getMetrics(String schema_name, String index_name) {
+		try {
+			UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/metrics");
+			Request request = Request.Get(uriBuilder.build());
+			HttpResponse response = execute(request, null, null);
+			HttpUtils.checkStatusCodes(response, 200);
+			return EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+		} catch (HttpResponseEntityException e) {
+			throw e.getWebApplicationException();
+		} catch (IOException e) {
+			throw new WebApplicationException(e.getMessage(), e, Status.INTERNAL_SERVER_ERROR);
+		}
+	}
+
 	public final static TypeReference<Collection<Map<String, Object>>> CollectionMapStringObjectTypeRef = new TypeReference<Collection<Map<String, Object>>>() {
 	};
 
@@ -280,7 +378,7 @@ public class IndexSingleClient extends JsonClientAbstract implements IndexServic
 		try {
 			UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/docs");
 			Request request = Request.Post(uriBuilder.build());
-			HttpResponse response = execute(request, documents, null);
+			HttpResponse response = execute(request, documents, null, format);
 			HttpUtils.checkStatusCodes(response, 200);
 			return Response.status(response.getStatusLine().getStatusCode()).build();
 		} catch (HttpResponseEntityException e) {
@@ -290,12 +388,23 @@ public class IndexSingleClient extends JsonClientAbstract implements IndexServic
 		}
 	}
 
+	@Override
+	public BulkStatus postMappedDocuments(String schema_name, String index_name, InputStream input,
+			Integer threads) {
+		final UBuilder uriBuilder =
+				new UBuilder("/indexes/", schema_name, "/", index_name, "/docs/bulk").setParameterObject("threads",
+						threads);
+		Request request = Request.Post(uriBuilder.build())
+				.bodyStream(input, ContentType.create("application/x-ndjson", StandardCharsets.UTF_8));
+		return commonServiceRequest(request, null, null, BulkStatus.class, 200);
+	}
+
 	@Override
 	public Response updateMappedDocValues(String schema_name, String index_name, Map<String, Object> document) {
 		try {
 			UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/doc/values");
 			Request request = Request.Post(uriBuilder.build());
-			HttpResponse response = execute(request, document, null);
+			HttpResponse response = execute(request, document, null, format);
 			HttpUtils.checkStatusCodes(response, 200);
 			return Response.status(response.getStatusLine().getStatusCode()).build();
 		} catch (HttpResponseEntityException e) {
@@ -311,7 +420,7 @@ public class IndexSingleClient extends JsonClientAbstract implements IndexServic
 		try {
 			UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/docs/values");
 			Request request = Request.Post(uriBuilder.build());
-			HttpResponse response = execute(request, documents, null);
+			HttpResponse response = execute(request, documents, null, format);
 			HttpUtils.checkStatusCodes(response, 200);
 			return Response.status(response.getStatusLine().getStatusCode()).build();
 		} catch (HttpResponseEntityException e) {
@@ -343,7 +452,14 @@ public class IndexSingleClient extends JsonClientAbstract implements IndexServic
 	public LinkedHashMap<String, Object> getDocument(String schema_name, String index_name, String doc_id) {
 		final UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/doc/", doc_id);
 		Request request = Request.Get(uriBuilder.build());
-		return commonServiceRequest(request, null, null, MapStringObjectTypeRef, 200);
+		return commonServiceRequest(request, null, null, format, MapStringObjectTypeRef, 200);
+	}
+
+	@Override
+	public MultiGetResult getDocuments(String schema_name, String index_name, MultiGetDefinition multiGet) {
+		final UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/mget");
+		Request request = Request.Post(uriBuilder.build());
+		return commonServiceRequest(request, multiGet, null, format, MultiGetResult.class, 200);
 	}
 
 	@Override
@@ -352,7 +468,23 @@ public class IndexSingleClient extends JsonClientAbstract implements IndexServic
 		final UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/search")
 				.setParameterObject("delete", delete);
 		Request request = Request.Post(uriBuilder.build());
-		return commonServiceRequest(request, query, null, ResultDefinition.WithMap.class, 200);
+		return commonServiceRequest(request, query, null, format, ResultDefinition.WithMap.class, 200);
+	}
+
+	@Override
+	public Response exportQuery(String schema_name, String index_name, QueryDefinition query) {
+		try {
+			final UBuilder uriBuilder = new UBuilder("/indexes/", schema_name, "/", index_name, "/export");
+			Request request = Request.Post(uriBuilder.build());
+			HttpResponse response = execute(request, query, null);
+			HttpUtils.checkStatusCodes(response, 200);
+			return Response.status(response.getStatusLine().getStatusCode())
+					.entity(response.getEntity().getContent()).type(APPLICATION_NDJSON_UTF8).build();
+		} catch (HttpResponseEntityException e) {
+			throw e.getWebApplicationException();
+		} catch (IOException e) {
+			throw new WebApplicationException(e.getMessage(), e, Status.INTERNAL_SERVER_ERROR);
+		}
 	}
 
 }
@@ -19,6 +19,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import org.apache.lucene.index.IndexReader;
 
+import java.util.Map;
 import java.util.Set;
 
 @JsonInclude(Include.NON_EMPTY)
@@ -29,6 +30,9 @@ public class IndexStatus {
 	final public Set<String> analyzers;
 	final public Set<String> fields;
 	final public IndexSettingsDefinition settings;
+	final public ResultCacheStatus result_cache;
+	final public Long aborted_queries;
+	final public Map<String, Long> replicas;
 
 	public IndexStatus() {
 		num_docs = null;
@@ -36,15 +40,21 @@ public class IndexStatus {
 		analyzers = null;
 		fields = null;
 		settings = null;
+		result_cache = null;
+		aborted_queries = null;
+		replicas = null;
 	}
 
-	public IndexStatus(IndexReader indexReader, IndexSettingsDefinition settings,Set<String> analyzers,
-			Set<String> fields) {
+	public IndexStatus(IndexReader indexReader, IndexSettingsDefinition settings, Set<String> analyzers,
+			Set<String> fields, ResultCacheStatus resultCache, long abortedQueries, Map<String, Long> replicas) {
 		num_docs = (long) indexReader.numDocs();
 		num_deleted_docs = (long) indexReader.numDeletedDocs();
 		this.settings = settings;
 		this.analyzers = analyzers;
 		this.fields = fields;
+		this.result_cache = resultCache;
+		this.aborted_queries = abortedQueries;
+		this.replicas = replicas;
 	}
 
 }
\ No newline at end of file
@@ -21,9 +21,7 @@ import com.qwazr.utils.ClassLoaderUtils;
 import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.LeafReader;
-import org.apache.lucene.index.SlowCompositeReaderWrapper;
-import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.similarities.Similarity;
 
 import java.io.IOException;
@@ -40,13 +38,11 @@ class IndexUtils {
 	}
 
 	final static SortedSetDocValuesReaderState getNewFacetsState(IndexReader indexReader) throws IOException {
-		LeafReader topReader = SlowCompositeReaderWrapper.wrap(indexReader);
-		if (topReader == null)
-			return null;
-		SortedSetDocValues dv = topReader.getSortedSetDocValues(FieldDefinition.FACET_FIELD);
-		if (dv == null)
-			return null;
-		return new DefaultSortedSetDocValuesReaderState(indexReader, FieldDefinition.FACET_FIELD);
+		// Checking the leaves avoids building the global ordinal map twice
+		for (LeafReaderContext leafContext : indexReader.leaves())
+			if (leafContext.reader().getSortedSetDocValues(FieldDefinition.FACET_FIELD) != null)
+				return new DefaultSortedSetDocValuesReaderState(indexReader, FieldDefinition.FACET_FIELD);
+		return null;
 	}
 
 }
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The identifiers of the documents to fetch, and the fields to return (all the fields by default)
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class MultiGetDefinition {
+
+	final public List<String> ids;
+	final public LinkedHashSet<String> returned_fields;
+
+	public MultiGetDefinition() {
+		ids = null;
+		returned_fields = null;
+	}
+
+	public MultiGetDefinition(final List<String> ids, final Set<String> returned_fields) {
+		this.ids = ids;
+		this.returned_fields = returned_fields == null ? null : new LinkedHashSet<>(returned_fields);
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The documents fetched by identifier, in the order of the request
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class MultiGetResult {
+
+	final public Integer found;
+	final public List<Document> documents;
+
+	public MultiGetResult() {
+		found = null;
+		documents = null;
+	}
+
+	MultiGetResult(final int found, final List<Document> documents) {
+		this.found = found;
+		this.documents = documents;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class Document {
+
+		final public String id;
+
+		/**
+		 * False if no document has this identifier
+		 */
+		final public Boolean found;
+		final public LinkedHashMap<String, Object> fields;
+
+		public Document() {
+			id = null;
+			found = null;
+			fields = null;
+		}
+
+		Document(final String id, final LinkedHashMap<String, Object> fields) {
+			this.id = id;
+			this.found = fields != null;
+			this.fields = fields;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.search.field.FieldTypeInterface;
+import com.qwazr.search.field.ValueConverter;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fetch documents by identifier without running a query. The identifiers are sorted, then sought in the terms
+ * dictionary of the $id$ field of each segment, so that the terms enum only moves forward. The found documents are
+ * then loaded in doc id order, segment by segment, reading only the requested stored fields and doc values.
+ */
+class MultiGetter {
+
+	private final IndexReader indexReader;
+	private final Set<String> returnedFields;
+	private final Map<String, FieldTypeInterface> fieldTypes;
+
+	MultiGetter(final IndexReader indexReader, final Set<String> returnedFields,
+			final Map<String, FieldTypeInterface> fieldTypes) {
+		this.indexReader = indexReader;
+		this.returnedFields = returnedFields;
+		this.fieldTypes = fieldTypes;
+	}
+
+	final MultiGetResult fetch(final List<String> ids) throws IOException {
+		if (ids == null || ids.isEmpty())
+			return new MultiGetResult(0, null);
+		final int size = ids.size();
+		final BytesRef[] terms = new BytesRef[size];
+		final Integer[] termOrder = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			final String id = ids.get(i);
+			terms[i] = id == null ? null : new BytesRef(id);
+			termOrder[i] = i;
+		}
+		Arrays.sort(termOrder, (pos1, pos2) -> compare(terms[pos1], terms[pos2]));
+
+		final int[] docs = new int[size];
+		Arrays.fill(docs, -1);
+		final int found = seekIds(terms, termOrder, docs);
+
+		final List<LinkedHashMap<String, Object>> fields = new ArrayList<>(Collections.nCopies(size, null));
+		if (found > 0)
+			loadFields(docs, fields);
+
+		final List<MultiGetResult.Document> documents = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			documents.add(new MultiGetResult.Document(ids.get(i), fields.get(i)));
+		return new MultiGetResult(found, documents);
+	}
+
+	private static int compare(final BytesRef term1, final BytesRef term2) {
+		if (term1 == null)
+			return term2 == null ? 0 : -1;
+		if (term2 == null)
+			return 1;
+		return term1.compareTo(term2);
+	}
+
+	/**
+	 * @param terms     the identifiers
+	 * @param termOrder the positions of the identifiers, sorted by term
+	 * @param docs      receives the doc id of the live document having the identifier
+	 * @return the number of identifiers found
+	 */
+	private int seekIds(final BytesRef[] terms, final Integer[] termOrder, final int[] docs) throws IOException {
+		int found = 0;
+		PostingsEnum postings = null;
+		for (LeafReaderContext leaf : indexReader.leaves()) {
+			final LeafReader leafReader = leaf.reader();
+			final Terms idTerms = leafReader.terms(FieldDefinition.ID_FIELD);
+			if (idTerms == null)
+				continue;
+			final TermsEnum termsEnum = idTerms.iterator();
+			final Bits liveDocs = leafReader.getLiveDocs();
+			for (int pos : termOrder) {
+				if (terms[pos] == null || docs[pos] != -1)
+					continue;
+				if (!termsEnum.seekExact(terms[pos]))
+					continue;
+				postings = termsEnum.postings(postings, PostingsEnum.NONE);
+				int doc;
+				while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+					if (liveDocs == null || liveDocs.get(doc)) {
+						docs[pos] = leaf.docBase + doc;
+						found++;
+						break;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @param docs   the doc id of each identifier, or -1
+	 * @param fields receives the fields of each found document, at the position of its identifier
+	 */
+	private void loadFields(final int[] docs, final List<LinkedHashMap<String, Object>> fields) throws IOException {
+		final Integer[] docOrder = new Integer[docs.length];
+		int count = 0;
+		for (int i = 0; i < docs.length; i++)
+			if (docs[i] != -1)
+				docOrder[count++] = i;
+		Arrays.sort(docOrder, 0, count, (pos1, pos2) -> Integer.compare(docs[pos1], docs[pos2]));
+
+		final List<LeafReaderContext> leaves = indexReader.leaves();
+		final Map<String, ValueConverter<?, ?>> converters = new LinkedHashMap<>();
+		LeafReaderContext leaf = null;
+		int leafEnd = 0;
+		for (int i = 0; i < count; i++) {
+			final int pos = docOrder[i];
+			if (leaf == null || docs[pos] >= leafEnd) {
+				leaf = leaves.get(ReaderUtil.subIndex(docs[pos], leaves));
+				leafEnd = leaf.docBase + leaf.reader().maxDoc();
+				setConverters(leaf.reader(), converters);
+			}
+			final int leafDoc = docs[pos] - leaf.docBase;
+			final FieldValues values = new FieldValues();
+			final DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(returnedFields);
+			leaf.reader().document(leafDoc, visitor);
+			for (IndexableField field : visitor.getDocument())
+				values.add(field.name(), getValue(field));
+			converters.forEach((fieldName, converter) -> values.add(fieldName, converter.convert(leafDoc)));
+			fields.set(pos, values.toFields());
+		}
+	}
+
+	private void setConverters(final LeafReader leafReader, final Map<String, ValueConverter<?, ?>> converters)
+			throws IOException {
+		converters.clear();
+		for (String fieldName : returnedFields) {
+			final FieldTypeInterface fieldType = fieldTypes.get(fieldName);
+			if (fieldType == null)
+				continue;
+			final ValueConverter<?, ?> converter = fieldType.getConverter(leafReader);
+			if (converter != null)
+				converters.put(fieldName, converter);
+		}
+	}
+
+	/**
+	 * The values of the fields of one document, in the order they are read
+	 */
+	private static class FieldValues {
+
+		private final LinkedHashMap<String, List<Object>> values = new LinkedHashMap<>();
+
+		private void add(final String fieldName, final Object value) {
+			if (value != null)
+				values.computeIfAbsent(fieldName, name -> new ArrayList<>(1)).add(value);
+		}
+
+		/**
+		 * @return the fields of the document: the value of a single valued field, the list of the values otherwise
+		 */
+		private LinkedHashMap<String, Object> toFields() {
+			final LinkedHashMap<String, Object> fields = new LinkedHashMap<>();
+			values.forEach((fieldName, list) -> fields.put(fieldName, list.size() == 1 ? list.get(0) : list));
+			return fields;
+		}
+	}
+
+	private static Object getValue(final IndexableField field) {
+		final Number n = field.numericValue();
+		if (n != null)
+			return n;
+		return field.stringValue();
+	}
+}
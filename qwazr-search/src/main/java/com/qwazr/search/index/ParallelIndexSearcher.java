@@ -0,0 +1,84 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An IndexSearcher which searches the slices of the index in parallel.
+ * The small segments are grouped together, so that a slice is worth a task.
+ */
+class ParallelIndexSearcher extends IndexSearcher {
+
+	private final static int MAX_DOCS_PER_SLICE = 250_000;
+	private final static int MAX_SEGMENTS_PER_SLICE = 5;
+
+	ParallelIndexSearcher(final IndexReader indexReader, final ExecutorService executorService) {
+		super(indexReader, executorService);
+	}
+
+	@Override
+	protected LeafSlice[] slices(final List<LeafReaderContext> leaves) {
+		final List<LeafReaderContext> sortedLeaves = new ArrayList<>(leaves);
+		sortedLeaves.sort((leaf1, leaf2) -> Integer.compare(leaf2.reader().maxDoc(), leaf1.reader().maxDoc()));
+		final List<LeafSlice> slices = new ArrayList<>();
+		final List<LeafReaderContext> group = new ArrayList<>();
+		long groupDocs = 0;
+		for (LeafReaderContext leaf : sortedLeaves) {
+			group.add(leaf);
+			groupDocs += leaf.reader().maxDoc();
+			if (groupDocs > MAX_DOCS_PER_SLICE || group.size() >= MAX_SEGMENTS_PER_SLICE) {
+				slices.add(newSlice(group));
+				group.clear();
+				groupDocs = 0;
+			}
+		}
+		if (!group.isEmpty())
+			slices.add(newSlice(group));
+		return slices.toArray(new LeafSlice[slices.size()]);
+	}
+
+	/**
+	 * The leaves of a slice are visited in doc id order
+	 */
+	private static LeafSlice newSlice(final List<LeafReaderContext> leaves) {
+		final LeafReaderContext[] leafArray = leaves.toArray(new LeafReaderContext[leaves.size()]);
+		Arrays.sort(leafArray, (leaf1, leaf2) -> Integer.compare(leaf1.docBase, leaf2.docBase));
+		return new LeafSlice(leafArray);
+	}
+
+	static class Factory extends SearcherFactory {
+
+		private final ExecutorService executorService;
+
+		Factory(final ExecutorService executorService) {
+			this.executorService = executorService;
+		}
+
+		@Override
+		public IndexSearcher newSearcher(final IndexReader indexReader, final IndexReader previousReader) {
+			return new ParallelIndexSearcher(indexReader, executorService);
+		}
+	}
+}
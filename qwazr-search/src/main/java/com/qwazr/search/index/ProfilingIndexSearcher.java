@@ -0,0 +1,284 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An IndexSearcher which measures the time spent in each node of the query. Each Weight created by the searcher
+ * (including the weights of the sub-queries) is wrapped, and so are its scorers and iterators.
+ * It is only used when the query definition asks for profiling, the segments are searched sequentially.
+ */
+class ProfilingIndexSearcher extends IndexSearcher {
+
+	private enum Timing {
+		create_weight, build_scorer, next_doc, advance, match, score
+	}
+
+	private final Deque<Node> stack;
+	private final List<Node> roots;
+
+	ProfilingIndexSearcher(final IndexSearcher indexSearcher) {
+		super(indexSearcher.getIndexReader());
+		setSimilarity(indexSearcher.getSimilarity(true));
+		setQueryCache(indexSearcher.getQueryCache());
+		setQueryCachingPolicy(indexSearcher.getQueryCachingPolicy());
+		this.stack = new ArrayDeque<>();
+		this.roots = new ArrayList<>();
+	}
+
+	@Override
+	public Weight createWeight(final Query query, final boolean needsScores) throws IOException {
+		final Node node = new Node(query);
+		if (stack.isEmpty())
+			roots.add(node);
+		else
+			stack.peek().children.add(node);
+		stack.push(node);
+		final long start = System.nanoTime();
+		try {
+			return new ProfileWeight(query, super.createWeight(query, needsScores), node);
+		} finally {
+			node.add(Timing.create_weight, System.nanoTime() - start);
+			stack.pop();
+		}
+	}
+
+	/**
+	 * @return the timing tree of each query searched
+	 */
+	final List<QueryProfile> getProfiles() {
+		final List<QueryProfile> profiles = new ArrayList<>(roots.size());
+		for (Node node : roots)
+			profiles.add(node.getProfile());
+		return profiles;
+	}
+
+	private static class Node {
+
+		private final Query query;
+		private final long[] timings;
+		private final long[] counts;
+		private final List<Node> children;
+
+		private Node(final Query query) {
+			this.query = query;
+			this.timings = new long[Timing.values().length];
+			this.counts = new long[Timing.values().length];
+			this.children = new ArrayList<>();
+		}
+
+		private void add(final Timing timing, final long nanos) {
+			timings[timing.ordinal()] += nanos;
+			counts[timing.ordinal()]++;
+		}
+
+		private QueryProfile getProfile() {
+			final LinkedHashMap<String, Long> timingMap = new LinkedHashMap<>();
+			final LinkedHashMap<String, Long> countMap = new LinkedHashMap<>();
+			long total = 0;
+			for (Timing timing : Timing.values()) {
+				final int i = timing.ordinal();
+				if (counts[i] == 0)
+					continue;
+				timingMap.put(timing.name(), timings[i]);
+				countMap.put(timing.name(), counts[i]);
+				total += timings[i];
+			}
+			final List<QueryProfile> childProfiles;
+			if (children.isEmpty())
+				childProfiles = null;
+			else {
+				childProfiles = new ArrayList<>(children.size());
+				for (Node child : children)
+					childProfiles.add(child.getProfile());
+			}
+			return new QueryProfile(query.getClass().getSimpleName(), query.toString(), total, timingMap, countMap,
+					childProfiles);
+		}
+	}
+
+	private static class ProfileWeight extends Weight {
+
+		private final Weight weight;
+		private final Node node;
+
+		private ProfileWeight(final Query query, final Weight weight, final Node node) {
+			super(query);
+			this.weight = weight;
+			this.node = node;
+		}
+
+		@Override
+		public void extractTerms(final Set<Term> terms) {
+			weight.extractTerms(terms);
+		}
+
+		@Override
+		public Explanation explain(final LeafReaderContext context, final int doc) throws IOException {
+			return weight.explain(context, doc);
+		}
+
+		@Override
+		public float getValueForNormalization() throws IOException {
+			return weight.getValueForNormalization();
+		}
+
+		@Override
+		public void normalize(final float norm, final float boost) {
+			weight.normalize(norm, boost);
+		}
+
+		/**
+		 * The bulk scorer is not overridden: the default one iterates over the profiled scorer.
+		 */
+		@Override
+		public Scorer scorer(final LeafReaderContext context) throws IOException {
+			final long start = System.nanoTime();
+			final Scorer scorer;
+			try {
+				scorer = weight.scorer(context);
+			} finally {
+				node.add(Timing.build_scorer, System.nanoTime() - start);
+			}
+			return scorer == null ? null : new ProfileScorer(this, scorer, node);
+		}
+	}
+
+	private static class ProfileScorer extends Scorer {
+
+		private final Scorer scorer;
+		private final Node node;
+
+		private ProfileScorer(final Weight weight, final Scorer scorer, final Node node) {
+			super(weight);
+			this.scorer = scorer;
+			this.node = node;
+		}
+
+		@Override
+		public int docID() {
+			return scorer.docID();
+		}
+
+		@Override
+		public float score() throws IOException {
+			final long start = System.nanoTime();
+			try {
+				return scorer.score();
+			} finally {
+				node.add(Timing.score, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public int freq() throws IOException {
+			return scorer.freq();
+		}
+
+		@Override
+		public Collection<ChildScorer> getChildren() {
+			return scorer.getChildren();
+		}
+
+		@Override
+		public DocIdSetIterator iterator() {
+			return new ProfileIterator(scorer.iterator(), node);
+		}
+
+		@Override
+		public TwoPhaseIterator twoPhaseIterator() {
+			final TwoPhaseIterator twoPhaseIterator = scorer.twoPhaseIterator();
+			if (twoPhaseIterator == null)
+				return null;
+			return new TwoPhaseIterator(new ProfileIterator(twoPhaseIterator.approximation(), node)) {
+
+				@Override
+				public boolean matches() throws IOException {
+					final long start = System.nanoTime();
+					try {
+						return twoPhaseIterator.matches();
+					} finally {
+						node.add(Timing.match, System.nanoTime() - start);
+					}
+				}
+
+				@Override
+				public float matchCost() {
+					return twoPhaseIterator.matchCost();
+				}
+			};
+		}
+	}
+
+	private static class ProfileIterator extends DocIdSetIterator {
+
+		private final DocIdSetIterator iterator;
+		private final Node node;
+
+		private ProfileIterator(final DocIdSetIterator iterator, final Node node) {
+			this.iterator = iterator;
+			this.node = node;
+		}
+
+		@Override
+		public int docID() {
+			return iterator.docID();
+		}
+
+		@Override
+		public int nextDoc() throws IOException {
+			final long start = System.nanoTime();
+			try {
+				return iterator.nextDoc();
+			} finally {
+				node.add(Timing.next_doc, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public int advance(final int target) throws IOException {
+			final long start = System.nanoTime();
+			try {
+				return iterator.advance(target);
+			} finally {
+				node.add(Timing.advance, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public long cost() {
+			return iterator.cost();
+		}
+	}
+}
@@ -32,6 +32,8 @@ public class QueryBuilder {
 
 	LinkedHashMap<String, FacetDefinition> facets = null;
 
+	LinkedHashMap<String, AggregationDefinition> aggregations = null;
+
 	LinkedHashMap<String, QueryDefinition.SortEnum> sorts = null;
 	ArrayList<QueryDefinition.Function> functions = null;
 
@@ -39,6 +41,13 @@ public class QueryBuilder {
 
 	public AbstractQuery query = null;
 
+	String cursor = null;
+
+	Long timeout_ms = null;
+	Integer max_hits_to_collect = null;
+	Boolean track_total_hits = null;
+	Boolean profile = null;
+
 	public Boolean getQuery_debug() {
 		return query_debug;
 	}
@@ -57,12 +66,18 @@ public class QueryBuilder {
 		escaped_chars = queryDef.escaped_chars;
 
 		facets = queryDef.facets;
+		aggregations = queryDef.aggregations;
 		sorts = queryDef.sorts;
 		functions = queryDef.functions;
 
 		highlighters = queryDef.highlighters;
 
 		query = queryDef.query;
+		cursor = queryDef.cursor;
+		timeout_ms = queryDef.timeout_ms;
+		max_hits_to_collect = queryDef.max_hits_to_collect;
+		track_total_hits = queryDef.track_total_hits;
+		profile = queryDef.profile;
 	}
 
 	public QueryBuilder setQuery_debug(Boolean query_debug) {
@@ -166,6 +181,22 @@ public class QueryBuilder {
 		return this;
 	}
 
+	public Map<String, AggregationDefinition> getAggregations() {
+		return aggregations;
+	}
+
+	public QueryBuilder setAggregations(LinkedHashMap<String, AggregationDefinition> aggregations) {
+		this.aggregations = aggregations;
+		return this;
+	}
+
+	public QueryBuilder addAggregation(String name, AggregationDefinition aggregationDefinition) {
+		if (aggregations == null)
+			aggregations = new LinkedHashMap<>();
+		aggregations.put(name, aggregationDefinition);
+		return this;
+	}
+
 	public QueryBuilder addFacet(Enum<?> facetName, FacetDefinition facetDefinition) {
 		if (facetName == null)
 			return this;
@@ -234,6 +265,51 @@ public class QueryBuilder {
 		return this;
 	}
 
+	public String getCursor() {
+		return cursor;
+	}
+
+	public QueryBuilder setCursor(String cursor) {
+		this.cursor = cursor;
+		return this;
+	}
+
+	public Long getTimeout_ms() {
+		return timeout_ms;
+	}
+
+	public QueryBuilder setTimeout_ms(Long timeout_ms) {
+		this.timeout_ms = timeout_ms;
+		return this;
+	}
+
+	public Integer getMax_hits_to_collect() {
+		return max_hits_to_collect;
+	}
+
+	public QueryBuilder setMax_hits_to_collect(Integer max_hits_to_collect) {
+		this.max_hits_to_collect = max_hits_to_collect;
+		return this;
+	}
+
+	public Boolean getTrack_total_hits() {
+		return track_total_hits;
+	}
+
+	public QueryBuilder setTrack_total_hits(Boolean track_total_hits) {
+		this.track_total_hits = track_total_hits;
+		return this;
+	}
+
+	public Boolean getProfile() {
+		return profile;
+	}
+
+	public QueryBuilder setProfile(Boolean profile) {
+		this.profile = profile;
+		return this;
+	}
+
 	public QueryDefinition build() {
 		return new QueryDefinition(this);
 	}
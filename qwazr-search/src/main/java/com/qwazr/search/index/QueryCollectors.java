@@ -19,6 +19,8 @@ package com.qwazr.search.index;
 import com.qwazr.search.field.FieldTypeInterface;
 import com.qwazr.utils.server.ServerException;
 import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.search.*;
 
 import javax.ws.rs.core.Response;
@@ -31,6 +33,10 @@ class QueryCollectors {
 
 	final FacetsCollector facetsCollector;
 
+	final QueryFacetsCollector queryFacetsCollector;
+
+	final AggregationsCollector aggregationsCollector;
+
 	final Collection<FunctionCollector> functionsCollectors;
 
 	final TotalHitCountCollector totalHitCountCollector;
@@ -39,15 +45,78 @@ class QueryCollectors {
 
 	final Collector finalCollector;
 
-	QueryCollectors(boolean bNeedScore, Sort sort, int numHits, final LinkedHashMap<String, FacetDefinition> facets,
-			Collection<QueryDefinition.Function> functions, final Map<String, FieldTypeInterface> fields)
-			throws ServerException, IOException {
+	private final Integer mergedTotalHits;
+
+	private final TopDocs mergedTopDocs;
+
+	QueryCollectors(final QueryContext queryContext, boolean bNeedScore, Sort sort, int numHits, ScoreDoc after,
+			final LinkedHashMap<String, FacetDefinition> facets, Collection<QueryDefinition.Function> functions,
+			final LinkedHashMap<String, AggregationDefinition> aggregations,
+			final Map<String, FieldTypeInterface> fields)
+			throws ServerException, IOException, ParseException, ReflectiveOperationException, QueryNodeException {
 		collectors = new ArrayList<Collector>();
 		facetsCollector = buildFacetsCollector(facets);
+		queryFacetsCollector = buildQueryFacetsCollector(queryContext, facets);
 		functionsCollectors = buildFunctionsCollectors(fields, functions);
+		aggregationsCollector = buildAggregationsCollector(fields, aggregations);
 		totalHitCountCollector = buildTotalHitsCollector(numHits);
-		topDocsCollector = buildTopDocCollector(sort, numHits, bNeedScore);
+		topDocsCollector = buildTopDocCollector(queryContext, sort, numHits, after, bNeedScore);
 		finalCollector = getFinalCollector();
+		mergedTotalHits = null;
+		mergedTopDocs = null;
+	}
+
+	/**
+	 * Merge the collectors used by each slice of a parallel search
+	 */
+	private QueryCollectors(final List<QueryCollectors> slices, final Sort sort, final int numHits)
+			throws IOException {
+		collectors = Collections.emptyList();
+		finalCollector = null;
+		totalHitCountCollector = null;
+		topDocsCollector = null;
+
+		final QueryCollectors first = slices.get(0);
+
+		facetsCollector = first.facetsCollector == null ? null : new MergedFacetsCollector(slices);
+
+		queryFacetsCollector = first.queryFacetsCollector;
+		if (queryFacetsCollector != null)
+			for (int i = 1; i < slices.size(); i++)
+				queryFacetsCollector.reduce(slices.get(i).queryFacetsCollector);
+
+		aggregationsCollector = first.aggregationsCollector;
+		if (aggregationsCollector != null)
+			for (int i = 1; i < slices.size(); i++)
+				aggregationsCollector.reduce(slices.get(i).aggregationsCollector);
+
+		functionsCollectors = first.functionsCollectors;
+		if (functionsCollectors != null) {
+			for (int i = 1; i < slices.size(); i++) {
+				final Iterator<FunctionCollector> iterator = slices.get(i).functionsCollectors.iterator();
+				for (FunctionCollector functionCollector : functionsCollectors)
+					functionCollector.reduce(iterator.next());
+			}
+		}
+
+		int totalHits = 0;
+		for (QueryCollectors slice : slices)
+			totalHits += slice.getTotalHits();
+		mergedTotalHits = totalHits;
+
+		if (first.topDocsCollector == null)
+			mergedTopDocs = null;
+		else if (sort != null) {
+			final TopFieldDocs[] topFieldDocs = new TopFieldDocs[slices.size()];
+			for (int i = 0; i < topFieldDocs.length; i++)
+				topFieldDocs[i] = (TopFieldDocs) slices.get(i).getTopDocs();
+			mergedTopDocs = TopDocs.merge(sort, numHits, topFieldDocs);
+		} else {
+			final TopDocs[] topDocs = new TopDocs[slices.size()];
+			for (int i = 0; i < topDocs.length; i++)
+				topDocs[i] = slices.get(i).getTopDocs();
+			mergedTopDocs = TopDocs.merge(numHits, topDocs);
+		}
 	}
 
 	private final <T extends Collector> T add(T collector) {
@@ -75,6 +144,17 @@ class QueryCollectors {
 		return null;
 	}
 
+	private final QueryFacetsCollector buildQueryFacetsCollector(final QueryContext queryContext,
+			final LinkedHashMap<String, FacetDefinition> facets)
+			throws IOException, ParseException, ReflectiveOperationException, QueryNodeException {
+		if (facets == null || facets.isEmpty())
+			return null;
+		for (FacetDefinition facet : facets.values())
+			if (facet.queries != null && !facet.queries.isEmpty())
+				return add(new QueryFacetsCollector(queryContext, facets));
+		return null;
+	}
+
 	private final Collection<FunctionCollector> buildFunctionsCollectors(Map<String, FieldTypeInterface> fields,
 			Collection<QueryDefinition.Function> functions) throws ServerException {
 		if (functions == null || functions.isEmpty())
@@ -92,15 +172,41 @@ class QueryCollectors {
 		return functionsCollectors;
 	}
 
-	private final TopDocsCollector buildTopDocCollector(Sort sort, int numHits, boolean bNeedScore) throws IOException {
+	private final AggregationsCollector buildAggregationsCollector(final Map<String, FieldTypeInterface> fields,
+			final LinkedHashMap<String, AggregationDefinition> aggregations) {
+		if (aggregations == null || aggregations.isEmpty())
+			return null;
+		return add(new AggregationsCollector(fields, aggregations));
+	}
+
+	private final TopDocsCollector buildTopDocCollector(final QueryContext queryContext, Sort sort, int numHits,
+			ScoreDoc after, boolean bNeedScore) throws IOException {
 		if (numHits == 0)
 			return null;
 		final TopDocsCollector topDocsCollector;
 		if (sort != null)
-			topDocsCollector = TopFieldCollector.create(sort, numHits, true, bNeedScore, bNeedScore);
+			topDocsCollector = TopFieldCollector.create(sort, numHits, (FieldDoc) after, true, bNeedScore, bNeedScore);
+		else
+			topDocsCollector = TopScoreDocCollector.create(numHits, after);
+		if (canEarlyTerminate(queryContext, sort, after))
+			collectors.add(new EarlyTerminatingSortingCollector(topDocsCollector, sort, numHits,
+					queryContext.indexSort));
 		else
-			topDocsCollector = TopScoreDocCollector.create(numHits);
-		return add(topDocsCollector);
+			collectors.add(topDocsCollector);
+		return topDocsCollector;
+	}
+
+	/**
+	 * The collection of a segment sorted by the index sort can stop once the top documents are collected if:
+	 * the sort of the query is a prefix of the index sort, no other collector needs all the matching documents, the
+	 * total hits are not required, and no cursor is used (the documents before the cursor would be counted).
+	 */
+	private final boolean canEarlyTerminate(final QueryContext queryContext, final Sort sort, final ScoreDoc after) {
+		if (sort == null || after != null || queryContext.indexSort == null || !collectors.isEmpty())
+			return false;
+		if (queryContext.queryDefinition == null || queryContext.queryDefinition.isTrackTotalHits())
+			return false;
+		return EarlyTerminatingSortingCollector.canEarlyTerminate(sort, queryContext.indexSort);
 	}
 
 	private final TotalHitCountCollector buildTotalHitsCollector(int numHits) {
@@ -110,6 +216,8 @@ class QueryCollectors {
 	}
 
 	final Integer getTotalHits() {
+		if (mergedTotalHits != null)
+			return mergedTotalHits;
 		if (totalHitCountCollector != null)
 			return totalHitCountCollector.getTotalHits();
 		if (topDocsCollector != null)
@@ -118,7 +226,84 @@ class QueryCollectors {
 	}
 
 	final TopDocs getTopDocs() {
+		if (mergedTopDocs != null)
+			return mergedTopDocs;
 		return topDocsCollector == null ? null : topDocsCollector.topDocs();
 	}
 
+	/**
+	 * The matching documents of all the slices
+	 */
+	private static class MergedFacetsCollector extends FacetsCollector {
+
+		private final List<MatchingDocs> matchingDocs;
+
+		private MergedFacetsCollector(final List<QueryCollectors> slices) {
+			matchingDocs = new ArrayList<>();
+			for (QueryCollectors slice : slices)
+				matchingDocs.addAll(slice.facetsCollector.getMatchingDocs());
+		}
+
+		@Override
+		public List<MatchingDocs> getMatchingDocs() {
+			return matchingDocs;
+		}
+	}
+
+	/**
+	 * Create one set of collectors per slice, and merge them once the slices have been searched.
+	 */
+	static class Manager implements CollectorManager<Collector, QueryCollectors> {
+
+		private final QueryContext queryContext;
+		private final boolean bNeedScore;
+		private final Sort sort;
+		private final int numHits;
+		private final ScoreDoc after;
+		private final LinkedHashMap<String, FacetDefinition> facets;
+		private final Collection<QueryDefinition.Function> functions;
+		private final LinkedHashMap<String, AggregationDefinition> aggregations;
+		private final Map<String, FieldTypeInterface> fields;
+		private final SearchBudget budget;
+		private final List<QueryCollectors> slices;
+
+		Manager(final QueryContext queryContext, boolean bNeedScore, Sort sort, int numHits, ScoreDoc after,
+				final LinkedHashMap<String, FacetDefinition> facets, Collection<QueryDefinition.Function> functions,
+				final LinkedHashMap<String, AggregationDefinition> aggregations,
+				final Map<String, FieldTypeInterface> fields, final SearchBudget budget) {
+			this.queryContext = queryContext;
+			this.bNeedScore = bNeedScore;
+			this.sort = sort;
+			this.numHits = numHits;
+			this.after = after;
+			this.facets = facets;
+			this.functions = functions;
+			this.aggregations = aggregations;
+			this.fields = fields;
+			this.budget = budget;
+			this.slices = new ArrayList<>();
+		}
+
+		@Override
+		public synchronized Collector newCollector() throws IOException {
+			try {
+				final QueryCollectors queryCollectors =
+						new QueryCollectors(queryContext, bNeedScore, sort, numHits, after, facets, functions,
+								aggregations, fields);
+				slices.add(queryCollectors);
+				return budget == null ? queryCollectors.finalCollector : budget.wrap(queryCollectors.finalCollector);
+			} catch (ParseException | ReflectiveOperationException | QueryNodeException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public synchronized QueryCollectors reduce(final Collection<Collector> collectors) throws IOException {
+			// An empty index has no slice
+			if (slices.isEmpty())
+				newCollector();
+			return new QueryCollectors(slices, sort, numHits);
+		}
+	}
+
 }
@@ -18,6 +18,7 @@ package com.qwazr.search.index;
 import com.qwazr.search.analysis.UpdatableAnalyzer;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
 
 public class QueryContext {
 
@@ -27,9 +28,26 @@ public class QueryContext {
 	final public QueryDefinition queryDefinition;
 	final public String queryString;
 
+	/**
+	 * The sort of the merged segments, or null
+	 */
+	final Sort indexSort;
+
+	/**
+	 * The cache of the built queries and sorts, or null
+	 */
+	final QueryPlanCache queryPlanCache;
+
 	QueryContext(IndexSearcher indexSearcher, UpdatableAnalyzer analyzer, SortedSetDocValuesReaderState state,
 			QueryDefinition queryDefinition) {
+		this(indexSearcher, analyzer, state, queryDefinition, null, null);
+	}
+
+	QueryContext(IndexSearcher indexSearcher, UpdatableAnalyzer analyzer, SortedSetDocValuesReaderState state,
+			QueryDefinition queryDefinition, Sort indexSort, QueryPlanCache queryPlanCache) {
 		this.indexSearcher = indexSearcher;
+		this.indexSort = indexSort;
+		this.queryPlanCache = queryPlanCache;
 		this.state = state;
 		this.analyzer = analyzer;
 		this.queryDefinition = queryDefinition;
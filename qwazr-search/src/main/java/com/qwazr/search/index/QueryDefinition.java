@@ -15,6 +15,7 @@
  */
 package com.qwazr.search.index;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.qwazr.search.query.AbstractQuery;
@@ -53,14 +54,53 @@ public class QueryDefinition extends BaseQueryDefinition {
 
 	final public LinkedHashMap<String, FacetDefinition> facets;
 
+	final public LinkedHashMap<String, AggregationDefinition> aggregations;
+
 	final public LinkedHashMap<String, HighlighterDefinition> highlighters;
 
 	final public AbstractQuery query;
 
+	/**
+	 * The cursor returned with the previous page (next_cursor). When set, the documents are collected after the
+	 * last document of the previous page, and the start parameter is ignored.
+	 */
+	final public String cursor;
+
+	/**
+	 * The maximum time spent collecting the documents. When reached, the documents collected so far are returned and
+	 * the result is flagged as timed_out.
+	 */
+	final public Long timeout_ms;
+
+	/**
+	 * The maximum number of matching documents collected. When reached, the documents collected so far are returned
+	 * and the result is flagged as terminated_early.
+	 */
+	final public Integer max_hits_to_collect;
+
+	/**
+	 * Set to false when the exact number of matching documents is not required. A query sorted like the index
+	 * (index_sort) may then stop collecting each sorted segment once the requested rows are collected, and the
+	 * returned total_hits is only a lower bound.
+	 */
+	final public Boolean track_total_hits;
+
+	/**
+	 * When true, the result contains the time spent in each node of the Lucene query: creating the weight, building
+	 * the scorers, iterating (next_doc, advance, match) and scoring. The segments are then searched sequentially.
+	 */
+	final public Boolean profile;
+
 	public static class Function {
 
+		/**
+		 * count is the number of matching documents, value_count is the number of values of the field (a
+		 * multivalued field may have several values per document). The other functions require a numeric field,
+		 * except min and max which also apply to binary fields. stats returns count, min, max, sum, avg and
+		 * sum_of_squares.
+		 */
 		public enum FunctionEnum {
-			max, min
+			max, min, sum, avg, count, stats, value_count
 		}
 
 		final public FunctionEnum function;
@@ -88,10 +128,16 @@ public class QueryDefinition extends BaseQueryDefinition {
 		escaped_chars = null;
 		returned_fields = null;
 		facets = null;
+		aggregations = null;
 		sorts = null;
 		functions = null;
 		highlighters = null;
 		query = null;
+		cursor = null;
+		timeout_ms = null;
+		max_hits_to_collect = null;
+		track_total_hits = null;
+		profile = null;
 	}
 
 	QueryDefinition(QueryBuilder builder) {
@@ -101,10 +147,36 @@ public class QueryDefinition extends BaseQueryDefinition {
 		escaped_chars = builder.escaped_chars;
 		returned_fields = builder.returned_fields;
 		facets = builder.facets;
+		aggregations = builder.aggregations;
 		sorts = builder.sorts;
 		functions = builder.functions;
 		highlighters = builder.highlighters;
 		query = builder.query;
+		cursor = builder.cursor;
+		timeout_ms = builder.timeout_ms;
+		max_hits_to_collect = builder.max_hits_to_collect;
+		track_total_hits = builder.track_total_hits;
+		profile = builder.profile;
+	}
+
+	@JsonIgnore
+	final boolean isTrackTotalHits() {
+		return track_total_hits == null || track_total_hits;
+	}
+
+	@JsonIgnore
+	final boolean isProfiled() {
+		return profile != null && profile;
+	}
+
+	@JsonIgnore
+	final int getFirstHit() {
+		return cursor != null || start == null ? 0 : start;
+	}
+
+	@JsonIgnore
+	final int getNumHits() {
+		return cursor == null ? getEnd() : rows == null ? 10 : rows;
 	}
 
 	public static QueryDefinition newQuery(String jsonString) throws IOException {
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.search.query.AbstractQuery;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Count the documents matching each facet query during the main search.
+ * For each segment, the iterators of the facet queries are advanced to the collected documents.
+ */
+class QueryFacetsCollector extends SimpleCollector {
+
+	private final LinkedHashMap<String, LinkedHashMap<String, Integer>> positions;
+	private final Weight[] weights;
+	private final int[] counts;
+	private final DocIdSetIterator[] iterators;
+
+	QueryFacetsCollector(final QueryContext queryContext, final LinkedHashMap<String, FacetDefinition> facets)
+			throws IOException, ParseException, ReflectiveOperationException, QueryNodeException {
+		positions = new LinkedHashMap<>();
+		final List<Weight> weightList = new ArrayList<>();
+		for (Map.Entry<String, FacetDefinition> entry : facets.entrySet()) {
+			final FacetDefinition facet = entry.getValue();
+			if (facet.queries == null || facet.queries.isEmpty())
+				continue;
+			final LinkedHashMap<String, Integer> dimPositions = new LinkedHashMap<>();
+			for (Map.Entry<String, AbstractQuery> queryEntry : facet.queries.entrySet()) {
+				final Query query = queryEntry.getValue().getQuery(queryContext);
+				dimPositions.put(queryEntry.getKey(), weightList.size());
+				weightList.add(queryContext.indexSearcher.createNormalizedWeight(query, false));
+			}
+			positions.put(entry.getKey(), dimPositions);
+		}
+		weights = weightList.toArray(new Weight[weightList.size()]);
+		counts = new int[weights.length];
+		iterators = new DocIdSetIterator[weights.length];
+	}
+
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+
+	@Override
+	protected void doSetNextReader(final LeafReaderContext context) throws IOException {
+		for (int i = 0; i < weights.length; i++) {
+			final Scorer scorer = weights[i].scorer(context);
+			iterators[i] = scorer == null ? null : scorer.iterator();
+		}
+	}
+
+	@Override
+	public void collect(final int doc) throws IOException {
+		for (int i = 0; i < iterators.length; i++) {
+			final DocIdSetIterator iterator = iterators[i];
+			if (iterator == null)
+				continue;
+			int docId = iterator.docID();
+			if (docId < doc)
+				docId = iterator.advance(doc);
+			if (docId == doc)
+				counts[i]++;
+			else if (docId == DocIdSetIterator.NO_MORE_DOCS)
+				iterators[i] = null;
+		}
+	}
+
+	/**
+	 * Add the counts of the collector of another slice (parallel search)
+	 */
+	final void reduce(final QueryFacetsCollector other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+	}
+
+	final Map<String, Number> getCounts(final String dim) {
+		final LinkedHashMap<String, Integer> dimPositions = positions.get(dim);
+		if (dimPositions == null)
+			return null;
+		final LinkedHashMap<String, Number> facetMap = new LinkedHashMap<>();
+		dimPositions.forEach((label, pos) -> facetMap.put(label, counts[pos]));
+		return facetMap;
+	}
+}
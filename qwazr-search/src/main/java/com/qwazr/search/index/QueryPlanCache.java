@@ -0,0 +1,124 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.qwazr.search.field.FieldTypeInterface;
+import com.qwazr.search.field.SortUtils;
+import com.qwazr.search.query.MoreLikeThisQuery;
+import com.qwazr.utils.json.JsonMapper;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A LRU cache of the Lucene queries and sorts built from the query definitions.
+ * The key is the JSON form of the query (plus the final query string) or of the sort. The built objects depend on
+ * the analyzers and the fields, the cache is cleared when they are updated. A version number prevents an object
+ * built before the update from being stored after it.
+ */
+class QueryPlanCache {
+
+	private final static ObjectWriter WRITER = JsonMapper.MAPPER.writer().without(SerializationFeature.INDENT_OUTPUT);
+
+	// The MoreLikeThis query reads the terms of the index, it is bound to one reader
+	private final static String READER_DEPENDENT_QUERY = '"' + MoreLikeThisQuery.class.getSimpleName() + '"';
+
+	private final LruMap<Query> queries;
+	private final LruMap<Sort> sorts;
+
+	private long version;
+
+	QueryPlanCache(final int maxEntries) {
+		this.queries = new LruMap<>(maxEntries);
+		this.sorts = new LruMap<>(maxEntries);
+		this.version = 0;
+	}
+
+	private static class LruMap<T> extends LinkedHashMap<String, T> {
+
+		private final int maxEntries;
+
+		private LruMap(final int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, T> eldest) {
+			return size() > maxEntries;
+		}
+	}
+
+	final Query getQuery(final QueryContext queryContext)
+			throws IOException, ParseException, QueryNodeException, ReflectiveOperationException {
+		final String key;
+		try {
+			key = WRITER.writeValueAsString(queryContext.queryDefinition.query) + '\n' + queryContext.queryString;
+		} catch (JsonProcessingException e) {
+			// A query built by the Java API may not be serializable
+			return queryContext.queryDefinition.query.getQuery(queryContext);
+		}
+		if (key.contains(READER_DEPENDENT_QUERY))
+			return queryContext.queryDefinition.query.getQuery(queryContext);
+		final long currentVersion;
+		synchronized (this) {
+			final Query query = queries.get(key);
+			if (query != null)
+				return query;
+			currentVersion = version;
+		}
+		final Query query = queryContext.queryDefinition.query.getQuery(queryContext);
+		synchronized (this) {
+			if (currentVersion == version)
+				queries.put(key, query);
+		}
+		return query;
+	}
+
+	final Sort getSort(final Map<String, FieldTypeInterface> fieldTypes,
+			final LinkedHashMap<String, QueryDefinition.SortEnum> sortMap) throws IOException {
+		final String key = WRITER.writeValueAsString(sortMap);
+		final long currentVersion;
+		synchronized (this) {
+			final Sort sort = sorts.get(key);
+			if (sort != null)
+				return sort;
+			currentVersion = version;
+		}
+		final Sort sort = SortUtils.buildSort(fieldTypes, sortMap);
+		if (sort == null)
+			return null;
+		synchronized (this) {
+			if (currentVersion == version)
+				sorts.put(key, sort);
+		}
+		return sort;
+	}
+
+	final synchronized void clear() {
+		version++;
+		queries.clear();
+		sorts.clear();
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The time spent in one node of the Lucene query. The timings (in nanoseconds) of a node include the time spent in
+ * its children. The counts are the number of calls.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class QueryProfile {
+
+	final public String type;
+	final public String description;
+	final public Long total_time_ns;
+	final public LinkedHashMap<String, Long> timings;
+	final public LinkedHashMap<String, Long> counts;
+	final public List<QueryProfile> children;
+
+	public QueryProfile() {
+		type = null;
+		description = null;
+		total_time_ns = null;
+		timings = null;
+		counts = null;
+		children = null;
+	}
+
+	QueryProfile(final String type, final String description, final long total_time_ns,
+			final LinkedHashMap<String, Long> timings, final LinkedHashMap<String, Long> counts,
+			final List<QueryProfile> children) {
+		this.type = type;
+		this.description = description;
+		this.total_time_ns = total_time_ns;
+		this.timings = timings;
+		this.counts = counts;
+		this.children = children;
+	}
+}
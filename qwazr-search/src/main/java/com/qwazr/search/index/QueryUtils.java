@@ -22,8 +22,10 @@ import com.qwazr.utils.TimeTracker;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TopDocs;
 
@@ -51,11 +53,21 @@ class QueryUtils {
 	final static Query getLuceneQuery(QueryContext queryContext)
 			throws QueryNodeException, ParseException, IOException, ReflectiveOperationException {
 
-		Query query = queryContext.queryDefinition.query == null ?
-				new MatchAllDocsQuery() :
-				queryContext.queryDefinition.query.getQuery(queryContext);
+		if (queryContext.queryDefinition.query == null)
+			return new MatchAllDocsQuery();
+		if (queryContext.queryPlanCache != null)
+			return queryContext.queryPlanCache.getQuery(queryContext);
+		return queryContext.queryDefinition.query.getQuery(queryContext);
+	}
 
-		return query;
+	private static Sort getSort(final QueryContext queryContext, final AnalyzerContext analyzerContext)
+			throws IOException {
+		final QueryDefinition queryDef = queryContext.queryDefinition;
+		if (queryDef.sorts == null)
+			return null;
+		if (queryContext.queryPlanCache != null)
+			return queryContext.queryPlanCache.getSort(analyzerContext.fieldTypes, queryDef.sorts);
+		return SortUtils.buildSort(analyzerContext.fieldTypes, queryDef.sorts);
 	}
 
 	final static ResultDefinition search(final QueryContext queryContext,
@@ -69,24 +81,37 @@ class QueryUtils {
 		final TimeTracker timeTracker = new TimeTracker();
 
 		final AnalyzerContext analyzerContext = queryContext.analyzer.getContext();
-		final Sort sort =
-				queryDef.sorts == null ? null : SortUtils.buildSort(analyzerContext.fieldTypes, queryDef.sorts);
+		final Sort sort = getSort(queryContext, analyzerContext);
 
-		final int numHits = queryDef.getEnd();
+		final int numHits = queryDef.getNumHits();
 		final boolean bNeedScore = sort != null ? sort.needsScores() : true;
-
-		final QueryCollectors queryCollectors = new QueryCollectors(bNeedScore, sort, numHits, queryDef.facets,
-				queryDef.functions, analyzerContext.fieldTypes);
-
-		queryContext.indexSearcher.search(query, queryCollectors.finalCollector);
+		final ScoreDoc after = queryDef.cursor == null ? null : CursorUtils.fromCursor(queryDef.cursor, sort);
+
+		final SearchBudget budget = SearchBudget.of(queryDef);
+		final ProfilingIndexSearcher profilingSearcher =
+				queryDef.isProfiled() ? new ProfilingIndexSearcher(queryContext.indexSearcher) : null;
+		final IndexSearcher indexSearcher = profilingSearcher != null ? profilingSearcher : queryContext.indexSearcher;
+		final QueryCollectors queryCollectors;
+		if (indexSearcher instanceof ParallelIndexSearcher) {
+			queryCollectors = indexSearcher.search(query,
+					new QueryCollectors.Manager(queryContext, bNeedScore, sort, numHits, after, queryDef.facets,
+							queryDef.functions, queryDef.aggregations, analyzerContext.fieldTypes, budget));
+		} else {
+			queryCollectors = new QueryCollectors(queryContext, bNeedScore, sort, numHits, after, queryDef.facets,
+					queryDef.functions, queryDef.aggregations, analyzerContext.fieldTypes);
+			indexSearcher.search(query,
+					budget == null ? queryCollectors.finalCollector : budget.wrap(queryCollectors.finalCollector));
+		}
 		final TopDocs topDocs = queryCollectors.getTopDocs();
 		final Integer totalHits = queryCollectors.getTotalHits();
 
 		timeTracker.next("search_query");
 
-		final FacetsBuilder facetsBuilder = queryCollectors.facetsCollector == null ?
-				null :
-				new FacetsBuilder(queryContext, queryDef.facets, query, queryCollectors.facetsCollector, timeTracker);
+		final FacetsBuilder facetsBuilder =
+				queryCollectors.facetsCollector == null && queryCollectors.queryFacetsCollector == null ?
+						null :
+						new FacetsBuilder(queryContext, queryDef.facets, queryCollectors.facetsCollector,
+								queryCollectors.queryFacetsCollector, timeTracker);
 
 		final Map<String, HighlighterImpl> highlighters;
 		if (queryDef.highlighters != null && topDocs != null) {
@@ -102,7 +127,9 @@ class QueryUtils {
 
 		ResultDefinitionBuilder resultBuilder = new ResultDefinitionBuilder(queryDef, topDocs,
 				queryContext.indexSearcher, query, highlighters, queryCollectors.functionsCollectors,
-				analyzerContext.fieldTypes, timeTracker, documentBuilderFactory, facetsBuilder, totalHits);
+				analyzerContext.fieldTypes, timeTracker, documentBuilderFactory, facetsBuilder,
+				queryCollectors.aggregationsCollector, totalHits, budget,
+				profilingSearcher == null ? null : profilingSearcher.getProfiles());
 		return documentBuilderFactory.build(resultBuilder);
 	}
 
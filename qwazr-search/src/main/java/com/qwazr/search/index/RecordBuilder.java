@@ -60,7 +60,7 @@ abstract class RecordBuilder {
 
 	}
 
-	final static class ForObject extends RecordBuilder implements BiConsumer<String, java.lang.reflect.Field> {
+	final static class ForObject extends RecordBuilder implements BiConsumer<String, FieldAccessor> {
 
 		private final Object record;
 
@@ -71,12 +71,8 @@ abstract class RecordBuilder {
 		}
 
 		@Override
-		final public void accept(final String fieldName, final java.lang.reflect.Field field) {
-			try {
-				addFieldValue(fieldName, field.get(record));
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
-			}
+		final public void accept(final String fieldName, final FieldAccessor fieldAccessor) {
+			addFieldValue(fieldName, fieldAccessor.get(record));
 		}
 
 	}
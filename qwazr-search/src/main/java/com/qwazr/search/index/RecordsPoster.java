@@ -34,13 +34,13 @@ import java.util.function.Consumer;
 
 abstract class RecordsPoster {
 
-	protected final Map<String, Field> fields;
+	protected final Map<String, FieldAccessor> fields;
 	protected final AnalyzerContext context;
 	protected final IndexWriter indexWriter;
 	protected final Collection<Object> ids;
 
 	RecordsPoster(Map<String, Field> fields, AnalyzerContext context, IndexWriter indexWriter, Collection<Object> ids) {
-		this.fields = fields;
+		this.fields = FieldAccessor.of(fields);
 		this.context = context;
 		this.indexWriter = indexWriter;
 		this.ids = ids;
@@ -56,7 +56,8 @@ abstract class RecordsPoster {
 		} catch (IOException e) {
 			throw new ServerException(e);
 		}
-		ids.add(id);
+		if (ids != null)
+			ids.add(id);
 	}
 
 	final protected void updateDocValues(final Object id, final FieldConsumer.ForDocValues fields) {
@@ -73,8 +74,20 @@ abstract class RecordsPoster {
 
 	final static class UpdateMapDocument extends RecordsPoster implements Consumer<Map<String, Object>> {
 
+		private UpdateMapDocument(final AnalyzerContext context, final IndexWriter indexWriter,
+				final Collection<Object> ids) {
+			super(null, context, indexWriter, ids);
+		}
+
 		UpdateMapDocument(final AnalyzerContext context, final IndexWriter indexWriter) {
-			super(null, context, indexWriter, new ArrayList<>());
+			this(context, indexWriter, new ArrayList<>());
+		}
+
+		/**
+		 * @return a poster which does not keep the ids of the posted documents
+		 */
+		static UpdateMapDocument withoutIds(final AnalyzerContext context, final IndexWriter indexWriter) {
+			return new UpdateMapDocument(context, indexWriter, null);
 		}
 
 		@Override
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.utils.server.ServerException;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The master side of the replication. Each replica holds a snapshot of the last commit point, the files of this
+ * commit are not deleted by the IndexWriter until the replica asks for a newer commit or stops contacting the master.
+ */
+class ReplicationMaster {
+
+	// A replica which did not contact the master for one hour releases its snapshot
+	private final static long SESSION_EXPIRATION_MS = 60 * 60 * 1000;
+
+	// Each replica pins the files of a commit point, the number of replicas is bounded
+	private final static int MAX_REPLICAS = 32;
+
+	private final IndexWriter indexWriter;
+	private final SnapshotDeletionPolicy snapshotDeletionPolicy;
+	private final Directory dataDirectory;
+	private final File dataDirectoryFile;
+
+	private final Map<String, Session> sessions;
+
+	ReplicationMaster(final IndexWriter indexWriter, final SnapshotDeletionPolicy snapshotDeletionPolicy,
+			final Directory dataDirectory, final File dataDirectoryFile) {
+		this.indexWriter = indexWriter;
+		this.snapshotDeletionPolicy = snapshotDeletionPolicy;
+		this.dataDirectory = dataDirectory;
+		this.dataDirectoryFile = dataDirectoryFile;
+		this.sessions = new HashMap<>();
+	}
+
+	private static class Session {
+
+		private final IndexCommit commit;
+		private final ReplicationStatus status;
+		private volatile long lastContact;
+
+		private Session(final IndexCommit commit, final ReplicationStatus status) {
+			this.commit = commit;
+			this.status = status;
+			this.lastContact = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Take a snapshot of the last commit for the given replica, and release the previous one.
+	 *
+	 * @param replicaId the identifier of the replica
+	 * @return the generation and the files of the last commit
+	 * @throws IOException if any I/O error occurs
+	 */
+	synchronized ReplicationStatus getStatus(final String replicaId) throws IOException {
+		if (replicaId == null || replicaId.isEmpty())
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE, "The replica identifier is missing");
+		purgeExpiredSessions();
+		final Session session = sessions.get(replicaId);
+		if (session == null && sessions.size() >= MAX_REPLICAS)
+			throw new ServerException(Response.Status.SERVICE_UNAVAILABLE,
+					"Too many replicas (" + MAX_REPLICAS + "), the new replica is rejected: " + replicaId);
+		final IndexCommit commit = snapshotDeletionPolicy.snapshot();
+		if (session != null && session.commit.getGeneration() == commit.getGeneration()) {
+			snapshotDeletionPolicy.release(commit);
+			session.lastContact = System.currentTimeMillis();
+			return session.status;
+		}
+		final Session newSession;
+		try {
+			newSession = new Session(commit, new ReplicationStatus(commit.getGeneration(), getFiles(commit)));
+		} catch (IOException e) {
+			snapshotDeletionPolicy.release(commit);
+			throw e;
+		}
+		sessions.put(replicaId, newSession);
+		if (session != null)
+			release(session);
+		return newSession.status;
+	}
+
+	private LinkedHashMap<String, ReplicationStatus.Item> getFiles(final IndexCommit commit) throws IOException {
+		final LinkedHashMap<String, ReplicationStatus.Item> files = new LinkedHashMap<>();
+		for (String fileName : commit.getFileNames()) {
+			try (final IndexInput input = dataDirectory.openInput(fileName, IOContext.READONCE)) {
+				files.put(fileName, new ReplicationStatus.Item(input.length(), CodecUtil.retrieveChecksum(input)));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Open one file of the commit point held by the replica
+	 *
+	 * @param replicaId the identifier of the replica
+	 * @param fileName  the name of the file
+	 * @return a stream on the content of the file
+	 * @throws IOException if any I/O error occurs
+	 */
+	synchronized InputStream getFile(final String replicaId, final String fileName) throws IOException {
+		final Session session = sessions.get(replicaId);
+		if (session == null)
+			throw new ServerException(Response.Status.NOT_FOUND, "Unknown replica: " + replicaId);
+		if (!session.status.files.containsKey(fileName))
+			throw new ServerException(Response.Status.NOT_FOUND, "File not found: " + fileName);
+		session.lastContact = System.currentTimeMillis();
+		return new FileInputStream(new File(dataDirectoryFile, fileName));
+	}
+
+	/**
+	 * @return the generation currently replicated by each replica
+	 */
+	synchronized Map<String, Long> getReplicas() {
+		if (sessions.isEmpty())
+			return null;
+		final Map<String, Long> replicas = new TreeMap<>();
+		sessions.forEach((replicaId, session) -> replicas.put(replicaId, session.status.generation));
+		return replicas;
+	}
+
+	private void purgeExpiredSessions() throws IOException {
+		final long expiration = System.currentTimeMillis() - SESSION_EXPIRATION_MS;
+		final Iterator<Session> iterator = sessions.values().iterator();
+		while (iterator.hasNext()) {
+			final Session session = iterator.next();
+			if (session.lastContact >= expiration)
+				continue;
+			iterator.remove();
+			release(session);
+		}
+	}
+
+	private void release(final Session session) throws IOException {
+		snapshotDeletionPolicy.release(session.commit);
+		if (indexWriter.isOpen())
+			indexWriter.deleteUnusedFiles();
+	}
+
+}
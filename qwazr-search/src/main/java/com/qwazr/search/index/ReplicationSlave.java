@@ -0,0 +1,187 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.search.analysis.AnalyzerDefinition;
+import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.utils.http.HttpUtils;
+import com.qwazr.utils.server.ServerException;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The replica side of the replication. The files of the last commit point of the master are downloaded in the
+ * data directory of the replica. The segments file is downloaded last and renamed once the other files are synced,
+ * the same way the IndexWriter publishes a commit.
+ */
+class ReplicationSlave {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplicationSlave.class);
+
+	private final static String INDEXES_PATH = "/indexes/";
+
+	private final IndexSingleClient client;
+	private final String schemaName;
+	private final String indexName;
+	private final String replicaId;
+	private final Directory dataDirectory;
+
+	/**
+	 * @param masterUrl     the URL of the master index: http://host:port/indexes/{schema_name}/{index_name}
+	 * @param msTimeOut     the timeout of the HTTP requests
+	 * @param replicaId     the identifier of this replica
+	 * @param dataDirectory the data directory of the replica
+	 */
+	ReplicationSlave(final String masterUrl, final Integer msTimeOut, final String replicaId,
+			final Directory dataDirectory) {
+		try {
+			final URI uri = new URI(masterUrl);
+			final String path = uri.getPath();
+			final int i = path == null ? -1 : path.lastIndexOf(INDEXES_PATH);
+			final String[] names = i == -1 ? null : path.substring(i + INDEXES_PATH.length()).split("/");
+			if (names == null || names.length != 2 || names[0].isEmpty() || names[1].isEmpty())
+				throw new URISyntaxException(masterUrl, "The path should be /indexes/{schema_name}/{index_name}");
+			this.schemaName = names[0];
+			this.indexName = names[1];
+			this.client = new IndexSingleClient(
+					new URI(uri.getScheme(), null, uri.getHost(), uri.getPort(), path.substring(0, i), null, null)
+							.toString(), msTimeOut == null ? 60000 : msTimeOut);
+		} catch (URISyntaxException e) {
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+					"Wrong replication master: " + e.getMessage());
+		}
+		this.replicaId = replicaId;
+		this.dataDirectory = dataDirectory;
+	}
+
+	LinkedHashMap<String, FieldDefinition> getMasterFields() {
+		return client.getFields(schemaName, indexName);
+	}
+
+	LinkedHashMap<String, AnalyzerDefinition> getMasterAnalyzers() {
+		return client.getAnalyzers(schemaName, indexName);
+	}
+
+	/**
+	 * Download the files of the last commit point of the master which are missing or different.
+	 *
+	 * @return the replicated commit point, with the number of downloaded files
+	 * @throws IOException if any I/O error occurs
+	 */
+	ReplicationStatus update() throws IOException {
+		final ReplicationStatus status = client.getReplicationStatus(schemaName, indexName, replicaId);
+		if (status == null || status.generation == null || status.files == null)
+			throw new IOException("Wrong replication status from the master");
+		String segmentsFile = null;
+		final List<String> downloadedFiles = new ArrayList<>();
+		for (Map.Entry<String, ReplicationStatus.Item> entry : status.files.entrySet()) {
+			final String fileName = entry.getKey();
+			if (fileName.startsWith(IndexFileNames.SEGMENTS)) {
+				segmentsFile = fileName;
+				continue;
+			}
+			if (entry.getValue().same(getLocalItem(fileName)))
+				continue;
+			download(fileName, fileName, entry.getValue());
+			downloadedFiles.add(fileName);
+		}
+		if (segmentsFile == null)
+			throw new IOException("The commit point of the master has no segments file");
+		final ReplicationStatus.Item segmentsItem = status.files.get(segmentsFile);
+		if (downloadedFiles.isEmpty() && segmentsItem.same(getLocalItem(segmentsFile)))
+			return new ReplicationStatus(status, 0);
+
+		// The segments file is published once the files of the commit are durable
+		dataDirectory.sync(downloadedFiles);
+		final String pendingFile = IndexFileNames.PENDING_SEGMENTS + segmentsFile.substring(
+				IndexFileNames.SEGMENTS.length());
+		download(segmentsFile, pendingFile, segmentsItem);
+		dataDirectory.sync(Collections.singleton(pendingFile));
+		dataDirectory.renameFile(pendingFile, segmentsFile);
+
+		// Only the replicated commit point is kept, the searcher opens the last generation
+		for (String fileName : dataDirectory.listAll())
+			if (fileName.startsWith(IndexFileNames.SEGMENTS) && !fileName.equals(segmentsFile))
+				deleteQuietly(fileName);
+		return new ReplicationStatus(status, downloadedFiles.size() + 1);
+	}
+
+	/**
+	 * Delete the index files which are not part of the replicated commit point.
+	 * Should be called once the searcher has been refreshed.
+	 *
+	 * @param status the replicated commit point
+	 * @throws IOException if any I/O error occurs
+	 */
+	void purge(final ReplicationStatus status) throws IOException {
+		for (String fileName : dataDirectory.listAll())
+			if (!status.files.containsKey(fileName) && IndexFileNames.CODEC_FILE_PATTERN.matcher(fileName).matches())
+				deleteQuietly(fileName);
+	}
+
+	private ReplicationStatus.Item getLocalItem(final String fileName) {
+		try (final IndexInput input = dataDirectory.openInput(fileName, IOContext.READONCE)) {
+			return new ReplicationStatus.Item(input.length(), CodecUtil.retrieveChecksum(input));
+		} catch (IOException e) {
+			// Missing or incomplete file
+			return null;
+		}
+	}
+
+	private void download(final String remoteName, final String localName, final ReplicationStatus.Item item)
+			throws IOException {
+		deleteQuietly(localName);
+		client.getReplicationFile(schemaName, indexName, replicaId, remoteName, response -> {
+			HttpUtils.checkStatusCodes(response, 200);
+			try (final InputStream input = response.getEntity().getContent();
+					final IndexOutput output = dataDirectory.createOutput(localName, IOContext.DEFAULT)) {
+				final byte[] buffer = new byte[65536];
+				int length;
+				while ((length = input.read(buffer)) != -1)
+					output.writeBytes(buffer, 0, length);
+			}
+			return null;
+		});
+		if (!item.same(getLocalItem(localName)))
+			throw new IOException("The replicated file is corrupted: " + remoteName);
+	}
+
+	private void deleteQuietly(final String fileName) {
+		try {
+			dataDirectory.deleteFile(fileName);
+		} catch (IOException e) {
+			if (logger.isDebugEnabled())
+				logger.debug("Cannot delete " + fileName + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.LinkedHashMap;
+
+/**
+ * The commit point a master index exposes to one of its replicas: the generation of the commit and the files
+ * which compose it.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class ReplicationStatus {
+
+	final public Long generation;
+	final public LinkedHashMap<String, Item> files;
+
+	/**
+	 * The number of files downloaded by the replica
+	 */
+	final public Integer downloaded_files;
+
+	public ReplicationStatus() {
+		generation = null;
+		files = null;
+		downloaded_files = null;
+	}
+
+	ReplicationStatus(long generation, LinkedHashMap<String, Item> files) {
+		this.generation = generation;
+		this.files = files;
+		this.downloaded_files = null;
+	}
+
+	ReplicationStatus(ReplicationStatus status, int downloadedFiles) {
+		this.generation = status.generation;
+		this.files = status.files;
+		this.downloaded_files = downloadedFiles;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public static class Item {
+
+		final public Long length;
+		final public Long checksum;
+
+		public Item() {
+			length = null;
+			checksum = null;
+		}
+
+		Item(long length, long checksum) {
+			this.length = length;
+			this.checksum = checksum;
+		}
+
+		final boolean same(final Item item) {
+			return item != null && length != null && checksum != null && length.equals(item.length) &&
+					checksum.equals(item.checksum);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.qwazr.utils.json.JsonMapper;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A LRU cache of the results of the queries.
+ * The key is the JSON form of the query plus the version of the index reader, a refreshed reader never hits an
+ * entry computed by a previous reader. The cache is bounded by a number of entries and by a number of bytes (an
+ * estimate of the size of the results, computed from the number and the length of the returned values).
+ */
+class ResultCache {
+
+	private final static ObjectWriter WRITER = JsonMapper.MAPPER.writer().without(SerializationFeature.INDENT_OUTPUT);
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final LinkedHashMap<Key, Entry> entries;
+
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	ResultCache(final int maxEntries, final Long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes == null ? Long.MAX_VALUE : maxBytes;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.bytes = 0;
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+	}
+
+	static class Key {
+
+		private final long version;
+		private final String query;
+		private final int hashCode;
+
+		private Key(final long version, final String query) {
+			this.version = version;
+			this.query = query;
+			this.hashCode = 31 * Long.hashCode(version) + query.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			final Key key = (Key) o;
+			return version == key.version && hashCode == key.hashCode && query.equals(key.query);
+		}
+	}
+
+	private static class Entry {
+
+		private final ResultDefinition.WithMap result;
+		private final long bytes;
+
+		private Entry(final ResultDefinition.WithMap result, final long bytes) {
+			this.result = result;
+			this.bytes = bytes;
+		}
+	}
+
+	final static Key getKey(final long version, final QueryDefinition queryDefinition)
+			throws JsonProcessingException {
+		return new Key(version, WRITER.writeValueAsString(queryDefinition));
+	}
+
+	final synchronized ResultDefinition.WithMap get(final Key key) {
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.result;
+	}
+
+	final void put(final Key key, final ResultDefinition.WithMap result) {
+		final long entryBytes = key.query.length() + estimateBytes(result);
+		if (entryBytes > maxBytes)
+			return;
+		synchronized (this) {
+			final Entry oldEntry = entries.put(key, new Entry(result, entryBytes));
+			if (oldEntry != null)
+				bytes -= oldEntry.bytes;
+			bytes += entryBytes;
+			final Iterator<Entry> iterator = entries.values().iterator();
+			while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+				bytes -= iterator.next().bytes;
+				iterator.remove();
+				evictions++;
+			}
+		}
+	}
+
+	// The fixed size of a number, a boolean, or a value of an unknown type
+	private final static int VALUE_BYTES = 8;
+
+	private static long estimateBytes(final ResultDefinition.WithMap result) {
+		long bytes = VALUE_BYTES * 4 + estimateBytes(result.query) + estimateBytes(result.next_cursor);
+		if (result.documents != null) {
+			for (ResultDocumentMap document : result.documents)
+				bytes += VALUE_BYTES * 2 + estimateBytes(document.fields) + estimateBytes(document.highlights) +
+						estimateBytes(document.sort_values);
+		}
+		bytes += estimateBytes(result.facets) + estimateBytes(result.aggregations);
+		if (result.functions != null)
+			bytes += result.functions.size() * VALUE_BYTES * 4;
+		return bytes;
+	}
+
+	private static long estimateBytes(final Object value) {
+		if (value == null)
+			return 0;
+		if (value instanceof CharSequence)
+			return ((CharSequence) value).length();
+		if (value instanceof byte[])
+			return ((byte[]) value).length;
+		if (value instanceof Map) {
+			long bytes = 0;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+				bytes += estimateBytes(entry.getKey()) + estimateBytes(entry.getValue());
+			return bytes;
+		}
+		if (value instanceof Collection) {
+			long bytes = 0;
+			for (Object item : (Collection<?>) value)
+				bytes += estimateBytes(item);
+			return bytes;
+		}
+		if (value instanceof Object[]) {
+			long bytes = 0;
+			for (Object item : (Object[]) value)
+				bytes += estimateBytes(item);
+			return bytes;
+		}
+		return VALUE_BYTES;
+	}
+
+	final synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	final synchronized ResultCacheStatus getStatus() {
+		return new ResultCacheStatus(entries.size(), bytes, hits, misses, evictions);
+	}
+}
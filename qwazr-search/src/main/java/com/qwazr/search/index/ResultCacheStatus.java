@@ -0,0 +1,41 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+public class ResultCacheStatus {
+
+	final public Integer entries;
+	final public Long bytes;
+	final public Long hits;
+	final public Long misses;
+	final public Long evictions;
+
+	public ResultCacheStatus() {
+		entries = null;
+		bytes = null;
+		hits = null;
+		misses = null;
+		evictions = null;
+	}
+
+	ResultCacheStatus(int entries, long bytes, long hits, long misses, long evictions) {
+		this.entries = entries;
+		this.bytes = bytes;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+}
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+@JsonInclude(Include.NON_NULL)
 public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 
 	final public TimeTracker.Status timer;
@@ -30,8 +31,13 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 	final public Float max_score;
 	final public List<T> documents;
 	final public Map<String, Map<String, Number>> facets;
+	final public Map<String, Map<String, Number>> aggregations;
 	final public String query;
 	final public List<Function> functions;
+	final public String next_cursor;
+	final public Boolean timed_out;
+	final public Boolean terminated_early;
+	final public List<QueryProfile> profile;
 
 	public static class Function extends QueryDefinition.Function {
 
@@ -45,6 +51,11 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 			super(functionCollector.function);
 			this.value = functionCollector.getValue();
 		}
+
+		Function(QueryDefinition.Function function, Object value) {
+			super(function);
+			this.value = value;
+		}
 	}
 
 	public ResultDefinition() {
@@ -52,9 +63,14 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 		this.total_hits = null;
 		this.documents = null;
 		this.facets = null;
+		this.aggregations = null;
 		this.functions = null;
 		this.max_score = null;
 		this.query = null;
+		this.next_cursor = null;
+		this.timed_out = null;
+		this.terminated_early = null;
+		this.profile = null;
 	}
 
 	protected ResultDefinition(final ResultDefinitionBuilder<T> builder) {
@@ -64,7 +80,12 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 		this.max_score = builder.maxScore;
 		this.documents = builder.documents;
 		this.facets = builder.facets;
+		this.aggregations = builder.aggregations;
 		this.functions = builder.functions;
+		this.next_cursor = builder.nextCursor;
+		this.timed_out = builder.timedOut;
+		this.terminated_early = builder.terminatedEarly;
+		this.profile = builder.profile;
 	}
 
 	ResultDefinition(TimeTracker timeTracker) {
@@ -72,18 +93,46 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 		total_hits = 0L;
 		documents = Collections.emptyList();
 		facets = null;
+		aggregations = null;
 		functions = null;
 		max_score = null;
+		next_cursor = null;
+		timed_out = null;
+		terminated_early = null;
+		profile = null;
 		this.timer = timeTracker != null ? timeTracker.getStatus() : null;
 	}
 
+	protected ResultDefinition(final TimeTracker timeTracker, final Long total_hits, final Float max_score,
+			final List<T> documents, final Map<String, Map<String, Number>> facets,
+			final Map<String, Map<String, Number>> aggregations, final List<Function> functions, final String query,
+			final Boolean timed_out, final Boolean terminated_early) {
+		this.query = query;
+		this.total_hits = total_hits;
+		this.max_score = max_score;
+		this.documents = documents;
+		this.facets = facets;
+		this.aggregations = aggregations;
+		this.functions = functions;
+		this.timer = timeTracker != null ? timeTracker.getStatus() : null;
+		this.next_cursor = null;
+		this.timed_out = timed_out;
+		this.terminated_early = terminated_early;
+		this.profile = null;
+	}
+
 	protected ResultDefinition(long total_hits) {
 		query = null;
 		this.total_hits = total_hits;
 		documents = Collections.emptyList();
 		facets = null;
+		aggregations = null;
 		functions = null;
 		max_score = null;
+		next_cursor = null;
+		timed_out = null;
+		terminated_early = null;
+		profile = null;
 		this.timer = null;
 	}
 
@@ -103,6 +152,22 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 		return facets;
 	}
 
+	public Map<String, Map<String, Number>> getAggregations() {
+		return aggregations;
+	}
+
+	public Boolean getTimed_out() {
+		return timed_out;
+	}
+
+	public Boolean getTerminated_early() {
+		return terminated_early;
+	}
+
+	public List<QueryProfile> getProfile() {
+		return profile;
+	}
+
 	public TimeTracker.Status getTimer() {
 		return timer;
 	}
@@ -111,6 +176,10 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 		return query;
 	}
 
+	public String getNext_cursor() {
+		return next_cursor;
+	}
+
 	@JsonInclude(Include.NON_NULL)
 	public static class WithMap extends ResultDefinition<ResultDocumentMap> {
 
@@ -124,6 +193,14 @@ public abstract class ResultDefinition<T extends ResultDocumentAbstract> {
 		WithMap(long totalHits) {
 			super(totalHits);
 		}
+
+		WithMap(final TimeTracker timeTracker, final Long totalHits, final Float maxScore,
+				final List<ResultDocumentMap> documents, final Map<String, Map<String, Number>> facets,
+				final Map<String, Map<String, Number>> aggregations, final List<Function> functions,
+				final String query, final Boolean timedOut, final Boolean terminatedEarly) {
+			super(timeTracker, totalHits, maxScore, documents, facets, aggregations, functions, query, timedOut,
+					terminatedEarly);
+		}
 	}
 
 	public static class WithObject<T> extends ResultDefinition<ResultDocumentObject<T>> {
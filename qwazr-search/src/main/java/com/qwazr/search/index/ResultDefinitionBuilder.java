@@ -19,9 +19,8 @@ import com.qwazr.search.field.FieldTypeInterface;
 import com.qwazr.search.field.ValueConverter;
 import com.qwazr.utils.StringUtils;
 import com.qwazr.utils.TimeTracker;
-import com.qwazr.utils.server.ServerException;
-import org.apache.lucene.index.LeafReader;
-import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
@@ -29,7 +28,6 @@ import org.apache.lucene.search.TopDocs;
 import java.io.IOException;
 import java.util.*;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
 
 class ResultDefinitionBuilder<T extends ResultDocumentAbstract> {
 
@@ -50,13 +48,19 @@ class ResultDefinitionBuilder<T extends ResultDocumentAbstract> {
 	final TimeTracker.Status timeTrackerStatus;
 	final Long totalHits;
 	final Float maxScore;
+	final String nextCursor;
+	final Boolean timedOut;
+	final Boolean terminatedEarly;
+	final List<QueryProfile> profile;
 	final LinkedHashMap<String, Map<String, Number>> facets;
+	final LinkedHashMap<String, Map<String, Number>> aggregations;
 
 	ResultDefinitionBuilder(final QueryDefinition queryDefinition, final TopDocs topDocs,
 			final IndexSearcher indexSearcher, final Query luceneQuery, final Map<String, HighlighterImpl> highlighters,
 			final Collection<FunctionCollector> functionsCollector, final Map<String, FieldTypeInterface> fieldMap,
 			final TimeTracker timeTracker, final ResultDocumentBuilder.BuilderFactory documentBuilderFactory,
-			final FacetsBuilder facetsBuilder, Integer totalHits) throws IOException {
+			final FacetsBuilder facetsBuilder, final AggregationsCollector aggregationsCollector, Integer totalHits,
+			final SearchBudget budget, final List<QueryProfile> profile) throws IOException {
 
 		this.queryDefinition = queryDefinition;
 		this.topDocs = topDocs;
@@ -87,8 +91,13 @@ class ResultDefinitionBuilder<T extends ResultDocumentAbstract> {
 			this.documents = null;
 
 		this.facets = facetsBuilder == null ? null : facetsBuilder.results;
+		this.aggregations = aggregationsCollector == null ? null : aggregationsCollector.getResults();
 		this.functions = buildFunctions();
 		this.queryDebug = buildQueryDebug();
+		this.nextCursor = buildNextCursor();
+		this.timedOut = budget == null ? null : budget.getTimedOut();
+		this.terminatedEarly = budget == null ? null : budget.getTerminatedEarly();
+		this.profile = profile;
 
 		this.timeTrackerStatus = timeTracker == null ? null : timeTracker.getStatus();
 	}
@@ -98,10 +107,8 @@ class ResultDefinitionBuilder<T extends ResultDocumentAbstract> {
 			return null;
 		if (topDocs.scoreDocs == null)
 			return null;
-		int pos = queryDefinition.start == null ? 0 : queryDefinition.start;
-		int end = queryDefinition.getEnd();
-		if (end > topDocs.totalHits)
-			end = topDocs.totalHits;
+		int pos = queryDefinition.getFirstHit();
+		final int end = Math.min(queryDefinition.getNumHits(), topDocs.scoreDocs.length);
 		final int size = end - pos;
 		if (size <= 0)
 			return new ResultDocumentBuilder[0];
@@ -149,29 +156,41 @@ class ResultDefinitionBuilder<T extends ResultDocumentAbstract> {
 			timeTracker.next("storedFields");
 	}
 
+	/**
+	 * The doc values are read from the segments. The documents are visited in doc id order, segment by segment.
+	 */
 	final private void buildDocValueReturnedFields() throws IOException {
-		LeafReader leafReader = SlowCompositeReaderWrapper.wrap(indexSearcher.getIndexReader());
+		final Map<String, FieldTypeInterface> fieldTypes = new LinkedHashMap<>();
+		for (String fieldName : queryDefinition.returned_fields) {
+			final FieldTypeInterface fieldType = fieldMap.get(fieldName);
+			if (fieldType != null)
+				fieldTypes.put(fieldName, fieldType);
+		}
+		if (fieldTypes.isEmpty())
+			return;
 
-		queryDefinition.returned_fields.forEach(new Consumer<String>() {
-			@Override
-			public void accept(final String fieldName) {
-				FieldTypeInterface fieldType = fieldMap.get(fieldName);
-				if (fieldType == null)
-					return;
-				ValueConverter converter = null;
-				try {
-					converter = fieldType.getConverter(leafReader);
-				} catch (IOException e) {
-					throw new ServerException(e);
-				}
+		final ResultDocumentBuilder<T>[] builders = resultDocumentBuilders.clone();
+		Arrays.sort(builders, (builder1, builder2) -> Integer.compare(builder1.scoreDoc.doc, builder2.scoreDoc.doc));
+
+		final List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+		int start = 0;
+		while (start < builders.length) {
+			final LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(builders[start].scoreDoc.doc, leaves));
+			final int leafEnd = leaf.docBase + leaf.reader().maxDoc();
+			int end = start + 1;
+			while (end < builders.length && builders[end].scoreDoc.doc < leafEnd)
+				end++;
+			for (Map.Entry<String, FieldTypeInterface> entry : fieldTypes.entrySet()) {
+				final ValueConverter converter = entry.getValue().getConverter(leaf.reader());
 				if (converter == null)
-					return;
-				for (ResultDocumentBuilder resultDocumentBuilder : resultDocumentBuilders)
-					resultDocumentBuilder
-							.setReturnedField(fieldName, converter.convert(resultDocumentBuilder.scoreDoc.doc));
-
+					continue;
+				for (int i = start; i < end; i++) {
+					final int leafDoc = builders[i].scoreDoc.doc - leaf.docBase;
+					builders[i].setReturnedField(entry.getKey(), converter.convert(leafDoc));
+				}
 			}
-		});
+			start = end;
+		}
 		if (timeTracker != null)
 			timeTracker.next("docValuesFields");
 	}
@@ -184,6 +203,18 @@ class ResultDefinitionBuilder<T extends ResultDocumentAbstract> {
 		return luceneQuery.toString(StringUtils.EMPTY);
 	}
 
+	/**
+	 * The cursor is only returned if the page is full, as more documents may follow
+	 */
+	final private String buildNextCursor() throws IOException {
+		if (topDocs == null || topDocs.scoreDocs == null)
+			return null;
+		final int numHits = queryDefinition.getNumHits();
+		if (numHits == 0 || topDocs.scoreDocs.length < numHits)
+			return null;
+		return CursorUtils.toCursor(topDocs.scoreDocs[numHits - 1]);
+	}
+
 	final private List<ResultDefinition.Function> buildFunctions() {
 		if (functionsCollector == null || functionsCollector.isEmpty())
 			return null;
@@ -0,0 +1,371 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.utils.TimeTracker;
+
+import java.util.*;
+
+/**
+ * Merge the results returned by several nodes for the same query.
+ * The documents are merged using the score or the sort values, the total hits and the facet counts are summed, and
+ * the function values are combined.
+ */
+class ResultDefinitionMerger {
+
+	private final QueryDefinition queryDef;
+	private final Collection<ResultDefinition.WithMap> results;
+	private final boolean timedOut;
+	private final boolean[] descendings;
+	private final Boolean[] missingFirsts;
+
+	/**
+	 * @param queryDef the query of the client
+	 * @param results  the results returned by the nodes
+	 * @param timedOut true if some nodes did not answer before the timeout
+	 */
+	ResultDefinitionMerger(final QueryDefinition queryDef, final Collection<ResultDefinition.WithMap> results,
+			final boolean timedOut) {
+		this.queryDef = queryDef;
+		this.results = results;
+		this.timedOut = timedOut;
+		if (queryDef.sorts == null || queryDef.sorts.isEmpty()) {
+			descendings = null;
+			missingFirsts = null;
+		} else {
+			descendings = new boolean[queryDef.sorts.size()];
+			missingFirsts = new Boolean[queryDef.sorts.size()];
+			int i = 0;
+			for (QueryDefinition.SortEnum sortEnum : queryDef.sorts.values()) {
+				switch (sortEnum) {
+				case descending:
+					descendings[i] = true;
+					break;
+				case descending_missing_first:
+					descendings[i] = true;
+					missingFirsts[i] = true;
+					break;
+				case descending_missing_last:
+					descendings[i] = true;
+					missingFirsts[i] = false;
+					break;
+				case ascending_missing_first:
+					missingFirsts[i] = true;
+					break;
+				case ascending_missing_last:
+					missingFirsts[i] = false;
+					break;
+				}
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Build the query sent to each node. Each node must return the documents from the first one to the last requested
+	 * one. The number of facet values requested from each node is increased to improve the accuracy of the merged
+	 * top values. An average can't be merged, the nodes are asked for the stats instead.
+	 *
+	 * @param queryDef the query of the client
+	 * @return the query to send to the nodes
+	 */
+	static QueryDefinition getNodeQuery(final QueryDefinition queryDef) {
+		final QueryBuilder builder = new QueryBuilder(queryDef);
+		builder.setStart(0);
+		builder.setRows(queryDef.getEnd());
+		if (queryDef.facets != null) {
+			final LinkedHashMap<String, FacetDefinition> facets = new LinkedHashMap<>();
+			queryDef.facets.forEach((dim, facetDef) -> {
+				if (facetDef.queries != null && !facetDef.queries.isEmpty())
+					facets.put(dim, facetDef);
+				else
+					facets.put(dim, new FacetDefinition(getNodeTop(facetDef) * 3 / 2 + 10, null));
+			});
+			builder.setFacets(facets);
+		}
+		if (queryDef.functions != null) {
+			final ArrayList<QueryDefinition.Function> functions = new ArrayList<>(queryDef.functions.size());
+			for (QueryDefinition.Function function : queryDef.functions)
+				functions.add(function.function == QueryDefinition.Function.FunctionEnum.avg ?
+						new QueryDefinition.Function(QueryDefinition.Function.FunctionEnum.stats, function.field) :
+						function);
+			builder.functions = functions;
+		}
+		return builder.build();
+	}
+
+	private static int getNodeTop(final FacetDefinition facetDef) {
+		return facetDef.top == null ? 10 : facetDef.top;
+	}
+
+	final ResultDefinition.WithMap merge(final TimeTracker timeTracker) {
+		final Long totalHits = mergeTotalHits();
+		final Float maxScore = mergeMaxScore();
+		final List<ResultDocumentMap> documents = mergeDocuments();
+		if (timeTracker != null)
+			timeTracker.next("merge_documents");
+		final Map<String, Map<String, Number>> facets = mergeFacets();
+		final Map<String, Map<String, Number>> aggregations = mergeAggregations();
+		final List<ResultDefinition.Function> functions = mergeFunctions();
+		if (timeTracker != null)
+			timeTracker.next("merge_facets_functions");
+		String query = null;
+		boolean timedOut = this.timedOut;
+		boolean terminatedEarly = false;
+		for (ResultDefinition.WithMap result : results) {
+			if (query == null)
+				query = result.query;
+			if (result.timed_out != null && result.timed_out)
+				timedOut = true;
+			if (result.terminated_early != null && result.terminated_early)
+				terminatedEarly = true;
+		}
+		return new ResultDefinition.WithMap(timeTracker, totalHits, maxScore, documents, facets, aggregations,
+				functions, query, timedOut ? true : null, terminatedEarly ? true : null);
+	}
+
+	private Long mergeTotalHits() {
+		Long totalHits = null;
+		for (ResultDefinition.WithMap result : results)
+			if (result.total_hits != null)
+				totalHits = totalHits == null ? result.total_hits : totalHits + result.total_hits;
+		return totalHits;
+	}
+
+	private Float mergeMaxScore() {
+		Float maxScore = null;
+		for (ResultDefinition.WithMap result : results)
+			if (result.max_score != null && (maxScore == null || result.max_score > maxScore))
+				maxScore = result.max_score;
+		return maxScore;
+	}
+
+	private List<ResultDocumentMap> mergeDocuments() {
+		final List<ResultDocumentMap> documents = new ArrayList<>();
+		for (ResultDefinition.WithMap result : results)
+			if (result.documents != null)
+				documents.addAll(result.documents);
+		// The sort is stable: the order of the documents coming from the same node is kept
+		documents.sort(descendings == null ? this::compareScores : this::compareSortValues);
+		final int start = queryDef.start == null ? 0 : queryDef.start;
+		if (start >= documents.size())
+			return Collections.emptyList();
+		return documents.subList(start, Math.min(queryDef.getEnd(), documents.size()));
+	}
+
+	private int compareScores(final ResultDocumentAbstract doc1, final ResultDocumentAbstract doc2) {
+		if (doc1.score == null)
+			return doc2.score == null ? 0 : 1;
+		if (doc2.score == null)
+			return -1;
+		return Float.compare(doc2.score, doc1.score);
+	}
+
+	private int compareSortValues(final ResultDocumentAbstract doc1, final ResultDocumentAbstract doc2) {
+		for (int i = 0; i < descendings.length; i++) {
+			final Object value1 = getSortValue(doc1, i);
+			final Object value2 = getSortValue(doc2, i);
+			int c;
+			if (value1 == null || value2 == null) {
+				if (value1 == value2)
+					continue;
+				// By default, a missing value is the lowest one
+				c = value1 == null ? -1 : 1;
+				if (missingFirsts[i] != null)
+					c = missingFirsts[i] ? c : -c;
+				else if (descendings[i])
+					c = -c;
+			} else {
+				c = compareValues(value1, value2);
+				if (descendings[i])
+					c = -c;
+			}
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+
+	private static Object getSortValue(final ResultDocumentAbstract doc, final int pos) {
+		return doc.sort_values == null || pos >= doc.sort_values.length ? null : doc.sort_values[pos];
+	}
+
+	private final static int compareValues(final Object value1, final Object value2) {
+		if (value1 instanceof Number && value2 instanceof Number) {
+			final Number number1 = (Number) value1;
+			final Number number2 = (Number) value2;
+			if (isIntegral(number1) && isIntegral(number2))
+				return Long.compare(number1.longValue(), number2.longValue());
+			return Double.compare(number1.doubleValue(), number2.doubleValue());
+		}
+		if (value1 instanceof Comparable && value1.getClass() == value2.getClass())
+			return ((Comparable) value1).compareTo(value2);
+		return value1.toString().compareTo(value2.toString());
+	}
+
+	private final static boolean isIntegral(final Number number) {
+		return number instanceof Long || number instanceof Integer || number instanceof Short
+				|| number instanceof Byte;
+	}
+
+	private Map<String, Map<String, Number>> mergeFacets() {
+		if (queryDef.facets == null)
+			return null;
+		final LinkedHashMap<String, Map<String, Number>> facets = new LinkedHashMap<>();
+		queryDef.facets.forEach((dim, facetDef) -> {
+			final LinkedHashMap<String, Number> counts = new LinkedHashMap<>();
+			for (ResultDefinition.WithMap result : results) {
+				if (result.facets == null)
+					continue;
+				final Map<String, Number> resultCounts = result.facets.get(dim);
+				if (resultCounts != null)
+					resultCounts.forEach((label, count) -> counts
+							.merge(label, count, (count1, count2) -> count1.intValue() + count2.intValue()));
+			}
+			if (facetDef.queries != null && !facetDef.queries.isEmpty())
+				facets.put(dim, counts);
+			else
+				facets.put(dim, getTopCounts(counts, getNodeTop(facetDef)));
+		});
+		return facets;
+	}
+
+	private static Map<String, Number> getTopCounts(final Map<String, Number> counts, final int top) {
+		final List<Map.Entry<String, Number>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort((entry1, entry2) -> Integer.compare(entry2.getValue().intValue(), entry1.getValue().intValue()));
+		final LinkedHashMap<String, Number> topCounts = new LinkedHashMap<>();
+		for (Map.Entry<String, Number> entry : entries) {
+			if (topCounts.size() >= top)
+				break;
+			topCounts.put(entry.getKey(), entry.getValue());
+		}
+		return topCounts;
+	}
+
+	private Map<String, Map<String, Number>> mergeAggregations() {
+		if (queryDef.aggregations == null)
+			return null;
+		final LinkedHashMap<String, Map<String, Number>> aggregations = new LinkedHashMap<>();
+		queryDef.aggregations.forEach((name, aggregationDef) -> {
+			final LinkedHashMap<String, Number> counts = new LinkedHashMap<>();
+			for (ResultDefinition.WithMap result : results) {
+				if (result.aggregations == null)
+					continue;
+				final Map<String, Number> resultCounts = result.aggregations.get(name);
+				if (resultCounts != null)
+					resultCounts.forEach((key, count) -> counts
+							.merge(key, count, (count1, count2) -> count1.intValue() + count2.intValue()));
+			}
+			if (aggregationDef.type == AggregationDefinition.TypeEnum.range)
+				aggregations.put(name, counts);
+			else
+				aggregations.put(name, getSortedBuckets(counts, aggregationDef.type));
+		});
+		return aggregations;
+	}
+
+	/**
+	 * The buckets of the nodes are interleaved, they are sorted again using their keys
+	 */
+	private static Map<String, Number> getSortedBuckets(final Map<String, Number> counts,
+			final AggregationDefinition.TypeEnum type) {
+		final List<Map.Entry<String, Number>> entries = new ArrayList<>(counts.entrySet());
+		if (type == AggregationDefinition.TypeEnum.histogram)
+			entries.sort((entry1, entry2) -> Double
+					.compare(Double.parseDouble(entry1.getKey()), Double.parseDouble(entry2.getKey())));
+		else
+			entries.sort(Map.Entry.comparingByKey());
+		final LinkedHashMap<String, Number> buckets = new LinkedHashMap<>();
+		for (Map.Entry<String, Number> entry : entries)
+			buckets.put(entry.getKey(), entry.getValue());
+		return buckets;
+	}
+
+	private List<ResultDefinition.Function> mergeFunctions() {
+		if (queryDef.functions == null || queryDef.functions.isEmpty())
+			return null;
+		final List<ResultDefinition.Function> functions = new ArrayList<>(queryDef.functions.size());
+		int i = 0;
+		for (QueryDefinition.Function function : queryDef.functions) {
+			Object value = null;
+			for (ResultDefinition.WithMap result : results) {
+				if (result.functions == null || i >= result.functions.size())
+					continue;
+				final Object resultValue = result.functions.get(i).value;
+				if (resultValue == null)
+					continue;
+				if (value == null)
+					value = resultValue;
+				else {
+					switch (function.function) {
+					case max:
+						if (compareValues(resultValue, value) > 0)
+							value = resultValue;
+						break;
+					case min:
+						if (compareValues(resultValue, value) < 0)
+							value = resultValue;
+						break;
+					case sum:
+					case count:
+					case value_count:
+						value = addValues((Number) value, (Number) resultValue);
+						break;
+					case avg:
+					case stats:
+						value = mergeStats((Map<String, Number>) value, (Map<String, Number>) resultValue);
+						break;
+					}
+				}
+			}
+			if (function.function == QueryDefinition.Function.FunctionEnum.avg && value != null)
+				value = ((Map<String, Number>) value).get("avg");
+			functions.add(new ResultDefinition.Function(function, value));
+			i++;
+		}
+		return functions;
+	}
+
+	private static Number addValues(final Number value1, final Number value2) {
+		if (value1 == null)
+			return value2;
+		if (value2 == null)
+			return value1;
+		if (isIntegral(value1) && isIntegral(value2))
+			return value1.longValue() + value2.longValue();
+		return value1.doubleValue() + value2.doubleValue();
+	}
+
+	private static Map<String, Number> mergeStats(final Map<String, Number> stats1, final Map<String, Number> stats2) {
+		final LinkedHashMap<String, Number> stats = new LinkedHashMap<>();
+		final Number count = addValues(stats1.get("count"), stats2.get("count"));
+		stats.put("count", count);
+		if (count == null || count.longValue() == 0)
+			return stats;
+		final Number min1 = stats1.get("min");
+		final Number min2 = stats2.get("min");
+		stats.put("min", min1 == null || (min2 != null && compareValues(min2, min1) < 0) ? min2 : min1);
+		final Number max1 = stats1.get("max");
+		final Number max2 = stats2.get("max");
+		stats.put("max", max1 == null || (max2 != null && compareValues(max2, max1) > 0) ? max2 : max1);
+		final Number sum = addValues(stats1.get("sum"), stats2.get("sum"));
+		stats.put("sum", sum);
+		stats.put("avg", sum.doubleValue() / count.longValue());
+		stats.put("sum_of_squares", addValues(stats1.get("sum_of_squares"), stats2.get("sum_of_squares")));
+		return stats;
+	}
+
+}
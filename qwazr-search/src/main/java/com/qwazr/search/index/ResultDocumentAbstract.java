@@ -16,6 +16,7 @@
 package com.qwazr.search.index;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.util.Map;
 
@@ -26,11 +27,14 @@ public abstract class ResultDocumentAbstract {
 	final private int doc;
 	final private int shard_index;
 	final public Map<String, String> highlights;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	final public Object[] sort_values;
 
 	public ResultDocumentAbstract() {
 		score = null;
 		percent_score = null;
 		highlights = null;
+		sort_values = null;
 		doc = -1;
 		shard_index = -1;
 	}
@@ -39,6 +43,7 @@ public abstract class ResultDocumentAbstract {
 		this.score = builder.scoreDoc.score;
 		this.percent_score = builder.percent_score;
 		highlights = builder.highlights;
+		sort_values = builder.sortValues;
 		this.doc = builder.scoreDoc.doc;
 		this.shard_index = builder.scoreDoc.shardIndex;
 	}
@@ -74,5 +79,9 @@ public abstract class ResultDocumentAbstract {
 	final public Map<String, String> getHighlights() {
 		return highlights;
 	}
-	
+
+	final public Object[] getSort_values() {
+		return sort_values;
+	}
+
 }
@@ -17,7 +17,9 @@ package com.qwazr.search.index;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
 
 import java.lang.reflect.Field;
 import java.util.LinkedHashMap;
@@ -29,6 +31,7 @@ abstract class ResultDocumentBuilder<T extends ResultDocumentAbstract> implement
 	final int pos;
 	final ScoreDoc scoreDoc;
 	final Float percent_score;
+	final Object[] sortValues;
 
 	Map<String, String> highlights;
 
@@ -39,6 +42,27 @@ abstract class ResultDocumentBuilder<T extends ResultDocumentAbstract> implement
 			this.percent_score = scoreDoc.score == 0 ? 0 : scoreDoc.score / maxScore;
 		else
 			this.percent_score = null;
+		this.sortValues = getSortValues(scoreDoc);
+	}
+
+	/**
+	 * The sort values are exposed so that results coming from several nodes can be merged
+	 *
+	 * @param scoreDoc the current document
+	 * @return the sort values of the document, or null if the result is sorted by relevance
+	 */
+	private static Object[] getSortValues(final ScoreDoc scoreDoc) {
+		if (!(scoreDoc instanceof FieldDoc))
+			return null;
+		final Object[] fields = ((FieldDoc) scoreDoc).fields;
+		if (fields == null)
+			return null;
+		final Object[] values = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			final Object field = fields[i];
+			values[i] = field instanceof BytesRef ? ((BytesRef) field).utf8ToString() : field;
+		}
+		return values;
 	}
 
 	final void setHighlight(final String name, final String snippet) {
@@ -89,11 +113,11 @@ abstract class ResultDocumentBuilder<T extends ResultDocumentAbstract> implement
 	static class ObjectBuilderFactory<T> extends BuilderFactory<ResultDocumentObject<T>> {
 
 		private final Class<T> objectClass;
-		private final Map<String, Field> fieldMap;
+		private final Map<String, FieldAccessor> fieldMap;
 
 		private ObjectBuilderFactory(final Class<T> objectClass, final Map<String, Field> fieldMap) {
 			this.objectClass = objectClass;
-			this.fieldMap = fieldMap;
+			this.fieldMap = FieldAccessor.of(fieldMap);
 		}
 
 		@Override
@@ -18,7 +18,6 @@ package com.qwazr.search.index;
 import com.qwazr.utils.server.ServerException;
 import org.apache.lucene.search.ScoreDoc;
 
-import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.Map;
 
@@ -37,16 +36,12 @@ public class ResultDocumentObject<T> extends ResultDocumentAbstract {
 	static class Builder<T> extends ResultDocumentBuilder<ResultDocumentObject<T>> {
 
 		private final T record;
-		private final Map<String, Field> fieldMap;
+		private final Map<String, FieldAccessor> fieldMap;
 
 		Builder(final int pos, final ScoreDoc scoreDoc, final float maxScore, final Class<T> objectClass,
-				Map<String, Field> fieldMap) {
+				Map<String, FieldAccessor> fieldMap) {
 			super(pos, scoreDoc, maxScore);
-			try {
-				this.record = objectClass.newInstance();
-			} catch (ReflectiveOperationException e) {
-				throw new ServerException(e);
-			}
+			this.record = FieldAccessor.newInstance(objectClass);
 			this.fieldMap = fieldMap;
 		}
 
@@ -57,11 +52,11 @@ public class ResultDocumentObject<T> extends ResultDocumentAbstract {
 
 		@Override
 		final void setReturnedField(final String fieldName, final Object fieldValue) {
-			Field field = fieldMap.get(fieldName);
+			final FieldAccessor field = fieldMap.get(fieldName);
 			if (field == null)
 				throw new ServerException("Unknown field " + fieldName + " for class " + record.getClass());
 			try {
-				final Class<?> type = field.getType();
+				final Class<?> type = field.type;
 				if (type.isAssignableFrom(fieldValue.getClass()))
 					field.set(record, fieldValue);
 				else {
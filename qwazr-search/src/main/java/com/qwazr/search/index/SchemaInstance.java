@@ -25,7 +25,6 @@ import com.qwazr.utils.server.ServerException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -40,12 +39,20 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SchemaInstance implements Closeable {
@@ -55,8 +62,11 @@ public class SchemaInstance implements Closeable {
 	private final static String SETTINGS_FILE = "settings.json";
 
 	private final ConcurrentHashMap<String, IndexInstance> indexMap;
+	private final ConcurrentHashMap<String, ShardedIndex> shardedMap;
 
 	private final ExecutorService executorService;
+	private final ExecutorService searchExecutorService;
+	private final ScheduledExecutorService scheduledExecutorService;
 	private final File schemaDirectory;
 	private final File settingsFile;
 	private volatile SchemaSettingsDefinition settingsDefinition;
@@ -65,9 +75,12 @@ public class SchemaInstance implements Closeable {
 	private volatile Semaphore writeSemaphore;
 
 	private volatile SearchContext searchContext = null;
+	private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+	private boolean closed = false;
 
 	private class SearchContext implements Closeable, AutoCloseable {
 
+		private final IndexReader[] indexReaders;
 		private final MultiReader multiReader;
 		private final IndexSearcher indexSearcher;
 		private final Map<String, AnalyzerDefinition> analyzerMap;
@@ -75,8 +88,19 @@ public class SchemaInstance implements Closeable {
 		private final UpdatableAnalyzer queryAnalyzer;
 		private final AtomicInteger ref = new AtomicInteger(1);
 
-		private SearchContext() throws IOException, ServerException {
-			if (indexMap.isEmpty()) {
+		private boolean facetsStateLoaded = false;
+		private SortedSetDocValuesReaderState facetsState = null;
+
+		/**
+		 * Build a search context on top of the NRT readers of the indexes.
+		 *
+		 * @param indexReaders the current readers of the indexes, the context takes ownership of the references
+		 * @throws IOException
+		 * @throws ServerException
+		 */
+		private SearchContext(final IndexReader[] indexReaders) throws IOException, ServerException {
+			this.indexReaders = indexReaders;
+			if (indexReaders.length == 0) {
 				indexSearcher = null;
 				multiReader = null;
 				queryAnalyzer = null;
@@ -84,19 +108,45 @@ public class SchemaInstance implements Closeable {
 				fieldMap = null;
 				return;
 			}
-			IndexReader[] indexReaders = new IndexReader[indexMap.size()];
-			int i = 0;
 			analyzerMap = new HashMap<String, AnalyzerDefinition>();
 			fieldMap = new HashMap<String, FieldDefinition>();
-			for (IndexInstance indexInstance : indexMap.values()) {
-				indexReaders[i++] = DirectoryReader.open(indexInstance.getDataDirectory());
+			for (IndexInstance indexInstance : getIndexInstances()) {
 				indexInstance.fillFields(fieldMap);
 				indexInstance.fillAnalyzers(analyzerMap);
 			}
-			multiReader = new MultiReader(indexReaders);
-			indexSearcher = new IndexSearcher(multiReader);
 			AnalyzerContext analyzerContext = new AnalyzerContext(analyzerMap, fieldMap);
 			queryAnalyzer = new UpdatableAnalyzer(analyzerContext, analyzerContext.queryAnalyzerMap);
+			// The sub readers are shared with the SearcherManager of each index: they are released, not closed
+			multiReader = new MultiReader(indexReaders, false);
+			for (IndexReader indexReader : indexReaders)
+				indexReader.decRef();
+			final SchemaSettingsDefinition settings = settingsDefinition;
+			indexSearcher = settings != null && settings.isParallelSearch() ?
+					new ParallelIndexSearcher(multiReader, searchExecutorService) :
+					new IndexSearcher(multiReader);
+		}
+
+		/**
+		 * @param newReaders the current readers of the indexes
+		 * @return true if the readers are the ones used by this context
+		 */
+		private boolean isCurrent(final IndexReader[] newReaders) {
+			return Arrays.equals(indexReaders, newReaders);
+		}
+
+		/**
+		 * The facets state is built once per search context, at the first
+		 * request which needs it.
+		 *
+		 * @return the shared facets state, or null if there are no facets
+		 * @throws IOException
+		 */
+		private synchronized SortedSetDocValuesReaderState getFacetsState() throws IOException {
+			if (!facetsStateLoaded) {
+				facetsState = IndexUtils.getNewFacetsState(multiReader);
+				facetsStateLoaded = true;
+			}
+			return facetsState;
 		}
 
 		int numDocs() {
@@ -136,7 +186,7 @@ public class SchemaInstance implements Closeable {
 				return null;
 			incRef();
 			try {
-				SortedSetDocValuesReaderState state = IndexUtils.getNewFacetsState(indexSearcher.getIndexReader());
+				final SortedSetDocValuesReaderState state = getFacetsState();
 				final QueryContext queryContext = new QueryContext(indexSearcher, queryAnalyzer, state, queryDef);
 				return QueryUtils.search(queryContext, documentBuilderFactory);
 			} finally {
@@ -146,16 +196,20 @@ public class SchemaInstance implements Closeable {
 
 	}
 
-	SchemaInstance(ExecutorService executorService, File schemaDirectory)
+	SchemaInstance(ExecutorService executorService, ExecutorService searchExecutorService,
+			ScheduledExecutorService scheduledExecutorService, File schemaDirectory)
 			throws IOException, ServerException, InterruptedException, ReflectiveOperationException,
 			URISyntaxException {
 		this.executorService = executorService;
+		this.searchExecutorService = searchExecutorService;
+		this.scheduledExecutorService = scheduledExecutorService;
 		this.schemaDirectory = schemaDirectory;
 		if (!schemaDirectory.exists())
 			schemaDirectory.mkdir();
 		if (!schemaDirectory.exists())
 			throw new IOException("The directory does not exist: " + schemaDirectory.getName());
 		indexMap = new ConcurrentHashMap<String, IndexInstance>();
+		shardedMap = new ConcurrentHashMap<String, ShardedIndex>();
 
 		settingsFile = new File(schemaDirectory, SETTINGS_FILE);
 		settingsDefinition = settingsFile.exists() ?
@@ -166,26 +220,37 @@ public class SchemaInstance implements Closeable {
 		File[] directories = schemaDirectory.listFiles((FileFilter) DirectoryFileFilter.INSTANCE);
 		if (directories == null)
 			return;
-		for (File indexDirectory : directories)
-			indexMap.put(indexDirectory.getName(), IndexInstance.newInstance(this, indexDirectory, null));
+		for (File indexDirectory : directories) {
+			if (ShardedIndex.isSharded(indexDirectory))
+				shardedMap.put(indexDirectory.getName(), ShardedIndex.newInstance(this, indexDirectory, null));
+			else
+				indexMap.put(indexDirectory.getName(), IndexInstance.newInstance(this, indexDirectory, null));
+		}
 		mayBeRefresh();
 	}
 
 	@Override
 	public void close() throws IOException {
-		if (searchContext != null) {
-			searchContext.close();
-			searchContext = null;
+		synchronized (this) {
+			closed = true;
+			if (searchContext != null) {
+				searchContext.close();
+				searchContext = null;
+			}
 		}
 		synchronized (indexMap) {
 			for (IndexInstance instance : indexMap.values())
 				IOUtils.closeQuietly(instance);
+			for (ShardedIndex shardedIndex : shardedMap.values())
+				IOUtils.closeQuietly(shardedIndex);
 		}
 	}
 
 	IndexStatus createUpdate(String indexName, IndexSettingsDefinition settings)
 			throws ServerException, IOException, InterruptedException, ReflectiveOperationException {
 		synchronized (indexMap) {
+			if (shardedMap.containsKey(indexName) || (settings != null && settings.isSharded()))
+				return createUpdateSharded(indexName, settings);
 			IndexInstance indexInstance = indexMap.get(indexName);
 			if (indexInstance != null && settings != null) {
 				IOUtils.closeQuietly(indexInstance);
@@ -201,6 +266,30 @@ public class SchemaInstance implements Closeable {
 		}
 	}
 
+	private IndexStatus createUpdateSharded(String indexName, IndexSettingsDefinition settings)
+			throws ServerException, IOException, InterruptedException, ReflectiveOperationException {
+		if (indexMap.containsKey(indexName))
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+					"An existing index cannot be sharded: " + indexName);
+		if (settings != null)
+			ShardedIndex.checkSettings(settings);
+		ShardedIndex shardedIndex = shardedMap.get(indexName);
+		if (shardedIndex != null && settings != null) {
+			if (!Objects.equals(settings.shards, shardedIndex.getSettings().shards))
+				throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+						"The number of shards of an existing index cannot be changed: " + indexName);
+			IOUtils.closeQuietly(shardedIndex);
+			shardedMap.remove(indexName);
+			shardedIndex = null;
+		}
+		if (shardedIndex == null) {
+			shardedIndex = ShardedIndex.newInstance(this, new File(schemaDirectory, indexName), settings);
+			shardedMap.put(indexName, shardedIndex);
+		}
+		mayBeRefresh();
+		return shardedIndex.getStatus();
+	}
+
 	/**
 	 * Returns the indexInstance. If the index does not exists, an exception it
 	 * thrown. This method never returns a null value.
@@ -211,17 +300,46 @@ public class SchemaInstance implements Closeable {
 	 */
 	IndexInstance get(String indexName) throws ServerException {
 		IndexInstance indexInstance = indexMap.get(indexName);
-		if (indexInstance == null)
+		if (indexInstance == null) {
+			if (shardedMap.containsKey(indexName))
+				throw new ServerException(Response.Status.BAD_REQUEST,
+						"This operation is not supported by the sharded index: " + indexName);
 			throw new ServerException(Response.Status.NOT_FOUND, "Index not found: " + indexName);
+		}
 		return indexInstance;
 	}
 
+	/**
+	 * Returns the index or the sharded index. If the index does not exist, an exception is thrown. This method never
+	 * returns a null value.
+	 *
+	 * @param indexName The name of the index
+	 * @return the index or the sharded index
+	 * @throws ServerException if any error occurs
+	 */
+	IndexAbstract getIndex(String indexName) throws ServerException {
+		final ShardedIndex shardedIndex = shardedMap.get(indexName);
+		return shardedIndex != null ? shardedIndex : get(indexName);
+	}
+
+	/**
+	 * @return the indexes and the shards of the sharded indexes
+	 */
+	private List<IndexInstance> getIndexInstances() {
+		final List<IndexInstance> instances = new ArrayList<>(indexMap.values());
+		for (ShardedIndex shardedIndex : shardedMap.values())
+			instances.addAll(Arrays.asList(shardedIndex.getShards()));
+		return instances;
+	}
+
 	void delete() {
 		synchronized (indexMap) {
 			for (IndexInstance instance : indexMap.values()) {
 				instance.close();
 				instance.delete();
 			}
+			for (ShardedIndex shardedIndex : shardedMap.values())
+				shardedIndex.delete();
 			if (schemaDirectory.exists())
 				FileUtils.deleteQuietly(schemaDirectory);
 		}
@@ -229,20 +347,32 @@ public class SchemaInstance implements Closeable {
 
 	void delete(String indexName) throws ServerException, IOException {
 		synchronized (indexMap) {
-			IndexInstance indexInstance = get(indexName);
-			indexInstance.delete();
-			indexMap.remove(indexName);
+			final ShardedIndex shardedIndex = shardedMap.remove(indexName);
+			if (shardedIndex != null)
+				shardedIndex.delete();
+			else {
+				IndexInstance indexInstance = get(indexName);
+				indexInstance.delete();
+				indexMap.remove(indexName);
+			}
 			mayBeRefresh();
 		}
 	}
 
 	Set<String> nameSet() {
-		return indexMap.keySet();
+		if (shardedMap.isEmpty())
+			return indexMap.keySet();
+		final Set<String> names = new LinkedHashSet<>(indexMap.keySet());
+		names.addAll(shardedMap.keySet());
+		return names;
 	}
 
+	/**
+	 * Backup the indexes and the shards of the sharded indexes. Each shard is backed up in its own directory.
+	 */
 	void backups(Integer keepLastCount) throws IOException, InterruptedException {
 		synchronized (indexMap) {
-			for (IndexInstance instance : indexMap.values())
+			for (IndexInstance instance : getIndexInstances())
 				instance.backup(keepLastCount);
 		}
 	}
@@ -257,16 +387,100 @@ public class SchemaInstance implements Closeable {
 		checkSettings();
 	}
 
+	private IndexReader[] acquireIndexReaders() throws IOException {
+		final List<IndexInstance> indexInstances = getIndexInstances();
+		final IndexReader[] indexReaders = new IndexReader[indexInstances.size()];
+		int i = 0;
+		try {
+			for (IndexInstance indexInstance : indexInstances)
+				indexReaders[i++] = indexInstance.acquireIndexReader();
+			return indexReaders;
+		} catch (IOException e) {
+			releaseIndexReaders(indexReaders);
+			throw e;
+		}
+	}
+
+	private static void releaseIndexReaders(final IndexReader[] indexReaders) throws IOException {
+		for (IndexReader indexReader : indexReaders)
+			if (indexReader != null)
+				indexReader.decRef();
+	}
+
+	/**
+	 * Rebuild the schema search context from the current NRT readers of the
+	 * indexes. Nothing is done if no index reader has changed since the last
+	 * refresh.
+	 *
+	 * @throws IOException
+	 * @throws ServerException
+	 */
 	synchronized void mayBeRefresh() throws IOException, ServerException {
+		final IndexReader[] indexReaders = acquireIndexReaders();
+		if (searchContext != null && searchContext.isCurrent(indexReaders)) {
+			releaseIndexReaders(indexReaders);
+			return;
+		}
+		final SearchContext newSearchContext;
+		try {
+			newSearchContext = new SearchContext(indexReaders);
+		} catch (IOException | ServerException e) {
+			releaseIndexReaders(indexReaders);
+			throw e;
+		}
 		if (searchContext != null)
 			searchContext.close();
-		searchContext = new SearchContext();
+		searchContext = newSearchContext;
+	}
+
+	/**
+	 * Schedule an asynchronous refresh of the search context. The refreshes requested while one is already scheduled
+	 * are merged, the commits of the indexes never wait for the schema.
+	 */
+	void scheduleRefresh() {
+		if (!refreshScheduled.compareAndSet(false, true))
+			return;
+		try {
+			scheduledExecutorService.execute(this::scheduledRefresh);
+		} catch (RejectedExecutionException e) {
+			// The server is shutting down
+			refreshScheduled.set(false);
+		}
+	}
+
+	private synchronized void scheduledRefresh() {
+		refreshScheduled.set(false);
+		if (closed)
+			return;
+		try {
+			mayBeRefresh();
+		} catch (IOException | RuntimeException e) {
+			logger.error("Schema refresh failure: " + e.getMessage(), e);
+		}
+	}
+
+	private synchronized SearchContext acquireSearchContext() {
+		if (searchContext != null)
+			searchContext.incRef();
+		return searchContext;
 	}
 
 	SchemaSettingsDefinition getSettings() {
 		return settingsDefinition;
 	}
 
+	ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	ExecutorService getSearchExecutorService() {
+		return searchExecutorService;
+	}
+
+	ScheduledExecutorService getScheduledExecutorService() {
+		return scheduledExecutorService;
+	}
+
 	private synchronized void checkSettings() throws IOException, URISyntaxException {
 		if (settingsDefinition == null) {
 			readSemaphore = null;
@@ -298,7 +512,13 @@ public class SchemaInstance implements Closeable {
 			ReflectiveOperationException {
 		final Semaphore sem = acquireReadSemaphore();
 		try {
-			return atomicSearch(searchContext, queryDef, documentBuilderFactory);
+			final SearchContext currentSearchContext = acquireSearchContext();
+			try {
+				return atomicSearch(currentSearchContext, queryDef, documentBuilderFactory);
+			} finally {
+				if (currentSearchContext != null)
+					currentSearchContext.close();
+			}
 		} finally {
 			if (sem != null)
 				sem.release();
@@ -320,6 +540,24 @@ public class SchemaInstance implements Closeable {
 		return atomicAquire(writeSemaphore);
 	}
 
+	private static int getQueueLength(final Semaphore semaphore) {
+		return semaphore == null ? 0 : semaphore.getQueueLength();
+	}
+
+	/**
+	 * @return the estimated number of threads waiting for the read semaphore
+	 */
+	int getReadQueueLength() {
+		return getQueueLength(readSemaphore);
+	}
+
+	/**
+	 * @return the estimated number of threads waiting for the write semaphore
+	 */
+	int getWriteQueueLength() {
+		return getQueueLength(writeSemaphore);
+	}
+
 	private static void atomicCheckSize(SchemaSettingsDefinition settingsDefinition, SearchContext searchContext,
 			int addSize) throws ServerException {
 		if (settingsDefinition == null)
@@ -334,6 +572,12 @@ public class SchemaInstance implements Closeable {
 	}
 
 	void checkSize(int addSize) throws IOException, ServerException {
-		atomicCheckSize(settingsDefinition, searchContext, addSize);
+		final SearchContext currentSearchContext = acquireSearchContext();
+		try {
+			atomicCheckSize(settingsDefinition, currentSearchContext, addSize);
+		} finally {
+			if (currentSearchContext != null)
+				currentSearchContext.close();
+		}
 	}
 }
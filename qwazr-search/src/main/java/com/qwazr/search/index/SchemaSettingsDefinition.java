@@ -15,6 +15,7 @@
  */
 package com.qwazr.search.index;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
@@ -24,16 +25,33 @@ public class SchemaSettingsDefinition {
 	final public Integer max_simultaneous_read;
 	final public Long max_size;
 
+	/**
+	 * When true, the segments of the indexes are searched in parallel by the schema wide queries.
+	 */
+	final public Boolean parallel_search;
+
 	public SchemaSettingsDefinition() {
 		max_simultaneous_write = null;
 		max_simultaneous_read = null;
 		max_size = null;
+		parallel_search = null;
 	}
 
 	public SchemaSettingsDefinition(Integer max_simultaneous_write, Integer max_simultaneous_read, Long max_size) {
+		this(max_simultaneous_write, max_simultaneous_read, max_size, null);
+	}
+
+	public SchemaSettingsDefinition(Integer max_simultaneous_write, Integer max_simultaneous_read, Long max_size,
+			Boolean parallel_search) {
 		this.max_simultaneous_write = max_simultaneous_write;
 		this.max_simultaneous_read = max_simultaneous_read;
 		this.max_size = max_size;
+		this.parallel_search = parallel_search;
+	}
+
+	@JsonIgnore
+	final boolean isParallelSearch() {
+		return parallel_search != null && parallel_search;
 	}
 
 	static final SchemaSettingsDefinition EMPTY = new SchemaSettingsDefinition();
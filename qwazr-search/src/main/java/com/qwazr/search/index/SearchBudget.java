@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The time and the number of hits a query is allowed to spend.
+ * The wrapped collectors stop the collection once the deadline is reached or once the hits budget is spent. The
+ * search then returns the documents collected so far. The budget is shared by the slices of a parallel search.
+ */
+class SearchBudget {
+
+	// The clock is only read once every 256 hits
+	private final static int CLOCK_CHECK_MASK = 0xFF;
+
+	private final long deadline;
+	private final int maxHits;
+	private final AtomicInteger hits;
+
+	private volatile boolean timedOut;
+	private volatile boolean terminatedEarly;
+
+	private SearchBudget(final Long timeoutMs, final Integer maxHits) {
+		this.deadline = timeoutMs == null ?
+				Long.MAX_VALUE :
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		this.maxHits = maxHits == null ? Integer.MAX_VALUE : maxHits;
+		this.hits = new AtomicInteger();
+		this.timedOut = false;
+		this.terminatedEarly = false;
+	}
+
+	/**
+	 * @param queryDef the query definition
+	 * @return a new budget, or null if the query has neither a timeout nor a maximum number of hits
+	 */
+	static SearchBudget of(final QueryDefinition queryDef) {
+		if (queryDef.timeout_ms == null && queryDef.max_hits_to_collect == null)
+			return null;
+		return new SearchBudget(queryDef.timeout_ms, queryDef.max_hits_to_collect);
+	}
+
+	final Collector wrap(final Collector collector) {
+		return collector == null ? null : new BudgetCollector(collector);
+	}
+
+	/**
+	 * @return true if the deadline was reached, null otherwise
+	 */
+	final Boolean getTimedOut() {
+		return timedOut ? true : null;
+	}
+
+	/**
+	 * @return true if the hits budget was spent, null otherwise
+	 */
+	final Boolean getTerminatedEarly() {
+		return terminatedEarly ? true : null;
+	}
+
+	private boolean isExceeded() {
+		if (timedOut || terminatedEarly)
+			return true;
+		if (System.nanoTime() > deadline) {
+			timedOut = true;
+			return true;
+		}
+		return false;
+	}
+
+	private class BudgetCollector extends FilterCollector {
+
+		private BudgetCollector(final Collector collector) {
+			super(collector);
+		}
+
+		@Override
+		public LeafCollector getLeafCollector(final LeafReaderContext context) throws IOException {
+			// The remaining segments are skipped
+			if (isExceeded())
+				throw new CollectionTerminatedException();
+			return new BudgetLeafCollector(super.getLeafCollector(context));
+		}
+	}
+
+	private class BudgetLeafCollector extends FilterLeafCollector {
+
+		private int count;
+
+		private BudgetLeafCollector(final LeafCollector leafCollector) {
+			super(leafCollector);
+			count = 0;
+		}
+
+		@Override
+		public void collect(final int doc) throws IOException {
+			if (maxHits != Integer.MAX_VALUE && hits.incrementAndGet() > maxHits) {
+				terminatedEarly = true;
+				throw new CollectionTerminatedException();
+			}
+			if ((++count & CLOCK_CHECK_MASK) == 0 && isExceeded())
+				throw new CollectionTerminatedException();
+			in.collect(doc);
+		}
+	}
+}
@@ -0,0 +1,711 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import com.qwazr.search.analysis.AnalyzerDefinition;
+import com.qwazr.search.field.FieldDefinition;
+import com.qwazr.utils.IOUtils;
+import com.qwazr.utils.json.JsonMapper;
+import com.qwazr.utils.server.ServerException;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * An index made of several physical indexes (the shards), each one with its own IndexWriter.
+ * A document is routed to one shard by hashing its identifier. The documents without identifier are distributed
+ * evenly. A batch of documents is split per shard, and the shards are written in parallel.
+ * The searches run on a MultiReader over the current readers of the shards: the top docs and the facets are merged as
+ * for a single index. With the parallel_search setting, the segments of all the shards are searched in parallel.
+ * The shards share the same fields and analyzers. The metrics of the index sum the metrics of the shards.
+ */
+class ShardedIndex extends IndexAbstract {
+
+	private final static String SETTINGS_FILE = "settings.json";
+	private final static String SHARD_PREFIX = "shard-";
+
+	private final SchemaInstance schema;
+	private final File indexDirectory;
+	private final IndexSettingsDefinition settings;
+	private final IndexInstance[] shards;
+	private final AtomicInteger nextShard;
+	private final AtomicLong abortedQueries;
+	// The queries and the write requests of the sharded index, the shards record their own writes
+	private final IndexMetrics metrics;
+
+	// The readers of the shards used by the current searcher
+	private IndexReader[] shardReaders;
+	private IndexSearcher indexSearcher;
+
+	// The facets state of the current searcher, built on the first use
+	private boolean facetsStateLoaded;
+	private SortedSetDocValuesReaderState facetsState;
+
+	private ShardedIndex(final SchemaInstance schema, final File indexDirectory,
+			final IndexSettingsDefinition settings, final IndexInstance[] shards) {
+		this.schema = schema;
+		this.indexDirectory = indexDirectory;
+		this.settings = settings;
+		this.shards = shards;
+		this.nextShard = new AtomicInteger();
+		this.abortedQueries = new AtomicLong();
+		this.metrics = new IndexMetrics();
+		this.shardReaders = null;
+		this.indexSearcher = null;
+		this.facetsStateLoaded = false;
+		this.facetsState = null;
+	}
+
+	/**
+	 * @param indexDirectory the directory of an index
+	 * @return true if the directory contains a sharded index
+	 * @throws IOException if the settings cannot be read
+	 */
+	static boolean isSharded(final File indexDirectory) throws IOException {
+		final File settingsFile = new File(indexDirectory, SETTINGS_FILE);
+		return settingsFile.exists() &&
+				JsonMapper.MAPPER.readValue(settingsFile, IndexSettingsDefinition.class).isSharded();
+	}
+
+	/**
+	 * Open (or create) a sharded index.
+	 *
+	 * @param schema         the schema
+	 * @param indexDirectory the directory of the index
+	 * @param settings       the new settings, or null to read the existing ones
+	 * @return a new ShardedIndex
+	 */
+	static ShardedIndex newInstance(final SchemaInstance schema, final File indexDirectory,
+			IndexSettingsDefinition settings)
+			throws ServerException, IOException, ReflectiveOperationException, InterruptedException {
+		if (!indexDirectory.exists())
+			indexDirectory.mkdir();
+		if (!indexDirectory.isDirectory())
+			throw new IOException("This name is not valid. No directory exists for this location: " + indexDirectory);
+		final File settingsFile = new File(indexDirectory, SETTINGS_FILE);
+		final IndexSettingsDefinition currentSettings = settingsFile.exists() ?
+				JsonMapper.MAPPER.readValue(settingsFile, IndexSettingsDefinition.class) :
+				null;
+		if (settings == null)
+			settings = currentSettings;
+		else if (currentSettings != null && !Objects.equals(settings.shards, currentSettings.shards))
+			throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+					"The number of shards of an existing index cannot be changed: " + indexDirectory.getName());
+		else
+			JsonMapper.MAPPER.writeValue(settingsFile, settings);
+		if (settings == null || !settings.isSharded())
+			throw new ServerException("This index is not sharded: " + indexDirectory.getName());
+		final IndexInstance[] shards = new IndexInstance[settings.shards];
+		try {
+			for (int i = 0; i < shards.length; i++)
+				shards[i] = IndexInstance.newInstance(schema, new File(indexDirectory, SHARD_PREFIX + i), settings);
+		} catch (ServerException | IOException | ReflectiveOperationException | InterruptedException e) {
+			for (IndexInstance shard : shards)
+				if (shard != null)
+					IOUtils.closeQuietly(shard);
+			throw e;
+		}
+		return new ShardedIndex(schema, indexDirectory, settings, shards);
+	}
+
+	/**
+	 * The searches of a sharded index do not use the searchers of the shards: the settings of these searchers
+	 * (result cache, warm-up) are rejected. The shards cannot be replicated either.
+	 *
+	 * @param settings the new settings
+	 * @throws ServerException if a setting is not supported by a sharded index
+	 */
+	static void checkSettings(final IndexSettingsDefinition settings) throws ServerException {
+		final String unsupported;
+		if (settings.replication_master != null)
+			unsupported = "replication_master";
+		else if (settings.replication_interval_ms != null)
+			unsupported = "replication_interval_ms";
+		else if (settings.result_cache_max_entries != null)
+			unsupported = "result_cache_max_entries";
+		else if (settings.result_cache_max_bytes != null)
+			unsupported = "result_cache_max_bytes";
+		else if (settings.warmup_queries != null)
+			unsupported = "warmup_queries";
+		else
+			return;
+		throw new ServerException(Response.Status.NOT_ACCEPTABLE,
+				"This setting is not supported by a sharded index: " + unsupported);
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (indexSearcher != null) {
+				try {
+					indexSearcher.getIndexReader().decRef();
+				} catch (IOException e) {
+					// Nothing to do, the shards are closed anyway
+				}
+				indexSearcher = null;
+				shardReaders = null;
+				facetsStateLoaded = false;
+				facetsState = null;
+			}
+		}
+		for (IndexInstance shard : shards)
+			IOUtils.closeQuietly(shard);
+	}
+
+	/**
+	 * Delete the index and all its shards
+	 */
+	void delete() {
+		close();
+		for (IndexInstance shard : shards)
+			shard.delete();
+		if (indexDirectory.exists())
+			FileUtils.deleteQuietly(indexDirectory);
+	}
+
+	IndexSettingsDefinition getSettings() {
+		return settings;
+	}
+
+	IndexInstance[] getShards() {
+		return shards;
+	}
+
+	/**
+	 * The shard is selected by hashing the identifier (as stored in the $id$ field). The murmur hash is stable
+	 * across the JVMs and the restarts.
+	 *
+	 * @param id the identifier of the document, or null
+	 * @return the shard storing the document
+	 */
+	private IndexInstance getShard(final Object id) {
+		return shards[getShardNumber(id)];
+	}
+
+	private int getShardNumber(final Object id) {
+		if (id == null)
+			return Math.floorMod(nextShard.getAndIncrement(), shards.length);
+		final BytesRef bytesRef = new BytesRef(id.toString());
+		return Math.floorMod(StringHelper.murmurhash3_x86_32(bytesRef, 0), shards.length);
+	}
+
+	/**
+	 * @param fields the annotated fields, by index field name
+	 * @param <T>    the type of the documents
+	 * @return a function reading the identifier of a document
+	 */
+	private static <T> Function<T, Object> getIdProvider(final Map<String, Field> fields) {
+		final Field idField = fields.get(FieldDefinition.ID_FIELD);
+		if (idField == null)
+			return document -> null;
+		final FieldAccessor idAccessor = FieldAccessor.of(idField);
+		return idAccessor::get;
+	}
+
+	private <T> Map<IndexInstance, List<T>> splitByShard(final Collection<T> documents,
+			final Function<T, Object> idProvider) {
+		final Map<IndexInstance, List<T>> shardDocuments = new LinkedHashMap<>();
+		for (T document : documents)
+			shardDocuments.computeIfAbsent(getShard(idProvider.apply(document)), shard -> new ArrayList<>())
+					.add(document);
+		return shardDocuments;
+	}
+
+	private interface ShardTask<T> {
+		T apply(IndexInstance shard) throws Exception;
+	}
+
+	/**
+	 * Run the task on each shard in parallel, using the executor of the schema
+	 *
+	 * @param shardList the shards
+	 * @param task      the task to run on each shard
+	 * @param <T>       the type returned by the task
+	 * @return the results, in the order of the shards
+	 */
+	private <T> List<T> forEachShard(final Collection<IndexInstance> shardList, final ShardTask<T> task)
+			throws IOException, InterruptedException {
+		if (shardList.size() == 1) {
+			try {
+				return Arrays.asList(task.apply(shardList.iterator().next()));
+			} catch (IOException | InterruptedException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ServerException(e);
+			}
+		}
+		final List<Future<T>> futures = new ArrayList<>(shardList.size());
+		for (IndexInstance shard : shardList)
+			futures.add(schema.getExecutorService().submit((Callable<T>) () -> task.apply(shard)));
+		final List<T> results = new ArrayList<>(futures.size());
+		Exception error = null;
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				if (error == null)
+					error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		if (error == null)
+			return results;
+		if (error instanceof IOException)
+			throw (IOException) error;
+		if (error instanceof RuntimeException)
+			throw (RuntimeException) error;
+		throw new ServerException(error);
+	}
+
+	private <T> List<T> forEachShard(final ShardTask<T> task) throws IOException, InterruptedException {
+		return forEachShard(Arrays.asList(shards), task);
+	}
+
+	private Semaphore acquireReadSemaphore() throws InterruptedException {
+		final long start = System.nanoTime();
+		final Semaphore sem = schema.acquireReadSemaphore();
+		if (sem != null)
+			metrics.readSemaphoreWait.observeNanos(System.nanoTime() - start);
+		return sem;
+	}
+
+	private Semaphore acquireWriteSemaphore() throws InterruptedException {
+		metrics.writeRequests.increment();
+		final long start = System.nanoTime();
+		final Semaphore sem = schema.acquireWriteSemaphore();
+		if (sem != null)
+			metrics.writeSemaphoreWait.observeNanos(System.nanoTime() - start);
+		return sem;
+	}
+
+	IndexStatus getStatus() throws IOException, InterruptedException {
+		final Semaphore sem = acquireReadSemaphore();
+		try {
+			final IndexSearcher searcher = acquireSearcher();
+			try {
+				return new IndexStatus(searcher.getIndexReader(), settings, getAnalyzers().keySet(),
+						getFields().keySet(), null, abortedQueries.get(), null);
+			} finally {
+				releaseSearcher(searcher);
+			}
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	LinkedHashMap<String, FieldDefinition> getFields() {
+		return shards[0].getFields();
+	}
+
+	void setFields(final LinkedHashMap<String, FieldDefinition> fields) throws IOException, InterruptedException {
+		forEachShard(shard -> {
+			shard.setFields(fields);
+			return null;
+		});
+		schema.mayBeRefresh();
+	}
+
+	void setField(final String fieldName, final FieldDefinition field) throws IOException, InterruptedException {
+		forEachShard(shard -> {
+			shard.setField(fieldName, field);
+			return null;
+		});
+		schema.mayBeRefresh();
+	}
+
+	void deleteField(final String fieldName) throws IOException, InterruptedException {
+		forEachShard(shard -> {
+			shard.deleteField(fieldName);
+			return null;
+		});
+		schema.mayBeRefresh();
+	}
+
+	LinkedHashMap<String, AnalyzerDefinition> getAnalyzers() {
+		return shards[0].getAnalyzers();
+	}
+
+	void setAnalyzer(final String analyzerName, final AnalyzerDefinition analyzer)
+			throws IOException, InterruptedException {
+		forEachShard(shard -> {
+			shard.setAnalyzer(analyzerName, analyzer);
+			return null;
+		});
+		schema.mayBeRefresh();
+	}
+
+	void setAnalyzers(final LinkedHashMap<String, AnalyzerDefinition> analyzers)
+			throws IOException, InterruptedException {
+		forEachShard(shard -> {
+			shard.setAnalyzers(analyzers);
+			return null;
+		});
+		schema.mayBeRefresh();
+	}
+
+	void deleteAnalyzer(final String analyzerName) throws IOException, InterruptedException {
+		forEachShard(shard -> {
+			shard.deleteAnalyzer(analyzerName);
+			return null;
+		});
+		schema.mayBeRefresh();
+	}
+
+	List<TermDefinition> testAnalyzer(final String analyzerName, final String text)
+			throws ServerException, InterruptedException, ReflectiveOperationException, IOException {
+		return shards[0].testAnalyzer(analyzerName, text);
+	}
+
+	Analyzer getIndexAnalyzer(final String field) throws ServerException, IOException {
+		return shards[0].getIndexAnalyzer(field);
+	}
+
+	Analyzer getQueryAnalyzer(final String field) throws ServerException, IOException {
+		return shards[0].getQueryAnalyzer(field);
+	}
+
+	Object postMappedDocument(final Map<String, Object> document) throws IOException, InterruptedException {
+		return getShard(document.get(FieldDefinition.ID_FIELD)).postMappedDocument(document);
+	}
+
+	Collection<Object> postMappedDocuments(final Collection<Map<String, Object>> documents)
+			throws IOException, InterruptedException {
+		if (documents == null || documents.isEmpty())
+			return null;
+		final Map<IndexInstance, List<Map<String, Object>>> shardDocuments =
+				splitByShard(documents, document -> document.get(FieldDefinition.ID_FIELD));
+		final List<Collection<Object>> shardIds =
+				forEachShard(shardDocuments.keySet(), shard -> shard.postMappedDocuments(shardDocuments.get(shard)));
+		final List<Object> ids = new ArrayList<>(documents.size());
+		for (Collection<Object> idCollection : shardIds)
+			if (idCollection != null)
+				ids.addAll(idCollection);
+		return ids;
+	}
+
+	/**
+	 * Each worker of the bulk routes the documents to the posters of the shards. The shards which received documents
+	 * are committed at the end.
+	 */
+	BulkStatus postMappedDocuments(final InputStream input, final Integer threads)
+			throws IOException, InterruptedException {
+		final Semaphore sem = acquireWriteSemaphore();
+		try {
+			final Map<IndexInstance, LongAdder> shardIndexed = new LinkedHashMap<>();
+			for (IndexInstance shard : shards)
+				shardIndexed.put(shard, new LongAdder());
+			final BulkPoster bulkPoster = new BulkPoster(schema.getExecutorService(), threads, () -> {
+				final RecordsPoster.UpdateMapDocument[] posters = new RecordsPoster.UpdateMapDocument[shards.length];
+				for (int i = 0; i < shards.length; i++)
+					posters[i] = shards[i].getBulkPoster();
+				return document -> {
+					final int shardNumber = getShardNumber(document.get(FieldDefinition.ID_FIELD));
+					posters[shardNumber].accept(document);
+					shardIndexed.get(shards[shardNumber]).increment();
+				};
+			}, schema::checkSize);
+			final BulkStatus status = bulkPoster.post(input);
+			forEachShard(shard -> {
+				shard.bulkCommit(shardIndexed.get(shard).sum());
+				return null;
+			});
+			return status;
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	<T> Object postDocument(final Map<String, Field> fields, final T document)
+			throws IOException, InterruptedException {
+		return getShard(getIdProvider(fields).apply(document)).postDocument(fields, document);
+	}
+
+	<T> Collection<Object> postDocuments(final Map<String, Field> fields, final Collection<T> documents)
+			throws IOException, InterruptedException {
+		if (documents == null || documents.isEmpty())
+			return null;
+		final Map<IndexInstance, List<T>> shardDocuments =
+				splitByShard(documents, getIdProvider(fields));
+		final List<Collection<Object>> shardIds =
+				forEachShard(shardDocuments.keySet(), shard -> shard.postDocuments(fields, shardDocuments.get(shard)));
+		final List<Object> ids = new ArrayList<>(documents.size());
+		for (Collection<Object> idCollection : shardIds)
+			if (idCollection != null)
+				ids.addAll(idCollection);
+		return ids;
+	}
+
+	void updateMappedDocValues(final Map<String, Object> document) throws IOException, InterruptedException {
+		getShard(document.get(FieldDefinition.ID_FIELD)).updateMappedDocValues(document);
+	}
+
+	void updateMappedDocsValues(final Collection<Map<String, Object>> documents)
+			throws IOException, InterruptedException {
+		if (documents == null || documents.isEmpty())
+			return;
+		final Map<IndexInstance, List<Map<String, Object>>> shardDocuments =
+				splitByShard(documents, document -> document.get(FieldDefinition.ID_FIELD));
+		forEachShard(shardDocuments.keySet(), shard -> {
+			shard.updateMappedDocsValues(shardDocuments.get(shard));
+			return null;
+		});
+	}
+
+	<T> void updateDocValues(final Map<String, Field> fields, final T document)
+			throws IOException, InterruptedException {
+		getShard(getIdProvider(fields).apply(document)).updateDocValues(fields, document);
+	}
+
+	<T> void updateDocsValues(final Map<String, Field> fields, final Collection<T> documents)
+			throws IOException, InterruptedException {
+		if (documents == null || documents.isEmpty())
+			return;
+		final Map<IndexInstance, List<T>> shardDocuments =
+				splitByShard(documents, getIdProvider(fields));
+		forEachShard(shardDocuments.keySet(), shard -> {
+			shard.updateDocsValues(fields, shardDocuments.get(shard));
+			return null;
+		});
+	}
+
+	void deleteAll() throws IOException, InterruptedException {
+		forEachShard(shard -> {
+			shard.deleteAll();
+			return null;
+		});
+	}
+
+	ResultDefinition.WithMap deleteByQuery(final QueryDefinition queryDefinition)
+			throws IOException, InterruptedException {
+		long deleted = 0;
+		for (ResultDefinition.WithMap result : forEachShard(shard -> shard.deleteByQuery(queryDefinition)))
+			if (result.total_hits != null)
+				deleted += result.total_hits;
+		return new ResultDefinition.WithMap(deleted);
+	}
+
+	/**
+	 * The MultiReader is rebuilt only when the reader of a shard has changed. The returned searcher holds a
+	 * reference on the MultiReader, it must be released by calling releaseSearcher.
+	 *
+	 * @return the searcher on top of the current readers of the shards
+	 * @throws IOException
+	 */
+	private synchronized IndexSearcher acquireSearcher() throws IOException {
+		final IndexReader[] readers = new IndexReader[shards.length];
+		try {
+			for (int i = 0; i < shards.length; i++)
+				readers[i] = shards[i].acquireIndexReader();
+			if (indexSearcher == null || !Arrays.equals(readers, shardReaders)) {
+				// The MultiReader holds its own reference on each sub reader
+				final MultiReader multiReader = new MultiReader(readers, false);
+				if (indexSearcher != null)
+					indexSearcher.getIndexReader().decRef();
+				shardReaders = readers;
+				indexSearcher = settings.isParallelSearch() ?
+						new ParallelIndexSearcher(multiReader, schema.getSearchExecutorService()) :
+						new IndexSearcher(multiReader);
+				facetsStateLoaded = false;
+				facetsState = null;
+			}
+			indexSearcher.getIndexReader().incRef();
+			return indexSearcher;
+		} finally {
+			for (IndexReader reader : readers)
+				if (reader != null)
+					reader.decRef();
+		}
+	}
+
+	/**
+	 * The facets state of the MultiReader is kept by the sharded index: the cache of a shard only holds the state of
+	 * its own reader.
+	 *
+	 * @param searcher a searcher returned by acquireSearcher
+	 * @return the facets state of the reader of the searcher
+	 * @throws IOException if the state cannot be built
+	 */
+	private synchronized SortedSetDocValuesReaderState getFacetsState(final IndexSearcher searcher)
+			throws IOException {
+		if (searcher == indexSearcher && facetsStateLoaded) {
+			metrics.facetsStateHits.increment();
+			return facetsState;
+		}
+		metrics.facetsStateMisses.increment();
+		final SortedSetDocValuesReaderState newState = IndexUtils.getNewFacetsState(searcher.getIndexReader());
+		if (searcher == indexSearcher) {
+			facetsState = newState;
+			facetsStateLoaded = true;
+		}
+		return newState;
+	}
+
+	private void releaseSearcher(final IndexSearcher searcher) throws IOException {
+		searcher.getIndexReader().decRef();
+	}
+
+	/**
+	 * The identifiers are unique across the shards: they are sought in all the segments of the MultiReader.
+	 */
+	MultiGetResult multiGet(final MultiGetDefinition multiGetDefinition) throws IOException, InterruptedException {
+		final Semaphore sem = acquireReadSemaphore();
+		try {
+			final IndexSearcher searcher = acquireSearcher();
+			try {
+				return shards[0].multiGet(searcher.getIndexReader(), multiGetDefinition);
+			} finally {
+				releaseSearcher(searcher);
+			}
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	ResultDefinition search(final QueryDefinition queryDefinition,
+			final ResultDocumentBuilder.BuilderFactory<?> documentBuilderFactory)
+			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException {
+		metrics.queries.increment();
+		final long start = System.nanoTime();
+		try {
+			return searchShards(queryDefinition, documentBuilderFactory);
+		} finally {
+			metrics.queryDuration.observeNanos(System.nanoTime() - start);
+		}
+	}
+
+	private ResultDefinition searchShards(final QueryDefinition queryDefinition,
+			final ResultDocumentBuilder.BuilderFactory<?> documentBuilderFactory)
+			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException {
+		final Semaphore sem = acquireReadSemaphore();
+		try {
+			final IndexSearcher searcher = acquireSearcher();
+			try {
+				// The shards share the same fields and analyzers
+				final ResultDefinition result = QueryUtils.search(
+						shards[0].buildQueryContext(searcher, getFacetsState(searcher), queryDefinition),
+						documentBuilderFactory);
+				if (result.timed_out != null || result.terminated_early != null)
+					abortedQueries.incrementAndGet();
+				metrics.recordPhases(result.timer);
+				return result;
+			} finally {
+				releaseSearcher(searcher);
+			}
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	long export(final QueryDefinition queryDefinition, final OutputStream output)
+			throws IOException, InterruptedException, ParseException, ReflectiveOperationException, QueryNodeException {
+		final Semaphore sem = acquireReadSemaphore();
+		try {
+			final IndexSearcher searcher = acquireSearcher();
+			try {
+				return shards[0].export(
+						shards[0].buildQueryContext(searcher, getFacetsState(searcher), queryDefinition),
+						queryDefinition, output);
+			} finally {
+				releaseSearcher(searcher);
+			}
+		} finally {
+			if (sem != null)
+				sem.release();
+		}
+	}
+
+	/**
+	 * Backup the shards in parallel. The shards have their own commit generations: the returned status has the
+	 * total size of the backups and the date of the last one.
+	 */
+	BackupStatus backup(final Integer keepLastCount) throws IOException, InterruptedException {
+		long date = 0;
+		long bytesSize = 0;
+		int filesCount = 0;
+		for (BackupStatus status : forEachShard(shard -> shard.backup(keepLastCount))) {
+			date = Math.max(date, status.date.getTime());
+			bytesSize += status.bytes_size;
+			filesCount += status.files_count;
+		}
+		return new BackupStatus(null, date, bytesSize, filesCount);
+	}
+
+	/**
+	 * @return the metrics of the index in the Prometheus text format, the sum of the metrics of the shards
+	 * @throws IOException
+	 */
+	String getMetrics() throws IOException {
+		final IndexMetrics sum = new IndexMetrics();
+		sum.add(metrics);
+		long writerRamBytes = 0;
+		for (IndexInstance shard : shards) {
+			sum.add(shard.getIndexMetrics());
+			writerRamBytes += shard.getWriterRamBytesUsed();
+		}
+		final IndexMetrics.TextFormat text =
+				new IndexMetrics.TextFormat(indexDirectory.getParentFile().getName(), indexDirectory.getName());
+		sum.write(text);
+		text.counter("aborted_queries_total", "The queries which timed out or reached their hits budget",
+				abortedQueries.get());
+		final IndexSearcher searcher = acquireSearcher();
+		try {
+			final IndexReader indexReader = searcher.getIndexReader();
+			text.gauge("num_docs", "The number of documents", indexReader.numDocs());
+			text.gauge("segments", "The number of segments", indexReader.leaves().size());
+		} finally {
+			releaseSearcher(searcher);
+		}
+		text.gauge("shards", "The number of shards", shards.length);
+		text.gauge("writer_ram_bytes", "The memory used by the index writers", writerRamBytes);
+		text.gauge("read_semaphore_queue_length", "The requests waiting for the read semaphore",
+				schema.getReadQueueLength());
+		text.gauge("write_semaphore_queue_length", "The requests waiting for the write semaphore",
+				schema.getWriteQueueLength());
+		return text.toString();
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2015-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.qwazr.search.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A SearcherFactory which warms the new searcher before the SearcherManager publishes it.
+ * The searcher itself is built by the wrapped factory (i.e. the ParallelIndexSearcher.Factory).
+ */
+class WarmingSearcherFactory extends SearcherFactory {
+
+	private final SearcherFactory searcherFactory;
+	private volatile Consumer<IndexSearcher> warmer;
+
+	/**
+	 * @param searcherFactory the factory building the searcher, or null to build a standard IndexSearcher
+	 */
+	WarmingSearcherFactory(final SearcherFactory searcherFactory) {
+		this.searcherFactory = searcherFactory;
+		this.warmer = null;
+	}
+
+	/**
+	 * The warmer is set once the index is open. The searcher opened by the SearcherManager constructor is not
+	 * warmed by the factory.
+	 *
+	 * @param warmer the function warming a new searcher
+	 */
+	final void setWarmer(final Consumer<IndexSearcher> warmer) {
+		this.warmer = warmer;
+	}
+
+	@Override
+	public IndexSearcher newSearcher(final IndexReader indexReader, final IndexReader previousReader)
+			throws IOException {
+		final IndexSearcher indexSearcher = searcherFactory == null ?
+				super.newSearcher(indexReader, previousReader) :
+				searcherFactory.newSearcher(indexReader, previousReader);
+		final Consumer<IndexSearcher> currentWarmer = warmer;
+		if (currentWarmer != null)
+			currentWarmer.accept(indexSearcher);
+		return indexSearcher;
+	}
+}
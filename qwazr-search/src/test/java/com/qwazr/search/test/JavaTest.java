@@ -18,6 +18,7 @@ package com.qwazr.search.test;
 import com.qwazr.search.annotations.AnnotatedIndexService;
 import com.qwazr.search.field.FieldDefinition;
 import com.qwazr.search.index.*;
+import com.qwazr.search.query.MatchAllDocsQuery;
 import com.qwazr.search.query.TermQuery;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -163,6 +164,30 @@ public class JavaTest {
 		Assert.assertArrayEquals(record2.storedCategory.toArray(), returnedRecord.storedCategory.toArray());
 	}
 
+	@Test
+	public void test360TypedRecords() throws URISyntaxException, ReflectiveOperationException {
+		// A new service reads the fields of the same class, the records are read and written the same way
+		final AnnotatedIndexService<AnnotatedIndex> service =
+				new AnnotatedIndexService<>(IndexServiceInterface.getClient(true, null, null), AnnotatedIndex.class);
+		final AnnotatedIndex record = service.getDocument(record2.id.toString());
+		Assert.assertNotNull(record);
+		Assert.assertEquals(record2.title, record.title);
+		Assert.assertEquals(record2.content, record.content);
+		QueryBuilder builder = new QueryBuilder();
+		builder.query = new MatchAllDocsQuery();
+		builder.addReturned_field(RETURNED_FIELDS);
+		ResultDefinition.WithObject<AnnotatedIndex> result = service.searchQuery(builder.build());
+		Assert.assertNotNull(result);
+		Assert.assertEquals(new Long(2), result.total_hits);
+		for (int i = 0; i < 2; i++) {
+			final AnnotatedIndex returnedRecord = checkResultDocument(result, i).record;
+			final AnnotatedIndex refRecord = record1.title.equals(returnedRecord.title) ? record1 : record2;
+			Assert.assertEquals(refRecord.title, returnedRecord.title);
+			Assert.assertEquals(refRecord.content, returnedRecord.content);
+			Assert.assertArrayEquals(refRecord.storedCategory.toArray(), returnedRecord.storedCategory.toArray());
+		}
+	}
+
 	@Test
 	public void test980DeleteIndex() throws URISyntaxException {
 		final AnnotatedIndexService service = getService();
@@ -20,17 +20,34 @@ import com.qwazr.search.field.FieldDefinition;
 import com.qwazr.search.index.*;
 import com.qwazr.utils.IOUtils;
 import com.qwazr.utils.json.JsonMapper;
+import com.qwazr.utils.json.SmileMapper;
+import com.qwazr.utils.server.ServerException;
+import com.qwazr.utils.server.ServiceInterface;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class JsonTest {
@@ -247,9 +264,25 @@ public class JsonTest {
 		}
 	}
 
+	private static boolean sleepBeforeRetry() {
+		try {
+			Thread.sleep(100);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
 	private ResultDefinition.WithMap checkQuerySchema(IndexServiceInterface client, QueryDefinition queryDef,
 			int expectedCount) throws IOException {
+		// The schema search context is refreshed asynchronously after the commits
 		ResultDefinition.WithMap result = client.searchQuery(SCHEMA_NAME, "*", queryDef, null);
+		for (int i = 0; i < 50 && result.total_hits != null && result.total_hits != expectedCount; i++) {
+			if (!sleepBeforeRetry())
+				break;
+			result = client.searchQuery(SCHEMA_NAME, "*", queryDef, null);
+		}
 		Assert.assertNotNull(result);
 		Assert.assertNotNull(result.total_hits);
 		Assert.assertEquals(expectedCount, result.total_hits.intValue());
@@ -457,6 +490,21 @@ public class JsonTest {
 		checkFacetFiltersResult(checkQuerySchema(client, FACETS_FILTERS_QUERY, 2));
 	}
 
+	@Test
+	public void test412QueryFacetsOnly() throws URISyntaxException, IOException {
+		IndexServiceInterface client = getClient();
+		// Only query facets: they are counted during the main search pass
+		final QueryDefinition query = new QueryBuilder(MATCH_ALL_QUERY)
+				.addFacet("FacetQueries", FACETS_ROWS_QUERY.facets.get("FacetQueries")).build();
+		for (ResultDefinition.WithMap result : Arrays
+				.asList(checkQueryIndex(client, query, 5), checkQuerySchema(client, query, 5))) {
+			Assert.assertNotNull(result.facets);
+			final Map<String, Number> facetCounts = checkFacetSize(result, "FacetQueries", 2);
+			Assert.assertEquals(5, facetCounts.get("AllDocs").intValue());
+			Assert.assertEquals(2, facetCounts.get("2016,January").intValue());
+		}
+	}
+
 	private <T extends Comparable> void checkDescending(T startValue, String field,
 			Collection<ResultDocumentMap> documents) {
 		T old = startValue;
@@ -493,7 +541,7 @@ public class JsonTest {
 
 	@Test
 	public void test430QueryFunctionsDoc() throws URISyntaxException, IOException {
-		Object[] results = new Object[] { 1.1D, 10.5D, 10, 14 };
+		Object[] results = new Object[] { 1.1D, 10.5D, 10, 14, 60, 12.0D, 5 };
 		IndexServiceInterface client = getClient();
 		ResultDefinition.WithMap result = checkQueryIndex(client, QUERY_CHECK_FUNCTIONS, 5);
 		Assert.assertNotNull(result.functions);
@@ -504,6 +552,15 @@ public class JsonTest {
 			Assert.assertNotNull(result.functions.get(i).value);
 			Assert.assertEquals(results[i], result.functions.get(i).value);
 		}
+		Assert.assertNotNull(result.aggregations);
+		final Map<String, Number> priceHistogram = result.aggregations.get("price_histogram");
+		Assert.assertNotNull(priceHistogram);
+		Assert.assertEquals(4, priceHistogram.get("0").intValue());
+		Assert.assertEquals(1, priceHistogram.get("10").intValue());
+		final Map<String, Number> stockRanges = result.aggregations.get("stock_ranges");
+		Assert.assertNotNull(stockRanges);
+		Assert.assertEquals(2, stockRanges.get("*-12").intValue());
+		Assert.assertEquals(3, stockRanges.get("12-*").intValue());
 	}
 
 	@Test
@@ -535,6 +592,145 @@ public class JsonTest {
 		Assert.assertTrue(list.get(0).toString().length() > 0);
 	}
 
+	@Test
+	public void test460ScatterGather() throws URISyntaxException, IOException {
+		ResultDefinition.WithMap result =
+				TestServer.getMultiClient().searchQuery(SCHEMA_NAME, INDEX_NAME, QUERY_SORTFIELD, null);
+		Assert.assertNotNull(result);
+		// Both nodes host the same five documents
+		Assert.assertEquals(10L, (long) result.total_hits);
+		Assert.assertEquals(10, result.documents.size());
+		for (ResultDocumentMap document : result.documents)
+			Assert.assertNotNull(document.sort_values);
+		checkDescending(Double.MAX_VALUE, "price", result.documents);
+	}
+
+	@Test
+	public void test462PartialScatterGather() throws URISyntaxException, IOException {
+		// The nodes stop at the deadline, their partial results are still gathered
+		final QueryDefinition query = new QueryBuilder(MATCH_ALL_QUERY).setTimeout_ms(0L).build();
+		ResultDefinition.WithMap result = TestServer.getMultiClient().searchQuery(SCHEMA_NAME, INDEX_NAME, query, null);
+		Assert.assertNotNull(result);
+		Assert.assertEquals(Boolean.TRUE, result.timed_out);
+		Assert.assertEquals(0L, (long) result.total_hits);
+	}
+
+	@Test
+	public void test470NullResultFields() throws URISyntaxException, IOException {
+		ResultDefinition.WithMap result = checkQueryIndex(getClient(), MATCH_ALL_QUERY, 5);
+		Assert.assertNull(result.timed_out);
+		Assert.assertNull(result.next_cursor);
+		Assert.assertNull(result.documents.get(0).sort_values);
+		// The null values are not serialized
+		final String json = JsonMapper.MAPPER.writeValueAsString(result);
+		Assert.assertFalse(json.contains("sort_values"));
+		Assert.assertFalse(json.contains("timed_out"));
+		Assert.assertFalse(json.contains("next_cursor"));
+	}
+
+	@Test
+	public void test480CursorPaging() throws URISyntaxException, IOException {
+		IndexServiceInterface client = getClient();
+		final QueryBuilder builder = new QueryBuilder(QUERY_SORTFIELD).setRows(2);
+		final List<ResultDocumentMap> documents = new ArrayList<>();
+		ResultDefinition.WithMap result = checkQueryIndex(client, builder.build(), 5);
+		documents.addAll(result.documents);
+		while (result.next_cursor != null) {
+			result = checkQueryIndex(client, builder.setCursor(result.next_cursor).build(), 5);
+			documents.addAll(result.documents);
+		}
+		Assert.assertEquals(5, documents.size());
+		checkDescending(Double.MAX_VALUE, "price", documents);
+	}
+
+	@Test
+	public void test482TamperedCursor() throws URISyntaxException, IOException {
+		IndexServiceInterface client = getClient();
+		final QueryBuilder builder = new QueryBuilder(QUERY_SORTFIELD).setRows(2);
+		final String cursor = checkQueryIndex(client, builder.build(), 5).next_cursor;
+		Assert.assertNotNull(cursor);
+		// Same number of sort fields, but the price is a double while the stock is an integer
+		builder.setSorts(null).addSort("stock", QueryDefinition.SortEnum.descending).setCursor(cursor);
+		try {
+			client.searchQuery(SCHEMA_NAME, INDEX_NAME, builder.build(), null);
+			Assert.fail("The tampered cursor should be rejected");
+		} catch (WebApplicationException e) {
+			Assert.assertEquals(406, e.getResponse().getStatus());
+		}
+	}
+
+	@Test
+	public void test490ExportQuery() throws URISyntaxException, IOException {
+		final Response response = getClient().exportQuery(SCHEMA_NAME, INDEX_NAME, QUERY_SORTFIELD);
+		Assert.assertNotNull(response);
+		Assert.assertEquals(200, response.getStatus());
+		final String[] lines;
+		try (final InputStream input = (InputStream) response.getEntity()) {
+			lines = IOUtils.toString(input).split("\n");
+		}
+		// One JSON object per line
+		Assert.assertEquals(5, lines.length);
+		for (String line : lines) {
+			Assert.assertTrue(line, line.startsWith("{") && line.endsWith("}"));
+			final Map<String, Object> document =
+					JsonMapper.MAPPER.readValue(line, IndexSingleClient.MapStringObjectTypeRef);
+			Assert.assertNotNull(document.get("name"));
+			Assert.assertNotNull(document.get("price"));
+		}
+	}
+
+	@Test
+	public void test492ProfiledQuery() throws URISyntaxException, IOException {
+		IndexServiceInterface client = getClient();
+		Assert.assertNull(checkQueryIndex(client, QUERY_SORTFIELD, 5).profile);
+		final QueryDefinition query = new QueryBuilder(QUERY_SORTFIELD).setProfile(true).build();
+		final ResultDefinition.WithMap result = checkQueryIndex(client, query, 5);
+		checkDescending(Double.MAX_VALUE, "price", result.documents);
+		// One timing tree per searched query
+		Assert.assertNotNull(result.profile);
+		Assert.assertFalse(result.profile.isEmpty());
+		final QueryProfile root = result.profile.get(0);
+		Assert.assertNotNull(root.type);
+		Assert.assertNotNull(root.description);
+		Assert.assertTrue(root.total_time_ns > 0);
+		Assert.assertEquals(1L, (long) root.counts.get("create_weight"));
+		Assert.assertTrue(root.counts.containsKey("build_scorer"));
+	}
+
+	@Test
+	public void test494QueryBudget() throws URISyntaxException, IOException {
+		IndexServiceInterface client = getClient();
+		final long abortedQueries = client.getIndex(SCHEMA_NAME, INDEX_NAME).aborted_queries;
+		// The hits budget stops the collection
+		QueryDefinition query = new QueryBuilder(MATCH_ALL_QUERY).setMax_hits_to_collect(2).build();
+		ResultDefinition.WithMap result = client.searchQuery(SCHEMA_NAME, INDEX_NAME, query, null);
+		Assert.assertEquals(Boolean.TRUE, result.terminated_early);
+		Assert.assertNull(result.timed_out);
+		Assert.assertEquals(2L, (long) result.total_hits);
+		// The deadline is already reached when the first segment is collected
+		query = new QueryBuilder(MATCH_ALL_QUERY).setTimeout_ms(0L).build();
+		result = client.searchQuery(SCHEMA_NAME, INDEX_NAME, query, null);
+		Assert.assertEquals(Boolean.TRUE, result.timed_out);
+		Assert.assertEquals(0L, (long) result.total_hits);
+		Assert.assertEquals(abortedQueries + 2, (long) client.getIndex(SCHEMA_NAME, INDEX_NAME).aborted_queries);
+	}
+
+	@Test
+	public void test496FailedNode() throws URISyntaxException {
+		// The second node does not exist: its failure is not reported as a timeout
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			final IndexMultiClient client = new IndexMultiClient(executor,
+					new String[] { "http://localhost:9091", "http://localhost:9098" }, 60000);
+			client.searchQuery(SCHEMA_NAME, INDEX_NAME, MATCH_ALL_QUERY, null);
+			Assert.fail("The failure of a node should fail the query");
+		} catch (WebApplicationException e) {
+			Assert.assertNotNull(e.getResponse());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 	@Test
 	public void test500SecondBackup() throws URISyntaxException, IOException {
 		IndexServiceInterface client = getClient();
@@ -583,6 +779,680 @@ public class JsonTest {
 		Assert.assertEquals(status, getBackups(client, 2).get(0));
 	}
 
+	private void createTempIndex(IndexServiceInterface client, String indexName, IndexSettingsDefinition settings) {
+		Assert.assertNotNull(client.createUpdateIndex(SCHEMA_NAME, indexName, settings));
+		client.setAnalyzers(SCHEMA_NAME, indexName, ANALYZERS_JSON);
+		client.setFields(SCHEMA_NAME, indexName, FIELDS_JSON);
+		client.setField(SCHEMA_NAME, indexName, "name", FIELD_NAME_JSON);
+	}
+
+	private long waitForNumDocs(IndexServiceInterface client, String indexName, long expected)
+			throws InterruptedException {
+		long numDocs = -1;
+		for (int i = 0; i < 50; i++) {
+			numDocs = client.getIndex(SCHEMA_NAME, indexName).num_docs;
+			if (numDocs == expected)
+				break;
+			Thread.sleep(100);
+		}
+		return numDocs;
+	}
+
+	@Test
+	public void test900GroupCommit() throws URISyntaxException, InterruptedException {
+		final String indexName = INDEX_NAME + "-group";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName,
+				IndexSettingsDefinition.builder().setCommitIntervalMs(200).setMaxUncommittedDocs(1000).build());
+		try {
+			Response response = client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			Assert.assertEquals(200, response.getStatusInfo().getStatusCode());
+			// The documents are published by the background commit
+			Assert.assertEquals(UPDATE_DOCS.size(), waitForNumDocs(client, indexName, UPDATE_DOCS.size()));
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test902SchemaSearchRefresh() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-refresh";
+		IndexServiceInterface client = getClient();
+		final long before = client.searchQuery(SCHEMA_NAME, "*", MATCH_ALL_QUERY, null).total_hits;
+		createTempIndex(client, indexName, null);
+		try {
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			// The schema search context is rebuilt from the new reader of the index
+			checkQuerySchema(client, MATCH_ALL_QUERY, (int) before + UPDATE_DOCS.size());
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+		checkQuerySchema(client, MATCH_ALL_QUERY, (int) before);
+	}
+
+	@Test
+	public void test904SchemaFacetsRefresh() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-facets";
+		IndexServiceInterface client = getClient();
+		final Number before = client.searchQuery(SCHEMA_NAME, "*", FACETS_ROWS_QUERY, null).facets.get("category")
+				.get("cat1");
+		createTempIndex(client, indexName, null);
+		try {
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			// The cached facets state is not reused by the new search context
+			final int expected = (before == null ? 0 : before.intValue()) + UPDATE_DOCS.size();
+			Number after = null;
+			for (int i = 0; i < 50; i++) {
+				after = client.searchQuery(SCHEMA_NAME, "*", FACETS_ROWS_QUERY, null).facets.get("category")
+						.get("cat1");
+				if ((after != null && after.intValue() == expected) || !sleepBeforeRetry())
+					break;
+			}
+			Assert.assertNotNull(after);
+			Assert.assertEquals(expected, after.intValue());
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test906ResultCache() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-cache";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, IndexSettingsDefinition.builder().setResultCacheMaxEntries(10).build());
+		try {
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			final ResultDefinition.WithMap result1 =
+					client.searchQuery(SCHEMA_NAME, indexName, FACETS_ROWS_QUERY, null);
+			final ResultDefinition.WithMap result2 =
+					client.searchQuery(SCHEMA_NAME, indexName, FACETS_ROWS_QUERY, null);
+			Assert.assertEquals(result1.total_hits, result2.total_hits);
+			Assert.assertEquals(result1.facets, result2.facets);
+			ResultCacheStatus cacheStatus = client.getIndex(SCHEMA_NAME, indexName).result_cache;
+			Assert.assertNotNull(cacheStatus);
+			Assert.assertEquals(1, (int) cacheStatus.entries);
+			Assert.assertEquals(1L, (long) cacheStatus.hits);
+			Assert.assertTrue(cacheStatus.bytes > 0);
+			// A new document gives a new reader: the cached result is not used anymore
+			client.postMappedDocument(SCHEMA_NAME, indexName, UPDATE_DOC);
+			final ResultDefinition.WithMap result3 =
+					client.searchQuery(SCHEMA_NAME, indexName, FACETS_ROWS_QUERY, null);
+			Assert.assertEquals(UPDATE_DOCS.size() + 1, (long) result3.total_hits);
+			cacheStatus = client.getIndex(SCHEMA_NAME, indexName).result_cache;
+			Assert.assertEquals(1L, (long) cacheStatus.hits);
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test908DocValuesPerSegment() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-segments";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, null);
+		try {
+			// Two commits: two segments
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			client.postMappedDocument(SCHEMA_NAME, indexName, UPDATE_DOC);
+			final Map<Object, Object> prices = new HashMap<>();
+			for (Map<String, Object> doc : UPDATE_DOCS)
+				prices.put(doc.get("name"), doc.get("price"));
+			prices.put(UPDATE_DOC.get("name"), UPDATE_DOC.get("price"));
+			final QueryDefinition query = new QueryBuilder(MATCH_ALL_QUERY).addReturned_field("name", "price", "stock")
+					.build();
+			final ResultDefinition.WithMap result = client.searchQuery(SCHEMA_NAME, indexName, query, null);
+			Assert.assertEquals(prices.size(), result.documents.size());
+			for (ResultDocumentMap document : result.documents) {
+				Assert.assertEquals(prices.get(document.fields.get("name")), document.fields.get("price"));
+				Assert.assertEquals(0, document.fields.get("stock"));
+			}
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	private void postEachDocument(IndexServiceInterface client, String indexName) {
+		for (Map<String, Object> doc : UPDATE_DOCS)
+			client.postMappedDocument(SCHEMA_NAME, indexName, doc);
+		client.postMappedDocument(SCHEMA_NAME, indexName, UPDATE_DOC);
+	}
+
+	private void checkSameResult(ResultDefinition.WithMap expected, ResultDefinition.WithMap result) {
+		Assert.assertEquals(expected.total_hits, result.total_hits);
+		Assert.assertEquals(expected.facets, result.facets);
+		Assert.assertEquals(expected.aggregations, result.aggregations);
+		if (expected.documents == null)
+			Assert.assertNull(result.documents);
+		else {
+			Assert.assertEquals(expected.documents.size(), result.documents.size());
+			for (int i = 0; i < expected.documents.size(); i++)
+				Assert.assertEquals(expected.documents.get(i).fields, result.documents.get(i).fields);
+		}
+		if (expected.functions == null)
+			Assert.assertNull(result.functions);
+		else {
+			Assert.assertEquals(expected.functions.size(), result.functions.size());
+			for (int i = 0; i < expected.functions.size(); i++)
+				Assert.assertEquals(expected.functions.get(i).value, result.functions.get(i).value);
+		}
+	}
+
+	@Test
+	public void test910ParallelSearch() throws URISyntaxException, IOException {
+		final String serialIndex = INDEX_NAME + "-serial";
+		final String parallelIndex = INDEX_NAME + "-parallel";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, serialIndex, null);
+		createTempIndex(client, parallelIndex, IndexSettingsDefinition.builder().setParallelSearch(true).build());
+		try {
+			// One commit per document, twice: enough segments to get several slices
+			for (int i = 0; i < 2; i++) {
+				postEachDocument(client, serialIndex);
+				postEachDocument(client, parallelIndex);
+			}
+			for (QueryDefinition query : Arrays.asList(FACETS_ROWS_QUERY, QUERY_SORTFIELD, QUERY_CHECK_FUNCTIONS))
+				checkSameResult(client.searchQuery(SCHEMA_NAME, serialIndex, query, null),
+						client.searchQuery(SCHEMA_NAME, parallelIndex, query, null));
+			// The slices are searched by the search threads of the server
+			Assert.assertTrue(Thread.getAllStackTraces().keySet().stream()
+					.anyMatch(thread -> thread.getName().startsWith(IndexManager.SEARCH_THREAD_PREFIX)));
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, serialIndex);
+			client.deleteIndex(SCHEMA_NAME, parallelIndex);
+		}
+	}
+
+	@Test
+	public void test912BulkPost() throws URISyntaxException, IOException, InterruptedException {
+		final String indexName = INDEX_NAME + "-bulk";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, null);
+		try {
+			final StringBuilder ndjson = new StringBuilder();
+			for (Map<String, Object> doc : UPDATE_DOCS)
+				ndjson.append(JsonMapper.MAPPER.writeValueAsString(doc)).append('\n');
+			ndjson.append(JsonMapper.MAPPER.writeValueAsString(UPDATE_DOC)).append('\n');
+			// The price of this document is not a number
+			ndjson.append("{\"$id$\":\"6\",\"price\":\"none\"}\n");
+			final BulkStatus status;
+			final byte[] bytes = ndjson.toString().getBytes(StandardCharsets.UTF_8);
+			try (final InputStream input = new ByteArrayInputStream(bytes)) {
+				// The number of threads is capped
+				status = client.postMappedDocuments(SCHEMA_NAME, indexName, input, 10000);
+			}
+			Assert.assertNotNull(status);
+			Assert.assertEquals(UPDATE_DOCS.size() + 1, (long) status.indexed);
+			Assert.assertEquals(1L, (long) status.failed);
+			Assert.assertEquals(1, status.errors.size());
+			Assert.assertEquals(5L, (long) status.errors.get(0).position);
+			Assert.assertEquals("6", status.errors.get(0).id);
+			Assert.assertEquals(UPDATE_DOCS.size() + 1, waitForNumDocs(client, indexName, UPDATE_DOCS.size() + 1));
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test913BulkPostThreads() throws URISyntaxException, IOException, InterruptedException {
+		final String indexName = INDEX_NAME + "-bulk";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, null);
+		try {
+			final int numDocs = 20000;
+			final StringBuilder ndjson = new StringBuilder();
+			for (int i = 0; i < numDocs; i++)
+				ndjson.append("{\"$id$\":\"").append(i).append("\",\"name\":\"Name ").append(i).append("\"}\n");
+			final BulkStatus status;
+			final byte[] bytes = ndjson.toString().getBytes(StandardCharsets.UTF_8);
+			try (final InputStream input = new ByteArrayInputStream(bytes)) {
+				status = client.postMappedDocuments(SCHEMA_NAME, indexName, input, 4);
+			}
+			Assert.assertNotNull(status);
+			Assert.assertEquals(numDocs, (long) status.indexed);
+			// The workers run concurrently
+			Assert.assertTrue(status.threads > 1);
+			Assert.assertEquals(numDocs, waitForNumDocs(client, indexName, numDocs));
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test914IndexSort() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-sorted";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, null);
+		try {
+			// The sort field must exist: the index sort is set once the fields are set
+			client.createUpdateIndex(SCHEMA_NAME, indexName,
+					IndexSettingsDefinition.builder().addIndexSort("price", QueryDefinition.SortEnum.descending)
+							.build());
+			for (int i = 0; i < 2; i++)
+				postEachDocument(client, indexName);
+			final QueryBuilder builder = new QueryBuilder(MATCH_ALL_QUERY).addReturned_field("name", "price")
+					.addSort("price", QueryDefinition.SortEnum.descending).setRows(2);
+			final ResultDefinition.WithMap expected = client.searchQuery(SCHEMA_NAME, indexName, builder.build(), null);
+			Assert.assertEquals(UPDATE_DOCS.size() + 1, (long) expected.total_hits);
+			// Sorted by a prefix of the index sort: the collection of the sorted segments stops early
+			final ResultDefinition.WithMap result =
+					client.searchQuery(SCHEMA_NAME, indexName, builder.setTrack_total_hits(false).build(), null);
+			Assert.assertEquals(2, result.documents.size());
+			for (int i = 0; i < 2; i++)
+				Assert.assertEquals(expected.documents.get(i).fields, result.documents.get(i).fields);
+			Assert.assertTrue(result.total_hits <= expected.total_hits);
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	private static void checkNotAcceptable(Runnable request) {
+		try {
+			request.run();
+			Assert.fail("The request should be rejected");
+		} catch (WebApplicationException e) {
+			Assert.assertEquals(406, e.getResponse().getStatus());
+		}
+	}
+
+	private static void checkNotImplemented(Runnable request) {
+		try {
+			request.run();
+			Assert.fail("The request should not be implemented");
+		} catch (ServerException e) {
+			Assert.assertEquals(501, e.getStatusCode());
+		}
+	}
+
+	@Test
+	public void test916Replication() throws URISyntaxException, IOException {
+		final String masterName = INDEX_NAME + "-master";
+		final String replicaName = INDEX_NAME + "-replica";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, masterName, null);
+		final IndexSettingsDefinition replicaSettings = IndexSettingsDefinition.builder()
+				.setReplicationMaster("http://localhost:9091/indexes/" + SCHEMA_NAME + "/" + masterName).build();
+		try {
+			client.postMappedDocuments(SCHEMA_NAME, masterName, UPDATE_DOCS);
+			client.createUpdateIndex(SCHEMA_NAME, replicaName, replicaSettings);
+			final ReplicationStatus status = client.replicate(SCHEMA_NAME, replicaName);
+			Assert.assertNotNull(status);
+			Assert.assertEquals(UPDATE_DOCS.size(), (long) client.getIndex(SCHEMA_NAME, replicaName).num_docs);
+			Assert.assertEquals(FIELDS_JSON.size(), client.getFields(SCHEMA_NAME, replicaName).size());
+
+			// A replica is read-only, its fields and analyzers come from the master
+			checkNotAcceptable(() -> client.postMappedDocument(SCHEMA_NAME, replicaName, UPDATE_DOC));
+			checkNotAcceptable(() -> client.setFields(SCHEMA_NAME, replicaName, FIELDS_JSON));
+			checkNotAcceptable(() -> client.setField(SCHEMA_NAME, replicaName, "name", FIELD_NAME_JSON));
+			checkNotAcceptable(() -> client.setAnalyzers(SCHEMA_NAME, replicaName, ANALYZERS_JSON));
+
+			// The identifier of the replica is kept when the replica is reopened
+			final Map<String, Long> replicas = client.getIndex(SCHEMA_NAME, masterName).replicas;
+			Assert.assertEquals(1, replicas.size());
+
+			// The files of the commit point are streamed
+			final String replicaId = replicas.keySet().iterator().next();
+			final ReplicationStatus masterStatus = client.getReplicationStatus(SCHEMA_NAME, masterName, replicaId);
+			for (Map.Entry<String, ReplicationStatus.Item> entry : masterStatus.files.entrySet()) {
+				final Response response =
+						client.getReplicationFile(SCHEMA_NAME, masterName, replicaId, entry.getKey());
+				final ByteArrayOutputStream output = new ByteArrayOutputStream();
+				((StreamingOutput) response.getEntity()).write(output);
+				Assert.assertEquals((long) entry.getValue().length, output.size());
+			}
+			client.createUpdateIndex(SCHEMA_NAME, replicaName, replicaSettings);
+			client.postMappedDocument(SCHEMA_NAME, masterName, UPDATE_DOC);
+			client.replicate(SCHEMA_NAME, replicaName);
+			Assert.assertEquals(UPDATE_DOCS.size() + 1, (long) client.getIndex(SCHEMA_NAME, replicaName).num_docs);
+			Assert.assertEquals(replicas.keySet(), client.getIndex(SCHEMA_NAME, masterName).replicas.keySet());
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, replicaName);
+			client.deleteIndex(SCHEMA_NAME, masterName);
+		}
+	}
+
+	@Test
+	public void test918ThrottledBackup() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-backup";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName,
+				IndexSettingsDefinition.builder().setBackupCopyThreads(3).setBackupMaxMbPerSec(100D).build());
+		try {
+			for (int i = 0; i < 2; i++) {
+				postEachDocument(client, indexName);
+				final BackupStatus status = client.doBackup(SCHEMA_NAME, indexName, null);
+				Assert.assertNotNull(status);
+				Assert.assertTrue(status.files_count > 0);
+				Assert.assertTrue(status.bytes_size > 0);
+				final List<BackupStatus> backups = client.getBackups(SCHEMA_NAME, indexName);
+				Assert.assertEquals(i + 1, backups.size());
+				Assert.assertEquals(status, backups.get(0));
+			}
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	/**
+	 * Read the value of a metric in the Prometheus text format
+	 */
+	private static double getMetric(IndexServiceInterface client, String indexName, String name) {
+		final String prefix = "qwazr_index_" + name + '{';
+		for (String line : client.getMetrics(SCHEMA_NAME, indexName).split("\n"))
+			if (line.startsWith(prefix))
+				return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+		throw new AssertionError("Metric not found: " + name);
+	}
+
+	@Test
+	public void test919Metrics() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-metrics";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, null);
+		try {
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			client.searchQuery(SCHEMA_NAME, indexName, MATCH_ALL_QUERY, null);
+			client.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null);
+			final String metrics = client.getMetrics(SCHEMA_NAME, indexName);
+			Assert.assertTrue(metrics.contains("# TYPE qwazr_index_queries_total counter\n"));
+			Assert.assertTrue(metrics.contains(
+					"qwazr_index_queries_total{schema=\"" + SCHEMA_NAME + "\",index=\"" + indexName + "\"} 2\n"));
+			Assert.assertEquals(2, getMetric(client, indexName, "queries_total"), 0);
+			Assert.assertEquals(2, getMetric(client, indexName, "query_duration_seconds_count"), 0);
+			Assert.assertEquals(1, getMetric(client, indexName, "write_requests_total"), 0);
+			Assert.assertEquals(UPDATE_DOCS.size(), getMetric(client, indexName, "written_documents_total"), 0);
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test920Warmup() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-warmup";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, IndexSettingsDefinition.builder().addWarmupQuery(FACETS_ROWS_QUERY).build());
+		try {
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			// The facets state of the new searcher was built by the warm-up query
+			final double misses = getMetric(client, indexName, "facets_state_cache_misses_total");
+			final ResultDefinition.WithMap result = client.searchQuery(SCHEMA_NAME, indexName, FACETS_ROWS_QUERY, null);
+			Assert.assertEquals(UPDATE_DOCS.size(), (long) result.total_hits);
+			Assert.assertEquals(misses, getMetric(client, indexName, "facets_state_cache_misses_total"), 0);
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test922QueryPlanCache() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-plan";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, null);
+		try {
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			final ResultDefinition.WithMap result1 = client.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null);
+			// The second search reuses the cached query and sort
+			final ResultDefinition.WithMap result2 = client.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null);
+			checkSameResult(result1, result2);
+			checkDescending(Double.MAX_VALUE, "price", result2.documents);
+			// Removing the sort field clears the cache: the cached sort is not used anymore
+			client.deleteField(SCHEMA_NAME, indexName, "price");
+			try {
+				client.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null);
+				Assert.fail("The sort field should be unknown");
+			} catch (WebApplicationException e) {
+				Assert.assertNotEquals(200, e.getResponse().getStatus());
+			}
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	@Test
+	public void test924SmileFormat() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-smile";
+		IndexServiceInterface client = getClient();
+		IndexServiceInterface smileClient = TestServer.getSmileClient();
+		createTempIndex(client, indexName, null);
+		try {
+			Assert.assertEquals(200, smileClient.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS).getStatus());
+			Assert.assertEquals(200, smileClient.postMappedDocument(SCHEMA_NAME, indexName, UPDATE_DOC).getStatus());
+			// Same results in both formats
+			final ResultDefinition.WithMap result = client.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null);
+			Assert.assertEquals(UPDATE_DOCS.size() + 1, (long) result.total_hits);
+			checkSameResult(result, smileClient.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null));
+			final String id = UPDATE_DOC.get(FieldDefinition.ID_FIELD).toString();
+			Assert.assertEquals(client.getDocument(SCHEMA_NAME, indexName, id),
+					smileClient.getDocument(SCHEMA_NAME, indexName, id));
+			// The server answers in Smile when asked to
+			final String url = TestServer.BASE_URL + "/indexes/" + SCHEMA_NAME + '/' + indexName + "/search";
+			final HttpResponse response = Request.Post(url).addHeader("Accept", ServiceInterface.APPLICATION_SMILE)
+					.bodyByteArray(SmileMapper.MAPPER.writeValueAsBytes(MATCH_ALL_QUERY),
+							ContentType.create(ServiceInterface.APPLICATION_SMILE)).execute().returnResponse();
+			Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+			Assert.assertEquals(ServiceInterface.APPLICATION_SMILE,
+					ContentType.get(response.getEntity()).getMimeType());
+			try (final InputStream input = response.getEntity().getContent()) {
+				Assert.assertEquals(UPDATE_DOCS.size() + 1,
+						(long) SmileMapper.MAPPER.readValue(input, ResultDefinition.WithMap.class).total_hits);
+			}
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
+	private static File getShardDirectory(String indexName, int shard) {
+		return new File(System.getProperty("QWAZR_DATA"),
+				IndexManager.INDEXES_DIRECTORY + '/' + SCHEMA_NAME + '/' + indexName + "/shard-" + shard);
+	}
+
+	/**
+	 * @return the number of documents stored in each shard
+	 */
+	private static int[] getShardNumDocs(String indexName, int shards) throws IOException {
+		final int[] numDocs = new int[shards];
+		for (int i = 0; i < shards; i++) {
+			final File dataDirectory = new File(getShardDirectory(indexName, i), "data");
+			try (final Directory directory = FSDirectory.open(dataDirectory.toPath());
+					final DirectoryReader reader = DirectoryReader.open(directory)) {
+				numDocs[i] = reader.numDocs();
+			}
+		}
+		return numDocs;
+	}
+
+	@Test
+	public void test926ShardedIndex() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-sharded";
+		final String refIndexName = INDEX_NAME + "-unsharded";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, IndexSettingsDefinition.builder().setShards(3).build());
+		createTempIndex(client, refIndexName, null);
+		try {
+			for (String name : Arrays.asList(indexName, refIndexName)) {
+				client.postMappedDocuments(SCHEMA_NAME, name, UPDATE_DOCS);
+				client.postMappedDocument(SCHEMA_NAME, name, UPDATE_DOC);
+			}
+			final int numDocs = UPDATE_DOCS.size() + 1;
+			Assert.assertEquals(numDocs, (long) client.getIndex(SCHEMA_NAME, indexName).num_docs);
+
+			// Routing: the documents are spread over the shards, an update goes to the shard storing the document
+			int[] shardNumDocs = getShardNumDocs(indexName, 3);
+			Assert.assertEquals(numDocs, shardNumDocs[0] + shardNumDocs[1] + shardNumDocs[2]);
+			Assert.assertTrue(Math.max(shardNumDocs[0], Math.max(shardNumDocs[1], shardNumDocs[2])) < numDocs);
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			client.postMappedDocument(SCHEMA_NAME, indexName, UPDATE_DOC);
+			Assert.assertEquals(numDocs, (long) client.getIndex(SCHEMA_NAME, indexName).num_docs);
+			Assert.assertArrayEquals(shardNumDocs, getShardNumDocs(indexName, 3));
+			for (Map<String, Object> document : UPDATE_DOCS) {
+				final String id = document.get(FieldDefinition.ID_FIELD).toString();
+				Assert.assertEquals(client.getDocument(SCHEMA_NAME, refIndexName, id),
+						client.getDocument(SCHEMA_NAME, indexName, id));
+			}
+
+			// Merging: the top docs, the facets and the functions are the same as with one index
+			checkSameResult(client.searchQuery(SCHEMA_NAME, refIndexName, QUERY_SORTFIELD, null),
+					client.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null));
+			final QueryDefinition facetsQuery = new QueryBuilder(FACETS_ROWS_QUERY).setRows(0).build();
+			checkSameResult(client.searchQuery(SCHEMA_NAME, refIndexName, facetsQuery, null),
+					client.searchQuery(SCHEMA_NAME, indexName, facetsQuery, null));
+			checkSameResult(client.searchQuery(SCHEMA_NAME, refIndexName, QUERY_CHECK_FUNCTIONS, null),
+					client.searchQuery(SCHEMA_NAME, indexName, QUERY_CHECK_FUNCTIONS, null));
+
+			// The shards are included in the backup of all the indexes
+			client.doBackup("*", "*", null);
+			for (int i = 0; i < 3; i++)
+				Assert.assertTrue(new File(getShardDirectory(indexName, i), "backup").isDirectory());
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+			client.deleteIndex(SCHEMA_NAME, refIndexName);
+		}
+	}
+
+	private static List<String> getSortedExport(IndexServiceInterface client, String indexName, QueryDefinition query)
+			throws IOException {
+		final Response response = client.exportQuery(SCHEMA_NAME, indexName, query);
+		Assert.assertEquals(200, response.getStatus());
+		try (final InputStream input = (InputStream) response.getEntity()) {
+			final List<String> lines = Arrays.asList(IOUtils.toString(input).split("\n"));
+			Collections.sort(lines);
+			return lines;
+		}
+	}
+
+	@Test
+	public void test927ShardedIndexEndpoints() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-sharded";
+		final String refIndexName = INDEX_NAME + "-unsharded";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName,
+				IndexSettingsDefinition.builder().setShards(3).setParallelSearch(true).build());
+		createTempIndex(client, refIndexName, null);
+		try {
+			// NDJSON bulk
+			final StringBuilder ndjson = new StringBuilder();
+			for (Map<String, Object> doc : UPDATE_DOCS)
+				ndjson.append(JsonMapper.MAPPER.writeValueAsString(doc)).append('\n');
+			ndjson.append(JsonMapper.MAPPER.writeValueAsString(UPDATE_DOC)).append('\n');
+			final byte[] bytes = ndjson.toString().getBytes(StandardCharsets.UTF_8);
+			final int numDocs = UPDATE_DOCS.size() + 1;
+			for (String name : Arrays.asList(indexName, refIndexName)) {
+				try (final InputStream input = new ByteArrayInputStream(bytes)) {
+					final BulkStatus status = client.postMappedDocuments(SCHEMA_NAME, name, input, 2);
+					Assert.assertEquals(numDocs, (long) status.indexed);
+				}
+			}
+			Assert.assertEquals(numDocs, (long) client.getIndex(SCHEMA_NAME, indexName).num_docs);
+			final int[] shardNumDocs = getShardNumDocs(indexName, 3);
+			Assert.assertEquals(numDocs, shardNumDocs[0] + shardNumDocs[1] + shardNumDocs[2]);
+			Assert.assertTrue(Math.max(shardNumDocs[0], Math.max(shardNumDocs[1], shardNumDocs[2])) < numDocs);
+			checkSameResult(client.searchQuery(SCHEMA_NAME, refIndexName, QUERY_SORTFIELD, null),
+					client.searchQuery(SCHEMA_NAME, indexName, QUERY_SORTFIELD, null));
+
+			// Export: the same documents, the order of the shards differs
+			Assert.assertEquals(getSortedExport(client, refIndexName, QUERY_SORTFIELD),
+					getSortedExport(client, indexName, QUERY_SORTFIELD));
+
+			// Analyzers
+			checkAnalyzerResult(new String[] { "there", "are", "few", "parts", "of", "texts" },
+					client.doAnalyzeQuery(SCHEMA_NAME, indexName, "name", "There are few parts of texts"));
+			Assert.assertEquals(
+					client.testAnalyzer(SCHEMA_NAME, refIndexName, "LikeAnalyzer", "Hello World").size(),
+					client.testAnalyzer(SCHEMA_NAME, indexName, "LikeAnalyzer", "Hello World").size());
+
+			// Metrics: the queries of the sharded index, the documents written in the shards
+			Assert.assertEquals(3, getMetric(client, indexName, "shards"), 0);
+			Assert.assertEquals(numDocs, getMetric(client, indexName, "num_docs"), 0);
+			Assert.assertEquals(numDocs, getMetric(client, indexName, "written_documents_total"), 0);
+			Assert.assertEquals(1, getMetric(client, indexName, "write_requests_total"), 0);
+			Assert.assertEquals(1, getMetric(client, indexName, "queries_total"), 0);
+
+			// Backup of the index: all the shards are backed up
+			final BackupStatus status = client.doBackup(SCHEMA_NAME, indexName, null);
+			Assert.assertNotNull(status);
+			Assert.assertTrue(status.files_count > 0);
+			for (int i = 0; i < 3; i++)
+				Assert.assertTrue(new File(getShardDirectory(indexName, i), "backup").isDirectory());
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+			client.deleteIndex(SCHEMA_NAME, refIndexName);
+		}
+	}
+
+	@Test
+	public void test928ShardedIndexSettings() throws URISyntaxException {
+		final String indexName = INDEX_NAME + "-sharded";
+		IndexServiceInterface client = getClient();
+		checkNotAcceptable(() -> client.createUpdateIndex(SCHEMA_NAME, indexName,
+				IndexSettingsDefinition.builder().setShards(2).setReplicationMaster(TestServer.BASE_URL).build()));
+		checkNotAcceptable(() -> client.createUpdateIndex(SCHEMA_NAME, indexName,
+				IndexSettingsDefinition.builder().setShards(2).setResultCacheMaxEntries(10).build()));
+		Assert.assertFalse(client.getIndexes(SCHEMA_NAME).contains(indexName));
+	}
+
+	@Test
+	public void test930MultiGet() throws URISyntaxException, IOException {
+		final String indexName = INDEX_NAME + "-mget";
+		IndexServiceInterface client = getClient();
+		createTempIndex(client, indexName, null);
+		try {
+			client.setField(SCHEMA_NAME, indexName, "tags",
+					FieldDefinition.builder(FieldDefinition.Template.StoredField).build());
+			client.postMappedDocuments(SCHEMA_NAME, indexName, UPDATE_DOCS);
+			final Map<String, Object> taggedDoc = new LinkedHashMap<>(UPDATE_DOC);
+			taggedDoc.put("tags", Arrays.asList("tag1", "tag2"));
+			client.postMappedDocument(SCHEMA_NAME, indexName, taggedDoc);
+			final String taggedId = taggedDoc.get(FieldDefinition.ID_FIELD).toString();
+
+			// The documents are returned in the order of the identifiers, a missing one is flagged as not found
+			MultiGetResult result = client.getDocuments(SCHEMA_NAME, indexName,
+					new MultiGetDefinition(Arrays.asList(taggedId, "missing", "1"), null));
+			Assert.assertEquals(2, (int) result.found);
+			Assert.assertEquals(3, result.documents.size());
+			final MultiGetResult.Document tagged = result.documents.get(0);
+			Assert.assertEquals(taggedId, tagged.id);
+			Assert.assertTrue(tagged.found);
+			Assert.assertEquals(Arrays.asList("tag1", "tag2"), tagged.fields.get("tags"));
+			final MultiGetResult.Document missing = result.documents.get(1);
+			Assert.assertEquals("missing", missing.id);
+			Assert.assertFalse(missing.found);
+			Assert.assertNull(missing.fields);
+			final MultiGetResult.Document first = result.documents.get(2);
+			Assert.assertEquals("1", first.id);
+			Assert.assertTrue(first.found);
+			Assert.assertEquals("First name", first.fields.get("name"));
+			Assert.assertEquals(1.1, ((Number) first.fields.get("price")).doubleValue(), 0);
+			Assert.assertFalse(first.fields.containsKey("tags"));
+
+			// The multi client merges the documents found by the nodes by position
+			final IndexMultiClient multiClient = TestServer.getMultiClient();
+			result = multiClient.getDocuments(SCHEMA_NAME, indexName,
+					new MultiGetDefinition(Arrays.asList("missing", "1", taggedId), null));
+			Assert.assertEquals(2, (int) result.found);
+			Assert.assertEquals(3, result.documents.size());
+			Assert.assertFalse(result.documents.get(0).found);
+			Assert.assertEquals("1", result.documents.get(1).id);
+			Assert.assertEquals("First name", result.documents.get(1).fields.get("name"));
+			Assert.assertEquals(taggedId, result.documents.get(2).id);
+			Assert.assertTrue(result.documents.get(2).found);
+
+			// The metrics and the bulk are not sent to several nodes
+			checkNotImplemented(() -> multiClient.getMetrics(SCHEMA_NAME, indexName));
+			checkNotImplemented(() -> multiClient.postMappedDocuments(SCHEMA_NAME, indexName,
+					new ByteArrayInputStream(new byte[0]), 1));
+
+			// Only the requested fields are returned
+			result = client.getDocuments(SCHEMA_NAME, indexName,
+					new MultiGetDefinition(Arrays.asList("2", "3"), Collections.singleton("name")));
+			Assert.assertEquals(2, (int) result.found);
+			Assert.assertEquals("Second name", result.documents.get(0).fields.get("name"));
+			Assert.assertEquals("Third name", result.documents.get(1).fields.get("name"));
+			for (MultiGetResult.Document document : result.documents)
+				Assert.assertEquals(Collections.singleton("name"), document.fields.keySet());
+		} finally {
+			client.deleteIndex(SCHEMA_NAME, indexName);
+		}
+	}
+
 	@Test
 	public void test980DeleteIndex() throws URISyntaxException {
 		IndexServiceInterface client = getClient();
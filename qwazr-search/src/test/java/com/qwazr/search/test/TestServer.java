@@ -18,8 +18,10 @@ package com.qwazr.search.test;
 import com.google.common.io.Files;
 import com.qwazr.search.SearchServer;
 import com.qwazr.search.annotations.AnnotatedIndexService;
+import com.qwazr.search.index.IndexMultiClient;
 import com.qwazr.search.index.IndexServiceInterface;
 import com.qwazr.search.index.IndexSingleClient;
+import com.qwazr.utils.json.DataFormat;
 
 import javax.servlet.ServletException;
 import java.io.File;
@@ -27,12 +29,17 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TestServer {
 
 	public static boolean serverStarted = false;
 
-	private static final String BASE_URL = "http://localhost:9091";
+	static final String BASE_URL = "http://localhost:9091";
+
+	// The same server using another URL
+	private static final String LOOPBACK_URL = "http://127.0.0.1:9091";
 
 	public static synchronized void startServer()
 			throws InstantiationException, IllegalAccessException, ServletException, IOException {
@@ -53,6 +60,30 @@ public class TestServer {
 		return singleClient;
 	}
 
+	public static IndexSingleClient smileClient = null;
+
+	public static synchronized IndexServiceInterface getSmileClient() throws URISyntaxException {
+		if (smileClient != null)
+			return smileClient;
+		smileClient = new IndexSingleClient(BASE_URL, 60000, null, DataFormat.SMILE);
+		return smileClient;
+	}
+
+	private static ExecutorService executorService = null;
+
+	public static IndexMultiClient multiClient = null;
+
+	/**
+	 * A client sending the requests twice to the test server, as if two nodes hosted the same index
+	 */
+	public static synchronized IndexMultiClient getMultiClient() throws URISyntaxException {
+		if (multiClient != null)
+			return multiClient;
+		executorService = Executors.newCachedThreadPool();
+		multiClient = new IndexMultiClient(executorService, new String[] { BASE_URL, LOOPBACK_URL }, 60000);
+		return multiClient;
+	}
+
 	public static Map<Class<?>, AnnotatedIndexService> serviceMap = new HashMap<>();
 
 	public static synchronized <T> AnnotatedIndexService<T> getService(Class<T> indexClass) throws URISyntaxException {
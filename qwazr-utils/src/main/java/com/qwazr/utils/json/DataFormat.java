@@ -0,0 +1,39 @@
+/**
+ * Copyright 2014-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.utils.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qwazr.utils.server.ServiceInterface;
+import org.apache.http.entity.ContentType;
+
+/**
+ * The formats used to exchange the objects with a service: the JSON text format or the Smile binary format.
+ */
+public enum DataFormat {
+
+	JSON(JsonMapper.MAPPER, ContentType.APPLICATION_JSON),
+
+	SMILE(SmileMapper.MAPPER, ContentType.create(ServiceInterface.APPLICATION_SMILE));
+
+	public final ObjectMapper mapper;
+
+	public final ContentType contentType;
+
+	DataFormat(final ObjectMapper mapper, final ContentType contentType) {
+		this.mapper = mapper;
+		this.contentType = contentType;
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2014-2016 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.utils.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qwazr.utils.server.ServiceInterface;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+
+@Provider
+@Produces(ServiceInterface.APPLICATION_SMILE)
+public class JacksonSmileConfig implements ContextResolver<ObjectMapper> {
+
+	public JacksonSmileConfig() {
+	}
+
+	@Override
+	public ObjectMapper getContext(Class<?> objectType) {
+		return SmileMapper.MAPPER;
+	}
+}
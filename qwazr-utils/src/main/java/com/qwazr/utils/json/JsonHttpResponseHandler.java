@@ -17,6 +17,7 @@ package com.qwazr.utils.json;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.qwazr.utils.http.HttpResponseHandler;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
@@ -41,34 +42,48 @@ public class JsonHttpResponseHandler {
 
 	public static class JsonValueResponse<T> extends HttpResponseHandler<T> {
 
+		private final ObjectMapper mapper;
 		private final Class<T> jsonClass;
 
-		public JsonValueResponse(ContentType expectedContentType, Class<T> jsonClass, int... expectedCodes) {
+		public JsonValueResponse(ObjectMapper mapper, ContentType expectedContentType, Class<T> jsonClass,
+						int... expectedCodes) {
 			super(expectedContentType, expectedCodes);
+			this.mapper = mapper;
 			this.jsonClass = jsonClass;
 		}
 
+		public JsonValueResponse(ContentType expectedContentType, Class<T> jsonClass, int... expectedCodes) {
+			this(JsonMapper.MAPPER, expectedContentType, jsonClass, expectedCodes);
+		}
+
 		@Override
 		public T handleResponse(HttpResponse response) throws IOException {
 			super.handleResponse(response);
-			return JsonMapper.MAPPER.readValue(httpEntity.getContent(), jsonClass);
+			return mapper.readValue(httpEntity.getContent(), jsonClass);
 		}
 	}
 
 	public static class JsonValueTypeRefResponse<T> extends HttpResponseHandler<T> {
 
+		private final ObjectMapper mapper;
 		private final TypeReference<T> typeReference;
 
-		public JsonValueTypeRefResponse(ContentType expectedContentType, TypeReference<T> typeReference,
-						int... expectedCodes) {
+		public JsonValueTypeRefResponse(ObjectMapper mapper, ContentType expectedContentType,
+						TypeReference<T> typeReference, int... expectedCodes) {
 			super(expectedContentType, expectedCodes);
+			this.mapper = mapper;
 			this.typeReference = typeReference;
 		}
 
+		public JsonValueTypeRefResponse(ContentType expectedContentType, TypeReference<T> typeReference,
+						int... expectedCodes) {
+			this(JsonMapper.MAPPER, expectedContentType, typeReference, expectedCodes);
+		}
+
 		@Override
 		public T handleResponse(HttpResponse response) throws IOException {
 			super.handleResponse(response);
-			return JsonMapper.MAPPER.readValue(httpEntity.getContent(), typeReference);
+			return mapper.readValue(httpEntity.getContent(), typeReference);
 		}
 	}
 }
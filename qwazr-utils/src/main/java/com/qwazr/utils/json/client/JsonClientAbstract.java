@@ -19,10 +19,11 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.qwazr.utils.http.HttpResponseEntityException;
+import com.qwazr.utils.json.DataFormat;
 import com.qwazr.utils.json.JsonHttpResponseHandler;
-import com.qwazr.utils.json.JsonMapper;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.Credentials;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.fluent.Executor;
 import org.apache.http.client.fluent.Request;
 import org.apache.http.client.utils.URIBuilder;
@@ -79,7 +80,8 @@ public abstract class JsonClientAbstract implements JsonClientInterface {
 		this(url, msTimeOut, null);
 	}
 
-	private Request setBodyString(Request request, Object bodyObject) throws JsonProcessingException {
+	private Request setBodyString(Request request, Object bodyObject, DataFormat format)
+			throws JsonProcessingException {
 		if (bodyObject == null)
 			return request;
 		if (bodyObject instanceof String)
@@ -87,7 +89,11 @@ public abstract class JsonClientAbstract implements JsonClientInterface {
 		else if (bodyObject instanceof InputStream)
 			return request.bodyStream((InputStream) bodyObject, ContentType.APPLICATION_OCTET_STREAM);
 		else
-			return request.bodyString(JsonMapper.MAPPER.writeValueAsString(bodyObject), ContentType.APPLICATION_JSON);
+			return request.bodyByteArray(format.mapper.writeValueAsBytes(bodyObject), format.contentType);
+	}
+
+	private Request setBodyString(Request request, Object bodyObject) throws JsonProcessingException {
+		return setBodyString(request, bodyObject, DataFormat.JSON);
 	}
 
 	/**
@@ -96,15 +102,33 @@ public abstract class JsonClientAbstract implements JsonClientInterface {
 	@Override
 	final public <T> T execute(Request request, Object bodyObject, Integer msTimeOut, Class<T> jsonResultClass,
 			int... expectedCodes) throws IOException {
+		return execute(request, bodyObject, msTimeOut, DataFormat.JSON, jsonResultClass, expectedCodes);
+	}
+
+	/**
+	 * Execute an HTTP request returning the expected object. The body and the response use the given format.
+	 *
+	 * @param request       the HTTP request to execute
+	 * @param bodyObject    an optional object for the body
+	 * @param msTimeOut     an optional timeout in milliseconds
+	 * @param format        the format of the body and of the response
+	 * @param resultClass   the class of the returned object
+	 * @param expectedCodes the expected HTTP status code(s)
+	 * @param <T>           the type of the returned object
+	 * @return an instance of the expected class
+	 * @throws IOException if any IO error occur
+	 */
+	final public <T> T execute(Request request, Object bodyObject, Integer msTimeOut, DataFormat format,
+			Class<T> resultClass, int... expectedCodes) throws IOException {
 		if (logger.isDebugEnabled())
 			logger.debug(request.toString());
 		if (msTimeOut == null)
 			msTimeOut = this.timeout;
-		request = setBodyString(request, bodyObject);
+		request = setBodyString(request, bodyObject, format);
 		JsonHttpResponseHandler.JsonValueResponse<T> responseHandler = new JsonHttpResponseHandler.JsonValueResponse<T>(
-				ContentType.APPLICATION_JSON, jsonResultClass, expectedCodes);
+				format.mapper, format.contentType, resultClass, expectedCodes);
 		return executor.execute(request.connectTimeout(msTimeOut).socketTimeout(msTimeOut)
-				.addHeader("Accept", ContentType.APPLICATION_JSON.toString())).handleResponse(responseHandler);
+				.addHeader("Accept", format.contentType.toString())).handleResponse(responseHandler);
 	}
 
 	/**
@@ -113,14 +137,33 @@ public abstract class JsonClientAbstract implements JsonClientInterface {
 	@Override
 	final public <T> T execute(Request request, Object bodyObject, Integer msTimeOut, TypeReference<T> typeRef,
 			int... expectedCodes) throws IOException {
+		return execute(request, bodyObject, msTimeOut, DataFormat.JSON, typeRef, expectedCodes);
+	}
+
+	/**
+	 * Execute an HTTP request returning an object of the expected type reference. The body and the response use
+	 * the given format.
+	 *
+	 * @param request       the HTTP request to execute
+	 * @param bodyObject    an optional object for the body
+	 * @param msTimeOut     an optional timeout in milliseconds
+	 * @param format        the format of the body and of the response
+	 * @param typeRef       the TypeRef of the returned object
+	 * @param expectedCodes the expected HTTP status code(s)
+	 * @param <T>           the type of the returned object
+	 * @return an instance of the expected type
+	 * @throws IOException in case of IO error
+	 */
+	final public <T> T execute(Request request, Object bodyObject, Integer msTimeOut, DataFormat format,
+			TypeReference<T> typeRef, int... expectedCodes) throws IOException {
 		if (logger.isDebugEnabled())
 			logger.debug(request.toString());
 		if (msTimeOut == null)
 			msTimeOut = this.timeout;
-		request = setBodyString(request, bodyObject);
+		request = setBodyString(request, bodyObject, format);
 		return executor.execute(request.connectTimeout(msTimeOut).socketTimeout(msTimeOut)
-				.addHeader("accept", ContentType.APPLICATION_JSON.toString())).handleResponse(
-				new JsonHttpResponseHandler.JsonValueTypeRefResponse<T>(ContentType.APPLICATION_JSON, typeRef,
+				.addHeader("accept", format.contentType.toString())).handleResponse(
+				new JsonHttpResponseHandler.JsonValueTypeRefResponse<T>(format.mapper, format.contentType, typeRef,
 						expectedCodes));
 	}
 
@@ -145,18 +188,61 @@ public abstract class JsonClientAbstract implements JsonClientInterface {
 	 */
 	@Override
 	final public HttpResponse execute(Request request, Object bodyObject, Integer msTimeOut) throws IOException {
+		return execute(request, bodyObject, msTimeOut, DataFormat.JSON);
+	}
+
+	/**
+	 * Execute an HTTP request. The bodyObject is serialized using the given format.
+	 *
+	 * @param request    a preconfigured HTTP request
+	 * @param bodyObject the body of the request (payload)
+	 * @param msTimeOut  the time out in milliseconds. If null, the default value is used
+	 * @param format     the format of the body
+	 * @return the HTTP response
+	 * @throws IOException in case of any IO error
+	 */
+	final public HttpResponse execute(Request request, Object bodyObject, Integer msTimeOut, DataFormat format)
+			throws IOException {
 		if (logger.isDebugEnabled())
 			logger.debug(request.toString());
 		if (msTimeOut == null)
 			msTimeOut = this.timeout;
-		request = setBodyString(request, bodyObject);
+		request = setBodyString(request, bodyObject, format);
 		return executor.execute(request.connectTimeout(msTimeOut).socketTimeout(msTimeOut)).returnResponse();
 	}
 
+	/**
+	 * Execute the request and let the handler consume the response. Unlike
+	 * {@link #execute(Request, Object, Integer)}, the entity is not buffered.
+	 *
+	 * @param request         the HTTP request
+	 * @param bodyObject      an optional body
+	 * @param msTimeOut       an optional timeout in milliseconds
+	 * @param responseHandler the handler which reads the response
+	 * @param <T>             the type returned by the handler
+	 * @return the value returned by the handler
+	 * @throws IOException if any I/O error occurs
+	 */
+	final public <T> T execute(Request request, Object bodyObject, Integer msTimeOut,
+			ResponseHandler<T> responseHandler) throws IOException {
+		if (logger.isDebugEnabled())
+			logger.debug(request.toString());
+		if (msTimeOut == null)
+			msTimeOut = this.timeout;
+		request = setBodyString(request, bodyObject);
+		return executor.execute(request.connectTimeout(msTimeOut).socketTimeout(msTimeOut))
+				.handleResponse(responseHandler);
+	}
+
 	final public <T> T commonServiceRequest(Request request, Object body, Integer msTimeOut, Class<T> objectClass,
 			int... expectedCodes) {
+		return commonServiceRequest(request, body, msTimeOut, DataFormat.JSON, objectClass, expectedCodes);
+	}
+
+	final public <T> T commonServiceRequest(Request request, Object body, Integer msTimeOut, DataFormat format,
+			Class<T> objectClass, int... expectedCodes) {
 		try {
-			return execute(request, body, msTimeOut, objectClass, expectedCodes);
+			return execute(request, body, msTimeOut, format, objectClass, expectedCodes);
 		} catch (HttpResponseEntityException e) {
 			throw e.getWebApplicationException();
 		} catch (IOException e) {
@@ -166,8 +252,13 @@ public abstract class JsonClientAbstract implements JsonClientInterface {
 
 	final public <T> T commonServiceRequest(Request request, Object body, Integer msTimeOut, TypeReference<T> typeRef,
 			int... expectedCodes) {
+		return commonServiceRequest(request, body, msTimeOut, DataFormat.JSON, typeRef, expectedCodes);
+	}
+
+	final public <T> T commonServiceRequest(Request request, Object body, Integer msTimeOut, DataFormat format,
+			TypeReference<T> typeRef, int... expectedCodes) {
 		try {
-			return execute(request, body, msTimeOut, typeRef, expectedCodes);
+			return execute(request, body, msTimeOut, format, typeRef, expectedCodes);
 		} catch (HttpResponseEntityException e) {
 			throw e.getWebApplicationException();
 		} catch (IOException e) {
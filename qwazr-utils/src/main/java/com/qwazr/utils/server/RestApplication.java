@@ -16,7 +16,9 @@
 package com.qwazr.utils.server;
 
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
 import com.qwazr.utils.json.JacksonConfig;
+import com.qwazr.utils.json.JacksonSmileConfig;
 import com.qwazr.utils.json.JsonMappingExceptionMapper;
 import io.undertow.servlet.Servlets;
 import io.undertow.servlet.api.DeploymentInfo;
@@ -39,6 +41,8 @@ class RestApplication extends Application {
 		Set<Class<?>> classes = new HashSet<Class<?>>();
 		classes.add(JacksonConfig.class);
 		classes.add(JacksonJsonProvider.class);
+		classes.add(JacksonSmileConfig.class);
+		classes.add(JacksonSmileProvider.class);
 		classes.add(JsonMappingExceptionMapper.class);
 		if (AbstractServer.INSTANCE != null && AbstractServer.INSTANCE.services != null)
 			classes.addAll(AbstractServer.INSTANCE.services);
@@ -18,4 +18,6 @@ package com.qwazr.utils.server;
 public interface ServiceInterface {
 
 	String APPLICATION_JSON_UTF8 = "application/json; charset=UTF-8";
+
+	String APPLICATION_SMILE = "application/x-jackson-smile";
 }